@@ -0,0 +1,186 @@
+package space.iegrsy.h264decodeapp;
+
+import android.support.annotation.NonNull;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import io.grpc.ManagedChannel;
+import io.grpc.okhttp.OkHttpChannelBuilder;
+
+/**
+ * One gRPC channel per server, shared by every stream from it, so a new stream or a reconnect
+ * reuses the HTTP/2 connection instead of paying for a TCP handshake.
+ * <p>
+ * Channels use the OkHttp transport with keepalive pings while calls are open, so a dead
+ * connection is noticed within seconds instead of when TCP gives up; the server has to permit
+ * pings that often. A channel without leases lingers for {@code lingerMs} before it is shut down,
+ * covering a camera switch or a stop and start.
+ */
+class ChannelManager {
+    private static final String TAG = ChannelManager.class.getSimpleName();
+
+    public static final long DEFAULT_KEEPALIVE_MS = 30000;
+    public static final long DEFAULT_LINGER_MS = 30000;
+
+    private static final long KEEPALIVE_TIMEOUT_MS = 10000;
+    // Channels without calls drop their connection after this; the next call connects again.
+    private static final long IDLE_TIMEOUT_MS = 5 * 60 * 1000;
+    // An unchunked IDR of a 4K stream is well over the default 4 MiB.
+    private static final int MAX_INBOUND_MESSAGE_SIZE = 16 * 1024 * 1024;
+
+    private final long keepAliveMs;
+    private final long lingerMs;
+    private final Map<String, Entry> channels = new HashMap<>();
+    private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            Thread thread = new Thread(r, TAG);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    public ChannelManager() {
+        this(DEFAULT_KEEPALIVE_MS, DEFAULT_LINGER_MS);
+    }
+
+    public ChannelManager(long keepAliveMs, long lingerMs) {
+        if (keepAliveMs <= 0 || lingerMs < 0)
+            throw new IllegalArgumentException(String.format("Invalid channel settings: keepalive %s ms, linger %s ms", keepAliveMs, lingerMs));
+
+        this.keepAliveMs = keepAliveMs;
+        this.lingerMs = lingerMs;
+    }
+
+    /**
+     * The channel to {@code host:port}, created on first use; release the lease when done.
+     */
+    public synchronized Lease acquire(@NonNull String host, int port) {
+        final String key = host + ":" + port;
+        Entry entry = channels.get(key);
+        if (entry == null || entry.channel.isShutdown()) {
+            entry = new Entry(key, OkHttpChannelBuilder.forAddress(host, port)
+                    .usePlaintext()
+                    .keepAliveTime(keepAliveMs, TimeUnit.MILLISECONDS)
+                    .keepAliveTimeout(KEEPALIVE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                    .keepAliveWithoutCalls(false)
+                    .idleTimeout(IDLE_TIMEOUT_MS, TimeUnit.MILLISECONDS)
+                    .maxInboundMessageSize(MAX_INBOUND_MESSAGE_SIZE)
+                    .build());
+            channels.put(key, entry);
+            Log.i(TAG, String.format("Channel to %s created", key));
+        }
+
+        entry.leases++;
+        return new Lease(entry);
+    }
+
+    /**
+     * Skips the wait of channels backing off from failed connects, e.g. once the network is back.
+     */
+    public synchronized void resetConnectBackoff() {
+        for (Entry entry : channels.values())
+            entry.channel.resetConnectBackoff();
+    }
+
+    /**
+     * Shuts every channel down, leased or not, and stops the eviction thread.
+     */
+    public void release() {
+        synchronized (this) {
+            for (Entry entry : channels.values())
+                entry.channel.shutdownNow();
+            channels.clear();
+        }
+        evictor.shutdownNow();
+    }
+
+    public synchronized int getChannelCount() {
+        return channels.size();
+    }
+
+    private synchronized void onReleased(Entry entry) {
+        if (--entry.leases > 0)
+            return;
+
+        entry.idleSinceNs = System.nanoTime();
+        if (lingerMs == 0) {
+            evictIdle();
+            return;
+        }
+        try {
+            evictor.schedule(evictTask, lingerMs, TimeUnit.MILLISECONDS);
+        } catch (RejectedExecutionException e) {
+            // Released after the manager; the channel went with it.
+        }
+    }
+
+    private synchronized void evictIdle() {
+        final long now = System.nanoTime();
+        final long lingerNs = TimeUnit.MILLISECONDS.toNanos(lingerMs);
+        Iterator<Entry> it = channels.values().iterator();
+        while (it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.leases == 0 && now - entry.idleSinceNs >= lingerNs) {
+                it.remove();
+                entry.channel.shutdown();
+                Log.i(TAG, String.format("Channel to %s closed", entry.key));
+            }
+        }
+    }
+
+    private final Runnable evictTask = new Runnable() {
+        @Override
+        public void run() {
+            evictIdle();
+        }
+    };
+
+    private static final class Entry {
+        final String key;
+        final ManagedChannel channel;
+        int leases = 0;
+        long idleSinceNs;
+
+        Entry(String key, ManagedChannel channel) {
+            this.key = key;
+            this.channel = channel;
+        }
+    }
+
+    /**
+     * A stream's use of a shared channel.
+     */
+    final class Lease {
+        private final Entry entry;
+        private boolean released = false;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        public ManagedChannel getChannel() {
+            return entry.channel;
+        }
+
+        /**
+         * Gives the channel back; its calls should be over. Only the first call counts.
+         */
+        public void release() {
+            synchronized (ChannelManager.this) {
+                if (released)
+                    return;
+                released = true;
+            }
+            onReleased(entry);
+        }
+    }
+}
@@ -2,12 +2,11 @@ package space.iegrsy.h264decodeapp;
 
 import android.annotation.SuppressLint;
 import android.content.Context;
+import android.media.MediaFormat;
 import android.os.AsyncTask;
 import android.os.Bundle;
-import android.support.annotation.NonNull;
 import android.support.design.widget.TextInputEditText;
 import android.support.v7.app.AppCompatActivity;
-import android.util.Log;
 import android.view.GestureDetector;
 import android.view.MotionEvent;
 import android.view.SurfaceView;
@@ -15,22 +14,34 @@ import android.view.View;
 import android.view.animation.TranslateAnimation;
 import android.widget.ImageButton;
 import android.widget.LinearLayout;
+import android.widget.TextView;
 
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-import io.grpc.ManagedChannel;
-import io.grpc.ManagedChannelBuilder;
-import io.grpc.Status;
-import io.grpc.stub.StreamObserver;
+import space.iegrsy.h264player.player.BufferPool;
+import space.iegrsy.h264player.player.ChecksumVerifier;
+import space.iegrsy.h264player.player.CodecLimits;
+import space.iegrsy.h264player.player.CodecPool;
 import space.iegrsy.h264player.player.H264Player;
-import vms.Nvr;
-import vms.NvrServiceGrpc;
+import space.iegrsy.h264player.player.MetricsOverlay;
+import space.iegrsy.h264player.player.PlaybackController;
+import space.iegrsy.h264player.player.QualityController;
 
 public class MainActivity extends AppCompatActivity {
     private Context context = this;
 
     private H264Player player;
+    private SurfaceView surfaceView;
     private PlayerFeeder playerFeeder;
+    private final BufferPool bufferPool = new BufferPool();
+    private final CodecPool codecPool = new CodecPool();
+    private final ChannelManager channelManager = new ChannelManager();
+    // MD5 checks of received payloads, off the network and decode threads.
+    private final ExecutorService checksumExecutor = Executors.newSingleThreadExecutor();
+    private final ChecksumVerifier checksumVerifier = new ChecksumVerifier(checksumExecutor);
+
+    private MetricsOverlay metricsOverlay;
 
     private LinearLayout linearLayout;
     private ImageButton connectBtn;
@@ -41,17 +52,19 @@ public class MainActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_main);
 
-        SurfaceView surfaceView = findViewById(R.id.player_surface);
+        surfaceView = findViewById(R.id.player_surface);
         surfaceView.setOnTouchListener(new UIHelper.OnSwipeTouchListener(this,
                 new UIHelper.OnSwipeTouchListener.SwipeListener() {
                     @Override
                     public void onSwipeRight() {
-
+                        if (metricsOverlay != null)
+                            metricsOverlay.stop();
                     }
 
                     @Override
                     public void onSwipeLeft() {
-
+                        if (metricsOverlay != null)
+                            metricsOverlay.start();
                     }
 
                     @Override
@@ -72,6 +85,11 @@ public class MainActivity extends AppCompatActivity {
 
         player = new H264Player(surfaceView);
         player.setPlayingChangeListener(playingChangeListener);
+        player.setLiveMode(true);
+        player.setCodecPool(codecPool);
+
+        // Pipeline metrics for field debugging; swipe left to show, right to hide.
+        metricsOverlay = new MetricsOverlay((TextView) findViewById(R.id.debug_overlay), player);
     }
 
     private boolean isConnected = false;
@@ -95,7 +113,12 @@ public class MainActivity extends AppCompatActivity {
                     player.start();
 
                 if (playerFeeder == null)
-                    playerFeeder = new PlayerFeeder().init(host, port, player);
+                    playerFeeder = new PlayerFeeder().init(channelManager, host, port, player, bufferPool)
+                            .setQualityController(new QualityController(StreamProfiles.initialQualityLevel(context)))
+                            .setChecksumVerifier(checksumVerifier)
+                            .setPlaybackController(new PlaybackController(CodecLimits.getMaxFrameRate(MediaFormat.MIMETYPE_VIDEO_AVC, 1920, 1080)))
+                            .setCacheDir(getCacheDir())
+                            .fitTo(surfaceView);
                 playerFeeder.start();
             }
         }
@@ -119,94 +142,15 @@ public class MainActivity extends AppCompatActivity {
     @Override
     protected void onDestroy() {
         super.onDestroy();
+        if (metricsOverlay != null)
+            metricsOverlay.stop();
         if (playerFeeder != null)
             playerFeeder.release();
         if (player != null)
             player.stop();
-    }
-
-    private static class PlayerFeeder {
-        private boolean isReadyChannel = false;
-
-        private ManagedChannel channel;
-        private NvrServiceGrpc.NvrServiceStub stub;
-        private NvrServiceGrpc.NvrServiceBlockingStub blockingStub;
-
-        private StreamObserver<Nvr.CameraStreamQ> queryStreamObserver;
-
-        private H264Player player;
-
-        public PlayerFeeder init(final String host, final int port, @NonNull final H264Player player) {
-            this.player = player;
-
-            channel = ManagedChannelBuilder.forAddress(host, port).usePlaintext().build();
-            stub = NvrServiceGrpc.newStub(channel);
-            blockingStub = NvrServiceGrpc.newBlockingStub(channel).withDeadlineAfter(2000, TimeUnit.MILLISECONDS);
-            isReadyChannel = true;
-
-            return this;
-        }
-
-        public void start() {
-            String uid = "";
-            long ts = 0;
-
-            // TODO: UNIMPLEMENTED
-            // getAnyCamera(uid, ts);
-
-            Nvr.PlaybackChanges playbackChanges = Nvr.PlaybackChanges.newBuilder().setType(Nvr.PlaybackChanges.PlaybackChangesTypes.PC_SEEK_ABSOLUTE).build();
-            Nvr.CameraStreamQ streamQ = Nvr.CameraStreamQ.newBuilder().setUniqueId(uid).setBeginTs(ts).setPc(playbackChanges).build();
-
-            queryStreamObserver = stub.getCameraStream(cameraFrameStreamObserver);
-            queryStreamObserver.onNext(streamQ);
-        }
-
-        public void release() {
-            cameraFrameStreamObserver.onCompleted();
-            if (channel != null) {
-                channel.shutdownNow();
-                channel = null;
-            }
-            isReadyChannel = false;
-        }
-
-        private void getAnyCamera(String uid, long beginTS) {
-            if (!isReadyChannel)
-                throw new NullPointerException("Please create channel. Channel null");
-
-            Nvr.CameraList cameraList = blockingStub.getCameraList(Nvr.CameraFilters.newBuilder().build());
-            uid = cameraList.getListCount() > 0 ? cameraList.getList(0).getUniqueId() : "";
-
-            Nvr.RecordDetails recordDetails = blockingStub.getRecordDetails(Nvr.CameraQ.newBuilder().setUniqueId(uid).build());
-            beginTS = recordDetails.getRecordBeginTime();
-        }
-
-        private final StreamObserver<Nvr.StreamFrame> cameraFrameStreamObserver = new StreamObserver<Nvr.StreamFrame>() {
-            Nvr.CameraStreamQ noneStreamQ = Nvr.CameraStreamQ.newBuilder().setPc(
-                    Nvr.PlaybackChanges.newBuilder().setType(Nvr.PlaybackChanges.PlaybackChangesTypes.PC_NONE).build()
-            ).build();
-
-            @Override
-            public void onNext(Nvr.StreamFrame value) {
-                //Log.w("debug", "onNext");
-                if (player != null)
-                    player.useFrameData(value.getData(0).getData().toByteArray(), value.getData(0).getTs());
-                if (queryStreamObserver != null)
-                    queryStreamObserver.onNext(noneStreamQ);
-            }
-
-            @Override
-            public void onError(Throwable t) {
-                Log.e("debug", String.format("[%s]: %s", Status.fromThrowable(t).getCode(), Status.fromThrowable(t).getDescription()));
-                if (player != null)
-                    player.stop();
-            }
-
-            @Override
-            public void onCompleted() {
-                Log.w("debug", "onCompleted");
-            }
-        };
+        codecPool.release();
+        channelManager.release();
+        checksumExecutor.shutdown();
     }
 
     public static class UIHelper {
@@ -0,0 +1,750 @@
+package space.iegrsy.h264decodeapp;
+
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import io.grpc.ManagedChannel;
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import io.grpc.stub.ClientCallStreamObserver;
+import io.grpc.stub.ClientCalls;
+import io.grpc.stub.ClientResponseObserver;
+import space.iegrsy.h264player.player.BufferPool;
+import space.iegrsy.h264player.player.ChecksumVerifier;
+import space.iegrsy.h264player.player.ChunkReassembler;
+import space.iegrsy.h264player.player.FrameFilter;
+import space.iegrsy.h264player.player.FrameSink;
+import space.iegrsy.h264player.player.PipelineMetrics;
+import space.iegrsy.h264player.player.PlaybackController;
+import space.iegrsy.h264player.player.PooledBuffer;
+import space.iegrsy.h264player.player.QualityController;
+import space.iegrsy.h264player.player.ReconnectBackoff;
+import space.iegrsy.h264player.player.ScatterBuffer;
+import space.iegrsy.h264player.player.StreamCache;
+import space.iegrsy.h264player.player.StreamCredits;
+import vms.Nvr;
+import vms.NvrServiceGrpc;
+
+class PlayerFeeder {
+    private static final String TAG = PlayerFeeder.class.getSimpleName();
+
+    // PC_NONE acks go upstream once per ACK_EVERY_FRAMES frames or ACK_INTERVAL_MS, whichever
+    // comes first, instead of once per frame.
+    private static final int ACK_EVERY_FRAMES = 30;
+    private static final long ACK_INTERVAL_MS = 250;
+    // Flow timer ticks between quality samples.
+    private static final int QUALITY_SAMPLE_TICKS = 4;
+    // A replay from the cache keeps this many frames queued in the player.
+    private static final int REPLAY_QUEUED_FRAMES = 6;
+    private static final long REPLAY_INTERVAL_MS = 10;
+    // Replayed frames are handed over this far ahead of their time; a replay further behind
+    // than REPLAY_LATE_MS starts its clock over instead of catching up in a burst.
+    private static final long REPLAY_LEAD_MS = 100;
+    private static final long REPLAY_LATE_MS = 1000;
+
+    private boolean isReadyChannel = false;
+
+    // Shared with the other streams from the server, see ChannelManager.
+    private ChannelManager.Lease channelLease;
+    private ManagedChannel channel;
+    private NvrServiceGrpc.NvrServiceStub stub;
+    private NvrServiceGrpc.NvrServiceBlockingStub blockingStub;
+
+    // The running call and its request side; onNext calls are serialized on this feeder.
+    private volatile CameraStreamObserver activeCall = null;
+    private volatile ClientCallStreamObserver<Nvr.CameraStreamQ> queryStreamObserver;
+    private MethodDescriptor<Nvr.CameraStreamQ, PooledStreamFrame> cameraStreamMethod;
+
+    // A dropped call is opened again after a backoff, at the last timestamp received, while the
+    // player keeps its decoder and last picture. Calls are opened, and isStarted and channel
+    // cleared, holding the feeder's monitor, so a reconnect never opens a call after release().
+    private final ReconnectBackoff backoff = new ReconnectBackoff();
+    private volatile boolean isStarted = false;
+    private long beginTs = 0;
+    private volatile long lastTs = -1;
+
+    // Inbound flow control: frames are requested as the player's queue leaves room for them.
+    private final StreamCredits credits = new StreamCredits();
+    private final AtomicInteger unacked = new AtomicInteger();
+    private ScheduledExecutorService flowTimer = null;
+
+    private FrameSink player;
+    private volatile Nvr.CameraStream.ResolutionProfile resolutionProfile = Nvr.CameraStream.ResolutionProfile.R_BEST;
+    // Surface the resolution profile follows while started, see fitTo().
+    private SurfaceHolder fittedHolder = null;
+    private String uniqueId = "";
+
+    // Chunked frames are joined here on the call's thread.
+    private ChunkReassembler reassembler;
+    private volatile ChecksumVerifier checksumVerifier = null;
+
+    // Received frames are recorded in a per-camera cache; seeks inside it replay locally. The
+    // reassembler and the replay are guarded by feedLock.
+    private final Object feedLock = new Object();
+    private File cacheDir = null;
+    private volatile StreamCache streamCache = null;
+    private StreamCache.Replay replay = null;
+    private boolean liveRequested = false;
+    // Replay clock: the frame read but not handed over yet, and where stream time started.
+    private boolean replayHeld = false;
+    private long replayOriginTs = 0;
+    private long replayOriginNs = 0;
+
+    // Seek and fast play; guarded by itself.
+    private volatile PlaybackController playbackController = new PlaybackController(PlaybackController.DEFAULT_MAX_DECODE_FPS);
+
+    // Adaptive quality, sampled on the flow timer; off while null.
+    private volatile QualityController qualityController = null;
+    private PipelineMetrics.Snapshot currentSample = new PipelineMetrics.Snapshot();
+    private PipelineMetrics.Snapshot previousSample = new PipelineMetrics.Snapshot();
+    private int ticks = 0;
+
+    public PlayerFeeder init(@NonNull ChannelManager channels, final String host, final int port, @NonNull final FrameSink player, @NonNull final BufferPool bufferPool) {
+        this.player = player;
+        reassembler = new ChunkReassembler(player.getMetrics());
+
+        channelLease = channels.acquire(host, port);
+        channel = channelLease.getChannel();
+        cameraStreamMethod = StreamFrameMarshaller.cameraStreamMethod(bufferPool);
+        stub = NvrServiceGrpc.newStub(channel);
+        blockingStub = NvrServiceGrpc.newBlockingStub(channel).withDeadlineAfter(2000, TimeUnit.MILLISECONDS);
+        isReadyChannel = true;
+
+        return this;
+    }
+
+    /**
+     * Substream to stream, asked for on the running call too; see
+     * {@link StreamProfiles#forTile(int, int)}.
+     */
+    public PlayerFeeder setResolutionProfile(@NonNull Nvr.CameraStream.ResolutionProfile profile) {
+        if (profile == resolutionProfile)
+            return this;
+
+        resolutionProfile = profile;
+        if (isStarted) {
+            Log.i(TAG, String.format("Resolution profile %s", profile));
+            Nvr.PlaybackChanges none = Nvr.PlaybackChanges.newBuilder().setType(Nvr.PlaybackChanges.PlaybackChangesTypes.PC_NONE).build();
+            send(Nvr.CameraStreamQ.newBuilder().setUniqueId(uniqueId).setPc(none).addStreams(createStream()).build());
+        }
+        return this;
+    }
+
+    /**
+     * Streams the substream for the size of {@code view}, the player's surface or a grid tile's,
+     * and switches as the surface is resized.
+     */
+    public PlayerFeeder fitTo(@NonNull SurfaceView view) {
+        if (fittedHolder != null)
+            fittedHolder.removeCallback(surfaceCallback);
+        fittedHolder = view.getHolder();
+        if (isStarted)
+            fittedHolder.addCallback(surfaceCallback);
+        return setResolutionProfile(StreamProfiles.forTile(view.getWidth(), view.getHeight()));
+    }
+
+    private final SurfaceHolder.Callback surfaceCallback = new SurfaceHolder.Callback() {
+        @Override
+        public void surfaceCreated(SurfaceHolder holder) {
+        }
+
+        @Override
+        public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            setResolutionProfile(StreamProfiles.forTile(width, height));
+        }
+
+        @Override
+        public void surfaceDestroyed(SurfaceHolder holder) {
+        }
+    };
+
+    /**
+     * Switches the stream's quality and resolution profiles as {@code controller} decides from
+     * the player's metrics; the resolution profile set above stays the upper bound.
+     */
+    public PlayerFeeder setQualityController(@Nullable QualityController controller) {
+        qualityController = controller;
+        return this;
+    }
+
+    /**
+     * Checks payloads sent with an MD5 on the verifier's executor; off while null.
+     */
+    public PlayerFeeder setChecksumVerifier(@Nullable ChecksumVerifier verifier) {
+        checksumVerifier = verifier;
+        return this;
+    }
+
+    /**
+     * Picks the frames decoded in fast play; its budget usually comes from
+     * {@link space.iegrsy.h264player.player.CodecLimits#getMaxFrameRate}.
+     */
+    public PlayerFeeder setPlaybackController(@NonNull PlaybackController controller) {
+        playbackController = controller;
+        return this;
+    }
+
+    /**
+     * Records the stream in a {@link StreamCache} file in {@code dir}, one per camera; off while null.
+     */
+    public PlayerFeeder setCacheDir(@Nullable File dir) {
+        cacheDir = dir;
+        return this;
+    }
+
+    public void start() {
+        String uid = "";
+        long ts = 0;
+
+        // TODO: UNIMPLEMENTED
+        // getAnyCamera(uid, ts);
+        uniqueId = uid;
+        beginTs = ts;
+        lastTs = -1;
+        openCache(uid);
+
+        stopFlowTimer();
+        ticks = 0;
+        previousSample = new PipelineMetrics.Snapshot();
+        backoff.reset();
+        isStarted = true;
+        if (fittedHolder != null)
+            fittedHolder.addCallback(surfaceCallback);
+
+        openStream(ts);
+
+        // Flushes late acks and grants credits again once a stalled player has caught up.
+        flowTimer = Executors.newSingleThreadScheduledExecutor();
+        flowTimer.scheduleWithFixedDelay(flowTask, ACK_INTERVAL_MS, ACK_INTERVAL_MS, TimeUnit.MILLISECONDS);
+        flowTimer.scheduleWithFixedDelay(replayTask, REPLAY_INTERVAL_MS, REPLAY_INTERVAL_MS, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens a GetCameraStream call from {@code ts}; a call still running is left to end on its
+     * own, its messages ignored. Returns false once the feeder is released.
+     */
+    private synchronized boolean openStream(long ts) {
+        if (!isStarted || channel == null)
+            return false;
+
+        Nvr.PlaybackChanges playbackChanges = Nvr.PlaybackChanges.newBuilder().setType(Nvr.PlaybackChanges.PlaybackChangesTypes.PC_SEEK_ABSOLUTE).build();
+        Nvr.CameraStreamQ streamQ = Nvr.CameraStreamQ.newBuilder().setUniqueId(uniqueId).setBeginTs(ts).setPc(playbackChanges)
+                .addStreams(createStream()).build();
+
+        credits.reset();
+        unacked.set(0);
+
+        // Frame payloads are parsed straight into pooled buffers, see StreamFrameMarshaller.
+        // beforeStart() picks up the request side and turns automatic inbound flow control off.
+        CameraStreamObserver call = new CameraStreamObserver();
+        activeCall = call;
+        ClientCalls.asyncBidiStreamingCall(channel.newCall(cameraStreamMethod, stub.getCallOptions()), call);
+        send(streamQ);
+        requestFrames();
+        return true;
+    }
+
+    /**
+     * Flow timer thread. Opens the stream again where the dropped call left off. The player seeks
+     * there so the decoder starts over at the first IDR of the new call with the picture it
+     * shows now; a replay from the cache plays on meanwhile.
+     */
+    private final Runnable reconnectTask = new Runnable() {
+        @Override
+        public void run() {
+            if (!isStarted)
+                return;
+
+            final long ts = lastTs >= 0 ? lastTs : beginTs;
+            Log.i(TAG, String.format("Reconnecting, attempt %s, from ts %s", backoff.getAttempts(), ts));
+            FrameSink sink = player;
+            if (sink != null && !isReplaying())
+                sink.seek(ts);
+
+            int speed = getSpeed();
+            synchronized (PlayerFeeder.this) {
+                // release() may have run since the check above.
+                if (!openStream(ts))
+                    return;
+
+                if (speed > 1) {
+                    Nvr.PlaybackChanges fast = Nvr.PlaybackChanges.newBuilder().setType(Nvr.PlaybackChanges.PlaybackChangesTypes.PC_PLAY_FAST).setValue(speed).build();
+                    send(Nvr.CameraStreamQ.newBuilder().setUniqueId(uniqueId).setPc(fast).addStreams(createStream()).build());
+                }
+            }
+        }
+    };
+
+    /**
+     * Schedules {@link #reconnectTask} after the next backoff; false if the feeder is stopped.
+     */
+    private synchronized boolean scheduleReconnect() {
+        if (!isStarted || flowTimer == null)
+            return false;
+
+        long delayMs = backoff.nextDelayMs();
+        Log.w(TAG, String.format("Stream dropped, reconnect %s in %s ms", backoff.getAttempts(), delayMs));
+        flowTimer.schedule(reconnectTask, delayMs, TimeUnit.MILLISECONDS);
+        return true;
+    }
+
+    /**
+     * Failures a new call may get past: the connection or the server, not the request.
+     */
+    private static boolean isRetriable(Status.Code code) {
+        switch (code) {
+            case UNAVAILABLE:
+            case DEADLINE_EXCEEDED:
+            case RESOURCE_EXHAUSTED:
+            case ABORTED:
+            case INTERNAL:
+            case UNKNOWN:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Plays from {@code ts}: from the cache when it holds that time, without the network, else
+     * by asking the server to seek.
+     */
+    public void seek(long ts) {
+        FrameSink sink = player;
+        if (sink != null)
+            sink.seek(ts);
+
+        StreamCache cache = streamCache;
+        synchronized (feedLock) {
+            closeReplay();
+            if (cache != null)
+                replay = cache.replay(ts);
+            if (replay != null)
+                return;
+        }
+
+        Nvr.PlaybackChanges seek = Nvr.PlaybackChanges.newBuilder().setType(Nvr.PlaybackChanges.PlaybackChangesTypes.PC_SEEK_ABSOLUTE).setValue(ts).build();
+        send(Nvr.CameraStreamQ.newBuilder().setUniqueId(uniqueId).setBeginTs(ts).setPc(seek).addStreams(createStream()).build());
+    }
+
+    /**
+     * Seeks by {@code deltaMs} from the newest frame received: the server's position, or the
+     * replay's while one plays.
+     */
+    public void seekRelative(long deltaMs) {
+        FrameSink sink = player;
+        if (sink == null)
+            return;
+
+        long target = sink.getMetricsSnapshot(new PipelineMetrics.Snapshot()).getNewestFrameTs() + deltaMs;
+        StreamCache cache = streamCache;
+        if (isReplaying() || (cache != null && cache.contains(target))) {
+            seek(target);
+            return;
+        }
+
+        sink.seek(target);
+        Nvr.PlaybackChanges seek = Nvr.PlaybackChanges.newBuilder().setType(Nvr.PlaybackChanges.PlaybackChangesTypes.PC_SEEK_RELATIVE).setValue(deltaMs).build();
+        send(Nvr.CameraStreamQ.newBuilder().setUniqueId(uniqueId).setPc(seek).addStreams(createStream()).build());
+    }
+
+    /**
+     * Plays {@code speed} times faster than real time, 1 for normal play. The server is asked to
+     * send faster; the player decodes what the {@link PlaybackController} lets through for the
+     * decoder to keep up. A replay from the cache speeds up by itself.
+     */
+    public void playFast(int speed) {
+        FrameSink sink = player;
+        if (sink == null)
+            return;
+
+        PlaybackController controller = playbackController;
+        synchronized (controller) {
+            FrameFilter filter = controller.setSpeed(speed, sink.getGopInfo());
+            sink.setPlaybackSpeed(speed, filter);
+            Log.i(TAG, String.format("Play at %sx, decoding %s", speed, filter));
+        }
+
+        synchronized (feedLock) {
+            // Stream time now runs at the new speed from the next frame on.
+            replayOriginNs = 0;
+            if (replay != null)
+                return;
+        }
+        Nvr.PlaybackChanges fast = Nvr.PlaybackChanges.newBuilder().setType(Nvr.PlaybackChanges.PlaybackChangesTypes.PC_PLAY_FAST).setValue(speed).build();
+        send(Nvr.CameraStreamQ.newBuilder().setUniqueId(uniqueId).setPc(fast).addStreams(createStream()).build());
+    }
+
+    public int getSpeed() {
+        PlaybackController controller = playbackController;
+        synchronized (controller) {
+            return controller.getSpeed();
+        }
+    }
+
+    /**
+     * Ends a replay from the cache at the next live IDR.
+     */
+    public void goLive() {
+        synchronized (feedLock) {
+            if (replay != null)
+                liveRequested = true;
+        }
+    }
+
+    public boolean isReplaying() {
+        synchronized (feedLock) {
+            return replay != null;
+        }
+    }
+
+    public void release() {
+        synchronized (this) {
+            isStarted = false;
+            stopFlowTimer();
+
+            // The channel stays up for other streams; only this call ends.
+            activeCall = null;
+            ClientCallStreamObserver<Nvr.CameraStreamQ> observer = queryStreamObserver;
+            queryStreamObserver = null;
+            if (observer != null)
+                observer.cancel("Feeder released", null);
+            if (channelLease != null) {
+                channelLease.release();
+                channelLease = null;
+                channel = null;
+            }
+            isReadyChannel = false;
+        }
+        if (fittedHolder != null)
+            fittedHolder.removeCallback(surfaceCallback);
+        closeCache();
+        resetReassembler();
+    }
+
+    private synchronized void stopFlowTimer() {
+        if (flowTimer != null) {
+            flowTimer.shutdownNow();
+            flowTimer = null;
+        }
+    }
+
+    private void openCache(String uid) {
+        closeCache();
+        if (cacheDir == null)
+            return;
+
+        try {
+            File file = new File(cacheDir, "stream-" + uid.replaceAll("[^A-Za-z0-9_-]", "_") + ".cache");
+            streamCache = StreamCache.open(file, StreamCache.DEFAULT_CAPACITY);
+        } catch (IOException e) {
+            Log.w(TAG, String.format("No stream cache: %s", e.getMessage()));
+        }
+    }
+
+    private void closeCache() {
+        synchronized (feedLock) {
+            closeReplay();
+        }
+
+        StreamCache cache = streamCache;
+        streamCache = null;
+        if (cache != null) {
+            try {
+                cache.close();
+            } catch (IOException e) {
+                Log.w(TAG, String.format("Stream cache close: %s", e.getMessage()));
+            }
+        }
+    }
+
+    private void closeReplay() {
+        if (replay != null) {
+            replay.close();
+            replay = null;
+        }
+        liveRequested = false;
+        replayHeld = false;
+        replayOriginNs = 0;
+    }
+
+    /**
+     * Flow timer thread. Keeps a few replayed frames queued in the player, each handed over
+     * shortly before its time at the current speed; they are views of the cache file, read in
+     * place.
+     */
+    private final Runnable replayTask = new Runnable() {
+        @Override
+        public void run() {
+            FrameSink sink = player;
+            int speed = getSpeed();
+            synchronized (feedLock) {
+                if (replay == null || sink == null)
+                    return;
+
+                final long nowNs = System.nanoTime();
+                while (sink.getQueuedFrameCount() < REPLAY_QUEUED_FRAMES) {
+                    if (!replayHeld && !(replayHeld = replay.next()))
+                        return;
+
+                    long dueNs = replayOriginNs + (replay.getTs() - replayOriginTs) * 1000000L / speed;
+                    if (replayOriginNs == 0 || nowNs - dueNs > REPLAY_LATE_MS * 1000000L) {
+                        replayOriginNs = nowNs;
+                        replayOriginTs = replay.getTs();
+                        dueNs = nowNs;
+                    }
+                    if (dueNs - nowNs > REPLAY_LEAD_MS * 1000000L)
+                        return;
+
+                    sink.useFrameData(replay.getData(), replay.getTs());
+                    replayHeld = false;
+                }
+            }
+        }
+    };
+
+    private final Runnable flowTask = new Runnable() {
+        @Override
+        public void run() {
+            sendAck();
+            requestFrames();
+            if (++ticks % QUALITY_SAMPLE_TICKS == 0) {
+                sampleQuality();
+                samplePlayback();
+            }
+        }
+    };
+
+    /**
+     * Streams at the controller's current level, or at the fixed resolution profile without one.
+     */
+    private Nvr.CameraStream createStream() {
+        Nvr.CameraStream.Builder stream = Nvr.CameraStream.newBuilder()
+                .setMedia(Nvr.CameraStream.MediaType.MEDIA_VIDEO)
+                .setCodec(Nvr.CameraStream.CodecType.CODEC_H264)
+                .setRprofile(resolutionProfile);
+
+        QualityController controller = qualityController;
+        if (controller != null) {
+            stream.setQprofile(StreamProfiles.quality(controller.getLevel()))
+                    .setRprofile(StreamProfiles.resolution(controller.getLevel(), resolutionProfile));
+        }
+        return stream.build();
+    }
+
+    /**
+     * Flow timer thread. A level change asks the server for the new profiles on the running
+     * call; the decoder picks the new stream up at its first IDR.
+     */
+    private void sampleQuality() {
+        QualityController controller = qualityController;
+        FrameSink sink = player;
+        if (controller == null || sink == null)
+            return;
+
+        int level = controller.getLevel();
+        sink.getMetricsSnapshot(currentSample);
+        if (controller.onSample(currentSample, previousSample) != level) {
+            Log.i(TAG, String.format("Quality level %s -> %s: %s", level, controller.getLevel(), controller.getReason()));
+            Nvr.PlaybackChanges none = Nvr.PlaybackChanges.newBuilder().setType(Nvr.PlaybackChanges.PlaybackChangesTypes.PC_NONE).build();
+            send(Nvr.CameraStreamQ.newBuilder().setUniqueId(uniqueId).setPc(none).addStreams(createStream()).build());
+        }
+
+        PipelineMetrics.Snapshot swap = previousSample;
+        previousSample = currentSample;
+        currentSample = swap;
+    }
+
+    /**
+     * Flow timer thread. In fast play, follows the GOPs received with the frame filter.
+     */
+    private void samplePlayback() {
+        PlaybackController controller = playbackController;
+        FrameSink sink = player;
+        if (sink == null)
+            return;
+
+        synchronized (controller) {
+            FrameFilter filter = controller.getFilter();
+            if (controller.getSpeed() > 1 && controller.onGop(sink.getGopInfo()) != filter) {
+                Log.i(TAG, String.format("Decoding %s at %sx", controller.getFilter(), controller.getSpeed()));
+                sink.setPlaybackSpeed(controller.getSpeed(), controller.getFilter());
+            }
+        }
+    }
+
+    /**
+     * Asks the server for as many frames as the credits allow with the player's current queue.
+     */
+    private void requestFrames() {
+        ClientCallStreamObserver<Nvr.CameraStreamQ> observer = queryStreamObserver;
+        FrameSink sink = player;
+        if (observer == null || sink == null)
+            return;
+
+        int n = credits.grant(sink.getQueuedFrameCount());
+        if (n > 0)
+            observer.request(n);
+    }
+
+    private void sendAck() {
+        if (unacked.getAndSet(0) > 0)
+            send(noneStreamQ);
+    }
+
+    private synchronized void send(Nvr.CameraStreamQ query) {
+        if (queryStreamObserver != null)
+            queryStreamObserver.onNext(query);
+    }
+
+    /**
+     * Call thread. Hands one buffer of a frame message to the player, through the reassembler
+     * when it is a chunk.
+     */
+    private void useBuffer(PooledStreamFrame.Buffer buffer, long receivedNs) {
+        PooledBuffer data = buffer.getData();
+        if (data == null)
+            return;
+        lastTs = buffer.getTs();
+
+        ChecksumVerifier verifier = checksumVerifier;
+        if (verifier != null)
+            verifier.verify(data, buffer.getMd5(), player.getMetrics());
+
+        synchronized (feedLock) {
+            StreamCache cache = streamCache;
+            if (!buffer.getChunked() && !reassembler.hasPending()) {
+                boolean keyFrame = cache != null && cache.append(data.buffer(), buffer.getTs());
+                if (isLive(keyFrame))
+                    player.useFrameData(data.retain(), buffer.getTs(), receivedNs);
+                return;
+            }
+
+            ScatterBuffer frame = reassembler.add(data.retain(), buffer.getChunked(), buffer.getTs(), receivedNs);
+            if (frame == null)
+                return;
+
+            boolean keyFrame = cache != null && cache.append(frame, buffer.getTs());
+            if (isLive(keyFrame))
+                player.useFrameData(frame, buffer.getTs(), receivedNs);
+            else
+                frame.release();
+        }
+    }
+
+    /**
+     * feedLock held. False while a replay plays instead of the live stream. The replay ends at
+     * the first IDR recorded once it has read everything before it, or after {@link #goLive()};
+     * the player goes on with the live stream from that IDR.
+     */
+    private boolean isLive(boolean keyFrame) {
+        if (replay == null)
+            return true;
+        if (!keyFrame || (!liveRequested && replay.getRemaining() > 1))
+            return false;
+
+        closeReplay();
+        return true;
+    }
+
+    private void resetReassembler() {
+        if (reassembler != null) {
+            synchronized (feedLock) {
+                reassembler.reset();
+            }
+        }
+    }
+
+    private void getAnyCamera(String uid, long beginTS) {
+        if (!isReadyChannel)
+            throw new NullPointerException("Please create channel. Channel null");
+
+        Nvr.CameraList cameraList = blockingStub.getCameraList(Nvr.CameraFilters.newBuilder().build());
+        uid = cameraList.getListCount() > 0 ? cameraList.getList(0).getUniqueId() : "";
+
+        Nvr.RecordDetails recordDetails = blockingStub.getRecordDetails(Nvr.CameraQ.newBuilder().setUniqueId(uid).build());
+        beginTS = recordDetails.getRecordBeginTime();
+    }
+
+    private final Nvr.CameraStreamQ noneStreamQ = Nvr.CameraStreamQ.newBuilder().setPc(
+            Nvr.PlaybackChanges.newBuilder().setType(Nvr.PlaybackChanges.PlaybackChangesTypes.PC_NONE).build()
+    ).build();
+
+    /**
+     * Observer of one GetCameraStream call; once another call replaced it, or the feeder was
+     * released, whatever it still gets is dropped.
+     */
+    private class CameraStreamObserver implements ClientResponseObserver<Nvr.CameraStreamQ, PooledStreamFrame> {
+        private boolean hasMessages = false;
+
+        @Override
+        public void beforeStart(ClientCallStreamObserver<Nvr.CameraStreamQ> requestStream) {
+            requestStream.disableAutoInboundFlowControl();
+            queryStreamObserver = requestStream;
+        }
+
+        @Override
+        public void onNext(PooledStreamFrame value) {
+            if (activeCall != this) {
+                value.release();
+                return;
+            }
+            if (!hasMessages) {
+                hasMessages = true;
+                backoff.reset();
+            }
+
+            credits.onMessage();
+            try {
+                if (player != null) {
+                    for (int i = 0; i < value.getDataCount(); i++)
+                        useBuffer(value.getData(i), value.getReceivedNs());
+                }
+            } finally {
+                value.release();
+            }
+            if (unacked.incrementAndGet() >= ACK_EVERY_FRAMES)
+                sendAck();
+            requestFrames();
+        }
+
+        @Override
+        public void onError(Throwable t) {
+            if (activeCall != this)
+                return;
+
+            queryStreamObserver = null;
+            resetReassembler();
+            Status status = Status.fromThrowable(t);
+            Log.e("debug", String.format("[%s]: %s", status.getCode(), status.getDescription()));
+            if (isRetriable(status.getCode()) && scheduleReconnect())
+                return;
+
+            stopFlowTimer();
+            if (player != null)
+                player.stop();
+        }
+
+        @Override
+        public void onCompleted() {
+            if (activeCall != this)
+                return;
+
+            // The server ended the stream, e.g. at the end of a recording; nothing to resume.
+            queryStreamObserver = null;
+            stopFlowTimer();
+            resetReassembler();
+            Log.w("debug", "onCompleted");
+        }
+    }
+}
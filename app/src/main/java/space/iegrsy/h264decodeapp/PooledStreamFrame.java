@@ -0,0 +1,93 @@
+package space.iegrsy.h264decodeapp;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import space.iegrsy.h264player.player.PooledBuffer;
+import vms.Nvr;
+
+/**
+ * {@link Nvr.StreamFrame} whose buffer payloads live in pooled buffers instead of ByteStrings.
+ * The frame owns one reference to every payload; {@link #release()} gives them back.
+ */
+public final class PooledStreamFrame {
+    // When parsing began, i.e. when the message was handed over by the transport.
+    private final long receivedNs = System.nanoTime();
+    private final List<Nvr.CameraStream> info = new ArrayList<>(1);
+    private final List<Buffer> data = new ArrayList<>(1);
+
+    public long getReceivedNs() {
+        return receivedNs;
+    }
+
+    List<Nvr.CameraStream> getInfoList() {
+        return info;
+    }
+
+    public int getInfoCount() {
+        return info.size();
+    }
+
+    public Nvr.CameraStream getInfo(int index) {
+        return info.get(index);
+    }
+
+    List<Buffer> getDataList() {
+        return data;
+    }
+
+    public int getDataCount() {
+        return data.size();
+    }
+
+    public Buffer getData(int index) {
+        return data.get(index);
+    }
+
+    public void release() {
+        for (Buffer buffer : data)
+            buffer.release();
+    }
+
+    public static final class Buffer {
+        PooledBuffer data;
+        String md5 = "";
+        boolean chunked;
+        int flags;
+        long ts;
+
+        /**
+         * Payload between position 0 and limit. Retain it to keep it past {@link PooledStreamFrame#release()}.
+         */
+        public PooledBuffer getData() {
+            return data;
+        }
+
+        public int getSize() {
+            return data == null ? 0 : data.buffer().limit();
+        }
+
+        public String getMd5() {
+            return md5;
+        }
+
+        public boolean getChunked() {
+            return chunked;
+        }
+
+        public int getFlags() {
+            return flags;
+        }
+
+        public long getTs() {
+            return ts;
+        }
+
+        void release() {
+            if (data != null) {
+                data.release();
+                data = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,260 @@
+package space.iegrsy.h264decodeapp;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import io.grpc.MethodDescriptor;
+import io.grpc.Status;
+import space.iegrsy.h264player.player.BufferPool;
+import space.iegrsy.h264player.player.PooledBuffer;
+import vms.Nvr;
+import vms.NvrServiceGrpc;
+
+/**
+ * Response marshaller for GetCameraStream that reads {@code StreamBuffer.data} straight from the
+ * transport stream into {@link BufferPool} buffers. The generated marshaller would allocate a new
+ * byte array per frame for the ByteString; this one allocates none once the pool is warm.
+ * <p>
+ * Only the wire format of StreamFrame and StreamBuffer is decoded here; CameraStream info is
+ * small and still parsed by protobuf.
+ */
+public class StreamFrameMarshaller implements MethodDescriptor.Marshaller<PooledStreamFrame> {
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int SCRATCH_SIZE = 16 * 1024;
+
+    private static final int WIRE_VARINT = 0;
+    private static final int WIRE_FIXED64 = 1;
+    private static final int WIRE_LENGTH_DELIMITED = 2;
+    private static final int WIRE_FIXED32 = 5;
+
+    private final BufferPool pool;
+
+    private static final ThreadLocal<byte[]> scratch = new ThreadLocal<byte[]>() {
+        @Override
+        protected byte[] initialValue() {
+            return new byte[SCRATCH_SIZE];
+        }
+    };
+
+    public StreamFrameMarshaller(BufferPool pool) {
+        this.pool = pool;
+    }
+
+    /**
+     * GetCameraStream with the generated request marshaller and this response marshaller.
+     */
+    public static MethodDescriptor<Nvr.CameraStreamQ, PooledStreamFrame> cameraStreamMethod(BufferPool pool) {
+        MethodDescriptor<Nvr.CameraStreamQ, Nvr.StreamFrame> method = NvrServiceGrpc.getGetCameraStreamMethod();
+        return method.toBuilder(method.getRequestMarshaller(), new StreamFrameMarshaller(pool)).build();
+    }
+
+    @Override
+    public InputStream stream(PooledStreamFrame value) {
+        throw new UnsupportedOperationException("StreamFrame is only received");
+    }
+
+    @Override
+    public PooledStreamFrame parse(InputStream stream) {
+        PooledStreamFrame frame = new PooledStreamFrame();
+        try {
+            long tag;
+            while ((tag = readTag(stream)) >= 0) {
+                int field = (int) (tag >>> 3);
+                int wireType = (int) (tag & 0x07);
+                if (field == 1 && wireType == WIRE_LENGTH_DELIMITED) {
+                    frame.getInfoList().add(Nvr.CameraStream.parseFrom(readBytes(stream, readLength(stream))));
+                } else if (field == 2 && wireType == WIRE_LENGTH_DELIMITED) {
+                    PooledStreamFrame.Buffer buffer = new PooledStreamFrame.Buffer();
+                    frame.getDataList().add(buffer);
+                    parseBuffer(stream, readLength(stream), buffer);
+                } else {
+                    skipField(stream, wireType);
+                }
+            }
+        } catch (IOException e) {
+            frame.release();
+            throw Status.INTERNAL.withDescription("Invalid StreamFrame").withCause(e).asRuntimeException();
+        }
+        return frame;
+    }
+
+    private void parseBuffer(InputStream stream, int length, PooledStreamFrame.Buffer buffer) throws IOException {
+        LimitedInputStream in = new LimitedInputStream(stream, length);
+        long tag;
+        while ((tag = readTag(in)) >= 0) {
+            int field = (int) (tag >>> 3);
+            int wireType = (int) (tag & 0x07);
+            if (field == 1 && wireType == WIRE_LENGTH_DELIMITED) {
+                buffer.release();
+                buffer.data = readPooled(in, readLength(in));
+            } else if (field == 2 && wireType == WIRE_LENGTH_DELIMITED) {
+                buffer.md5 = new String(readBytes(in, readLength(in)), UTF_8);
+            } else if (field == 3 && wireType == WIRE_VARINT) {
+                buffer.chunked = readVarint(in) != 0;
+            } else if (field == 4 && wireType == WIRE_VARINT) {
+                buffer.flags = (int) readVarint(in);
+            } else if (field == 5 && wireType == WIRE_VARINT) {
+                buffer.ts = readVarint(in);
+            } else {
+                skipField(in, wireType);
+            }
+        }
+        if (in.remaining > 0)
+            throw new EOFException("Truncated StreamBuffer");
+    }
+
+    private PooledBuffer readPooled(InputStream in, int length) throws IOException {
+        PooledBuffer lease = pool.acquire(length);
+        try {
+            ByteBuffer buffer = lease.buffer();
+            if (buffer.hasArray()) {
+                // Heap buffers, and direct buffers on ART, are filled without a bounce copy.
+                readFully(in, buffer.array(), buffer.arrayOffset(), length);
+            } else {
+                byte[] bounce = scratch.get();
+                int done = 0;
+                while (done < length) {
+                    int n = Math.min(bounce.length, length - done);
+                    readFully(in, bounce, 0, n);
+                    buffer.put(bounce, 0, n);
+                    done += n;
+                }
+                buffer.clear();
+                buffer.limit(length);
+            }
+            return lease;
+        } catch (IOException e) {
+            lease.release();
+            throw e;
+        }
+    }
+
+    private static byte[] readBytes(InputStream in, int length) throws IOException {
+        byte[] bytes = new byte[length];
+        readFully(in, bytes, 0, length);
+        return bytes;
+    }
+
+    private static void readFully(InputStream in, byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            int n = in.read(bytes, offset, length);
+            if (n < 0)
+                throw new EOFException("Truncated field");
+            offset += n;
+            length -= n;
+        }
+    }
+
+    private static void skipField(InputStream in, int wireType) throws IOException {
+        switch (wireType) {
+            case WIRE_VARINT:
+                readVarint(in);
+                break;
+            case WIRE_FIXED64:
+                skipFully(in, 8);
+                break;
+            case WIRE_LENGTH_DELIMITED:
+                skipFully(in, readLength(in));
+                break;
+            case WIRE_FIXED32:
+                skipFully(in, 4);
+                break;
+            default:
+                throw new IOException("Unsupported wire type: " + wireType);
+        }
+    }
+
+    private static void skipFully(InputStream in, long length) throws IOException {
+        while (length > 0) {
+            long n = in.skip(length);
+            if (n <= 0) {
+                if (in.read() < 0)
+                    throw new EOFException("Truncated field");
+                n = 1;
+            }
+            length -= n;
+        }
+    }
+
+    /**
+     * Returns -1 at a clean end of stream.
+     */
+    private static long readTag(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0)
+            return -1;
+        return readVarint(in, b);
+    }
+
+    private static int readLength(InputStream in) throws IOException {
+        long length = readVarint(in);
+        if (length < 0 || length > Integer.MAX_VALUE)
+            throw new IOException("Invalid length: " + length);
+        return (int) length;
+    }
+
+    private static long readVarint(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0)
+            throw new EOFException("Truncated varint");
+        return readVarint(in, b);
+    }
+
+    private static long readVarint(InputStream in, int first) throws IOException {
+        long value = first & 0x7f;
+        int b = first;
+        for (int shift = 7; (b & 0x80) != 0; shift += 7) {
+            if (shift > 63)
+                throw new IOException("Malformed varint");
+            b = in.read();
+            if (b < 0)
+                throw new EOFException("Truncated varint");
+            value |= (long) (b & 0x7f) << shift;
+        }
+        return value;
+    }
+
+    /**
+     * Bounds an embedded message: reports end of stream after {@code limit} bytes.
+     */
+    private static final class LimitedInputStream extends InputStream {
+        private final InputStream in;
+        private int remaining;
+
+        LimitedInputStream(InputStream in, int limit) {
+            this.in = in;
+            this.remaining = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int b = in.read();
+            if (b >= 0)
+                remaining--;
+            return b;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (remaining <= 0)
+                return -1;
+            int n = in.read(b, off, Math.min(len, remaining));
+            if (n > 0)
+                remaining -= n;
+            return n;
+        }
+
+        @Override
+        public long skip(long n) throws IOException {
+            long skipped = in.skip(Math.min(n, remaining));
+            if (skipped > 0)
+                remaining -= skipped;
+            return skipped;
+        }
+    }
+}
@@ -0,0 +1,85 @@
+package space.iegrsy.h264decodeapp;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.NetworkInfo;
+import android.support.annotation.Nullable;
+import android.telephony.TelephonyManager;
+
+import space.iegrsy.h264player.player.QualityController;
+import vms.Nvr;
+
+/**
+ * Picks the substream for a view size, so small grid tiles do not pull and decode full
+ * resolution streams, and maps {@link QualityController} levels to stream profiles.
+ */
+final class StreamProfiles {
+    // Indexed by quality level, best first.
+    private static final Nvr.CameraStream.QualityProfile[] QUALITY = {
+            Nvr.CameraStream.QualityProfile.Q_BEST,
+            Nvr.CameraStream.QualityProfile.Q_HIGH,
+            Nvr.CameraStream.QualityProfile.Q_MEDIUM,
+            Nvr.CameraStream.QualityProfile.Q_LOW,
+            Nvr.CameraStream.QualityProfile.Q_LOWEST
+    };
+    private static final Nvr.CameraStream.ResolutionProfile[] RESOLUTION = {
+            Nvr.CameraStream.ResolutionProfile.R_BEST,
+            Nvr.CameraStream.ResolutionProfile.R_HIGH,
+            Nvr.CameraStream.ResolutionProfile.R_MEDIUM,
+            Nvr.CameraStream.ResolutionProfile.R_LOW,
+            Nvr.CameraStream.ResolutionProfile.R_LOWEST
+    };
+
+    private StreamProfiles() {
+    }
+
+    static Nvr.CameraStream.ResolutionProfile forTile(int width, int height) {
+        int lines = Math.min(width, height);
+        if (lines <= 0)
+            return Nvr.CameraStream.ResolutionProfile.R_BEST;
+        if (lines >= 720)
+            return Nvr.CameraStream.ResolutionProfile.R_HIGH;
+        if (lines >= 480)
+            return Nvr.CameraStream.ResolutionProfile.R_MEDIUM;
+        if (lines >= 240)
+            return Nvr.CameraStream.ResolutionProfile.R_LOW;
+        return Nvr.CameraStream.ResolutionProfile.R_LOWEST;
+    }
+
+    static Nvr.CameraStream.QualityProfile quality(int level) {
+        return QUALITY[level];
+    }
+
+    /**
+     * Resolution for a quality level, never above {@code cap}, the profile the view needs.
+     */
+    static Nvr.CameraStream.ResolutionProfile resolution(int level, Nvr.CameraStream.ResolutionProfile cap) {
+        if (cap == Nvr.CameraStream.ResolutionProfile.R_CUSTOM)
+            return cap;
+        return RESOLUTION[Math.max(level, cap.getNumber())];
+    }
+
+    /**
+     * The client side of the Q_AUTO_* profiles: Wi-Fi and wired start at the best level, LTE at
+     * a medium one and anything slower near the bottom; the controller adapts from there.
+     */
+    static int initialQualityLevel(Context context) {
+        ConnectivityManager manager = (ConnectivityManager) context.getSystemService(Context.CONNECTIVITY_SERVICE);
+        switch (autoProfile(manager != null ? manager.getActiveNetworkInfo() : null)) {
+            case Q_AUTO_WIFI:
+                return QualityController.LEVEL_BEST;
+            case Q_AUTO_LTE:
+                return 2;
+            default:
+                return 3;
+        }
+    }
+
+    static Nvr.CameraStream.QualityProfile autoProfile(@Nullable NetworkInfo network) {
+        if (network == null || network.getType() != ConnectivityManager.TYPE_MOBILE)
+            return Nvr.CameraStream.QualityProfile.Q_AUTO_WIFI;
+        if (network.getSubtype() == TelephonyManager.NETWORK_TYPE_LTE)
+            return Nvr.CameraStream.QualityProfile.Q_AUTO_LTE;
+        return Nvr.CameraStream.QualityProfile.Q_AUTO_3G;
+    }
+}
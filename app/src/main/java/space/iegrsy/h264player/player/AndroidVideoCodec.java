@@ -0,0 +1,266 @@
+package space.iegrsy.h264player.player;
+
+import android.media.MediaCodec;
+import android.media.MediaCodecInfo;
+import android.media.MediaFormat;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * {@link VideoCodec} backed by a MediaCodec running in asynchronous (callback) mode.
+ * Callbacks are delivered on a dedicated handler thread.
+ */
+public class AndroidVideoCodec implements VideoCodec {
+    private static final String TAG = AndroidVideoCodec.class.getSimpleName();
+
+    private final MediaCodec mCodec;
+    private final HandlerThread mCallbackThread;
+    private volatile Callback mCallback = null;
+    // Target of configure(VideoFormat), from the last configure or setOutputSurface.
+    private volatile Surface mSurface = null;
+
+    private AndroidVideoCodec(MediaCodec codec) {
+        mCodec = codec;
+        mCallbackThread = new HandlerThread(TAG, Process.THREAD_PRIORITY_DISPLAY);
+        mCallbackThread.start();
+        // Callback mode has to be selected before configure().
+        mCodec.setCallback(mediaCodecCallback, new Handler(mCallbackThread.getLooper()));
+    }
+
+    public static AndroidVideoCodec createDecoderByType(String mime) throws IOException {
+        return new AndroidVideoCodec(MediaCodec.createDecoderByType(mime));
+    }
+
+    public void configure(@NonNull MediaFormat format, @NonNull Surface surface) {
+        mCodec.configure(format, surface, null, 0);
+        mSurface = surface;
+    }
+
+    /**
+     * Configures for {@code format}, rendering to the surface of the previous configure.
+     */
+    @Override
+    public void configure(VideoFormat format) {
+        Surface surface = mSurface;
+        if (surface == null)
+            throw new IllegalStateException("No output surface");
+        configure(toMediaFormat(format), surface);
+    }
+
+    /**
+     * Switches rendering to another surface without reconfiguring.
+     */
+    public void setOutputSurface(@NonNull Surface surface) {
+        mCodec.setOutputSurface(surface);
+        mSurface = surface;
+    }
+
+    @Override
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+    }
+
+    @Override
+    public void start() {
+        mCodec.start();
+    }
+
+    @Override
+    public void flush() {
+        mCodec.flush();
+    }
+
+    @Override
+    public void stop() {
+        mCodec.stop();
+    }
+
+    @Override
+    public void release() {
+        mCodec.release();
+        mCallbackThread.quitSafely();
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        return mCodec.getInputBuffer(index);
+    }
+
+    @Override
+    public void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+        mCodec.queueInputBuffer(index, offset, size, presentationTimeUs, flags);
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, boolean render) {
+        mCodec.releaseOutputBuffer(index, render);
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, long renderTimestampNs) {
+        mCodec.releaseOutputBuffer(index, renderTimestampNs);
+    }
+
+    private final MediaCodec.Callback mediaCodecCallback = new MediaCodec.Callback() {
+        @Override
+        public void onInputBufferAvailable(@NonNull MediaCodec codec, int index) {
+            Callback callback = mCallback;
+            if (callback != null)
+                callback.onInputBufferAvailable(index);
+        }
+
+        @Override
+        public void onOutputBufferAvailable(@NonNull MediaCodec codec, int index, @NonNull MediaCodec.BufferInfo info) {
+            Callback callback = mCallback;
+            if (callback != null)
+                callback.onOutputBufferAvailable(index, info.presentationTimeUs, info.flags);
+            else
+                codec.releaseOutputBuffer(index, false);
+        }
+
+        @Override
+        public void onError(@NonNull MediaCodec codec, @NonNull MediaCodec.CodecException e) {
+            Callback callback = mCallback;
+            if (callback != null)
+                callback.onError(e);
+        }
+
+        @Override
+        public void onOutputFormatChanged(@NonNull MediaCodec codec, @NonNull MediaFormat format) {
+            Callback callback = mCallback;
+            if (callback != null)
+                callback.onOutputFormatChanged(format.getInteger(MediaFormat.KEY_WIDTH), format.getInteger(MediaFormat.KEY_HEIGHT));
+        }
+    };
+
+    /**
+     * MediaFormat for {@code format}, tuned from its SPS when that was parsed.
+     */
+    public static MediaFormat toMediaFormat(@NonNull VideoFormat format) {
+        StreamData.ParameterSets params = format.getParameterSets();
+        MediaFormat mediaFormat = MediaFormat.createVideoFormat(format.getMime(), format.getWidth(), format.getHeight());
+        mediaFormat.setByteBuffer("csd-0", ByteBuffer.wrap(params.getSps()));
+        mediaFormat.setByteBuffer("csd-1", ByteBuffer.wrap(params.getPps()));
+        mediaFormat.setInteger(MediaFormat.KEY_FRAME_RATE, (int) Math.round(format.getFrameRate()));
+
+        SpsInfo info = format.getSpsInfo();
+        if (info == null) {
+            Log.w(TAG, "SPS could not be parsed, using default format");
+            return mediaFormat;
+        }
+
+        Log.d(TAG, info.toString());
+        mediaFormat.setInteger(MediaFormat.KEY_MAX_WIDTH, info.codedWidth);
+        mediaFormat.setInteger(MediaFormat.KEY_MAX_HEIGHT, info.codedHeight);
+        // Keeps the codec from guessing the input buffer size from 1080p.
+        mediaFormat.setInteger(MediaFormat.KEY_MAX_INPUT_SIZE, format.getMaxInputSize());
+
+        int profile = toCodecProfile(info.profileIdc);
+        int level = toCodecLevel(info.levelIdc, info.constraintFlags);
+        if (profile != 0 && level != 0) {
+            mediaFormat.setInteger(MediaFormat.KEY_PROFILE, profile);
+            mediaFormat.setInteger(MediaFormat.KEY_LEVEL, level);
+        }
+
+        // No reordering: ask for frames to be output as soon as they are decoded.
+        // MediaFormat.KEY_LOW_LATENCY is API 30, decoders that do not know the key ignore it.
+        if (format.isLowLatency())
+            mediaFormat.setInteger("low-latency", 1);
+
+        return mediaFormat;
+    }
+
+    private static int toCodecProfile(int profileIdc) {
+        switch (profileIdc) {
+            case 66:
+                return MediaCodecInfo.CodecProfileLevel.AVCProfileBaseline;
+            case 77:
+                return MediaCodecInfo.CodecProfileLevel.AVCProfileMain;
+            case 88:
+                return MediaCodecInfo.CodecProfileLevel.AVCProfileExtended;
+            case 100:
+                return MediaCodecInfo.CodecProfileLevel.AVCProfileHigh;
+            case 110:
+                return MediaCodecInfo.CodecProfileLevel.AVCProfileHigh10;
+            case 122:
+                return MediaCodecInfo.CodecProfileLevel.AVCProfileHigh422;
+            case 244:
+                return MediaCodecInfo.CodecProfileLevel.AVCProfileHigh444;
+            default:
+                return 0;
+        }
+    }
+
+    private static int toCodecLevel(int levelIdc, int constraintFlags) {
+        // Level 1b is signalled as 11 with constraint_set3_flag, or as 9 in the high profiles.
+        boolean constraintSet3 = (constraintFlags & 0x10) != 0;
+        switch (levelIdc) {
+            case 9:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel1b;
+            case 10:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel1;
+            case 11:
+                return constraintSet3 ? MediaCodecInfo.CodecProfileLevel.AVCLevel1b : MediaCodecInfo.CodecProfileLevel.AVCLevel11;
+            case 12:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel12;
+            case 13:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel13;
+            case 20:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel2;
+            case 21:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel21;
+            case 22:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel22;
+            case 30:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel3;
+            case 31:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel31;
+            case 32:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel32;
+            case 40:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel4;
+            case 41:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel41;
+            case 42:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel42;
+            case 50:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel5;
+            case 51:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel51;
+            case 52:
+                return MediaCodecInfo.CodecProfileLevel.AVCLevel52;
+            default:
+                return 0;
+        }
+    }
+
+    /**
+     * Creates MediaCodec decoders rendering to one surface.
+     */
+    public static class Factory implements VideoCodecFactory {
+        private final Surface mSurface;
+
+        public Factory(@NonNull Surface surface) {
+            mSurface = surface;
+        }
+
+        @Override
+        public AndroidVideoCodec createDecoder(VideoFormat format) throws IOException {
+            AndroidVideoCodec codec = createDecoderByType(format.getMime());
+            try {
+                codec.configure(toMediaFormat(format), mSurface);
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                codec.release();
+                throw e;
+            }
+            return codec;
+        }
+    }
+}
@@ -0,0 +1,88 @@
+package space.iegrsy.h264player.player;
+
+import android.media.MediaCodecInfo;
+import android.media.MediaCodecList;
+import android.util.Log;
+
+/**
+ * Device limits on concurrent decoder instances and decode rate, as advertised by the installed
+ * codecs.
+ */
+public final class CodecLimits {
+    private static final String TAG = CodecLimits.class.getSimpleName();
+
+    // Used when no codec reports a limit; a conservative count most hardware decoders manage.
+    public static final int DEFAULT_MAX_INSTANCES = 4;
+
+    private CodecLimits() {
+    }
+
+    /**
+     * The highest {@code getMaxSupportedInstances()} among the decoders of {@code mime},
+     * preferring hardware ones; software decoders are only counted when there is nothing else.
+     */
+    public static int getMaxDecoderInstances(String mime) {
+        int hardware = 0;
+        int software = 0;
+        try {
+            for (MediaCodecInfo info : new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos()) {
+                if (info.isEncoder() || !supports(info, mime))
+                    continue;
+
+                int instances = info.getCapabilitiesForType(mime).getMaxSupportedInstances();
+                if (isSoftware(info))
+                    software = Math.max(software, instances);
+                else
+                    hardware = Math.max(hardware, instances);
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Codec list not available", e);
+        }
+
+        int max = hardware > 0 ? hardware : software;
+        return max > 0 ? max : DEFAULT_MAX_INSTANCES;
+    }
+
+    /**
+     * The highest frame rate a decoder of {@code mime} advertises for {@code width x height},
+     * hardware ones preferred as above; {@link PlaybackController#DEFAULT_MAX_DECODE_FPS} when
+     * none does.
+     */
+    public static double getMaxFrameRate(String mime, int width, int height) {
+        double hardware = 0;
+        double software = 0;
+        try {
+            for (MediaCodecInfo info : new MediaCodecList(MediaCodecList.REGULAR_CODECS).getCodecInfos()) {
+                if (info.isEncoder() || !supports(info, mime))
+                    continue;
+
+                MediaCodecInfo.VideoCapabilities video = info.getCapabilitiesForType(mime).getVideoCapabilities();
+                if (video == null || !video.isSizeSupported(width, height))
+                    continue;
+
+                double fps = video.getSupportedFrameRatesFor(width, height).getUpper();
+                if (isSoftware(info))
+                    software = Math.max(software, fps);
+                else
+                    hardware = Math.max(hardware, fps);
+            }
+        } catch (RuntimeException e) {
+            Log.w(TAG, "Codec list not available", e);
+        }
+
+        double max = hardware > 0 ? hardware : software;
+        return max > 0 ? max : PlaybackController.DEFAULT_MAX_DECODE_FPS;
+    }
+
+    private static boolean supports(MediaCodecInfo info, String mime) {
+        for (String type : info.getSupportedTypes())
+            if (type.equalsIgnoreCase(mime))
+                return true;
+        return false;
+    }
+
+    private static boolean isSoftware(MediaCodecInfo info) {
+        String name = info.getName();
+        return name.startsWith("OMX.google.") || name.startsWith("c2.android.");
+    }
+}
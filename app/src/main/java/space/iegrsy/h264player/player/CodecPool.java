@@ -0,0 +1,262 @@
+package space.iegrsy.h264player.player;
+
+import android.media.MediaFormat;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.view.Surface;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps decoders alive between streams so a reconnect or camera switch skips codec creation.
+ * <p>
+ * A recycled codec is flushed and parked, still configured. {@link #acquire} prefers an idle
+ * codec configured for the same mime and size (warm: only the output surface is switched), then
+ * any idle codec of the mime (stopped and configured again), and creates a new one only when
+ * there is none. Idle codecs are released after {@code idleTimeoutMs}, and beyond
+ * {@code maxIdle} the oldest goes first; they still count against the device's instance limit.
+ */
+public class CodecPool {
+    private static final String TAG = CodecPool.class.getSimpleName();
+
+    public static final int DEFAULT_MAX_IDLE = 2;
+    public static final long DEFAULT_IDLE_TIMEOUT_MS = 30000;
+
+    private final int maxIdle;
+    private final long idleTimeoutMs;
+    private final ArrayDeque<Lease> idle = new ArrayDeque<>();
+    private final ScheduledExecutorService evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            Thread thread = new Thread(r, TAG);
+            thread.setDaemon(true);
+            return thread;
+        }
+    });
+
+    private final AtomicLong warmHits = new AtomicLong();
+    private final AtomicLong reconfigured = new AtomicLong();
+    private final AtomicLong created = new AtomicLong();
+    private final AtomicLong evicted = new AtomicLong();
+
+    public CodecPool() {
+        this(DEFAULT_MAX_IDLE, DEFAULT_IDLE_TIMEOUT_MS);
+    }
+
+    public CodecPool(int maxIdle, long idleTimeoutMs) {
+        if (maxIdle < 0 || idleTimeoutMs <= 0)
+            throw new IllegalArgumentException(String.format("Invalid codec pool limits: %s idle, %s ms", maxIdle, idleTimeoutMs));
+
+        this.maxIdle = maxIdle;
+        this.idleTimeoutMs = idleTimeoutMs;
+    }
+
+    /**
+     * Returns a codec configured for {@code format} and rendering to {@code surface}, in the
+     * configured (not started) state.
+     */
+    public Lease acquire(@NonNull String mime, @NonNull MediaFormat format, @NonNull Surface surface) throws IOException {
+        final String key = keyOf(mime, format);
+
+        Lease lease = take(mime, key);
+        if (lease != null && lease.key.equals(key)) {
+            try {
+                lease.codec.setOutputSurface(surface);
+                lease.warm = true;
+                warmHits.incrementAndGet();
+                return lease;
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                Log.w(TAG, "Output surface switch failed, configuring again", e);
+            }
+        }
+
+        if (lease != null) {
+            try {
+                lease.codec.stop();
+                lease.codec.configure(format, surface);
+                lease.key = key;
+                lease.params = null;
+                lease.warm = false;
+                reconfigured.incrementAndGet();
+                return lease;
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                Log.w(TAG, "Idle codec reconfigure failed, creating a new one", e);
+                lease.codec.release();
+            }
+        }
+
+        AndroidVideoCodec codec;
+        try {
+            codec = AndroidVideoCodec.createDecoderByType(mime);
+        } catch (IOException | IllegalStateException e) {
+            // Likely the instance limit; idle codecs are the ones to give up.
+            if (trim() == 0)
+                throw e;
+            codec = AndroidVideoCodec.createDecoderByType(mime);
+        }
+        codec.configure(format, surface);
+        created.incrementAndGet();
+        return new Lease(codec, key);
+    }
+
+    /**
+     * Takes back a stopped-decoding codec. {@code params} are the parameter sets it was last
+     * configured with, so the next user can tell whether it has to send its own.
+     */
+    public void recycle(@NonNull Lease lease, @Nullable StreamData.ParameterSets params) {
+        lease.codec.setCallback(null);
+        try {
+            lease.codec.flush();
+        } catch (IllegalStateException e) {
+            Log.w(TAG, "Codec not reusable, releasing", e);
+            lease.codec.release();
+            return;
+        }
+
+        lease.params = params;
+        lease.idleSinceNs = System.nanoTime();
+        Lease oldest = null;
+        synchronized (this) {
+            idle.addLast(lease);
+            if (idle.size() > maxIdle)
+                oldest = idle.pollFirst();
+        }
+        if (oldest != null)
+            evict(oldest);
+
+        evictor.schedule(evictTask, idleTimeoutMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Releases every idle codec; returns how many.
+     */
+    public int trim() {
+        int count = 0;
+        Lease lease;
+        while ((lease = pollIdle()) != null) {
+            evict(lease);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Releases the idle codecs and stops the eviction thread.
+     */
+    public void release() {
+        trim();
+        evictor.shutdownNow();
+    }
+
+    public synchronized int getIdleCount() {
+        return idle.size();
+    }
+
+    public long getWarmHitCount() {
+        return warmHits.get();
+    }
+
+    public long getReconfiguredCount() {
+        return reconfigured.get();
+    }
+
+    public long getCreatedCount() {
+        return created.get();
+    }
+
+    public long getEvictedCount() {
+        return evicted.get();
+    }
+
+    private synchronized Lease take(String mime, String key) {
+        Lease fallback = null;
+        for (Lease lease : idle) {
+            if (lease.key.equals(key)) {
+                idle.remove(lease);
+                return lease;
+            }
+            if (fallback == null && lease.key.startsWith(mime + "/"))
+                fallback = lease;
+        }
+        if (fallback != null)
+            idle.remove(fallback);
+        return fallback;
+    }
+
+    private synchronized Lease pollIdle() {
+        return idle.pollFirst();
+    }
+
+    private void evict(Lease lease) {
+        lease.codec.release();
+        evicted.incrementAndGet();
+    }
+
+    private final Runnable evictTask = new Runnable() {
+        @Override
+        public void run() {
+            final long now = System.nanoTime();
+            final long timeoutNs = TimeUnit.MILLISECONDS.toNanos(idleTimeoutMs);
+            ArrayDeque<Lease> expired = new ArrayDeque<>();
+            synchronized (CodecPool.this) {
+                Iterator<Lease> it = idle.iterator();
+                while (it.hasNext()) {
+                    Lease lease = it.next();
+                    if (now - lease.idleSinceNs >= timeoutNs) {
+                        it.remove();
+                        expired.add(lease);
+                    }
+                }
+            }
+            for (Lease lease : expired)
+                evict(lease);
+        }
+    };
+
+    private static String keyOf(String mime, MediaFormat format) {
+        return String.format("%s/%sx%s", mime, format.getInteger(MediaFormat.KEY_WIDTH), format.getInteger(MediaFormat.KEY_HEIGHT));
+    }
+
+    /**
+     * A codec on loan from the pool.
+     */
+    public static final class Lease {
+        private final AndroidVideoCodec codec;
+        private String key;
+        private StreamData.ParameterSets params;
+        private boolean warm;
+        private long idleSinceNs;
+
+        Lease(AndroidVideoCodec codec, String key) {
+            this.codec = codec;
+            this.key = key;
+        }
+
+        public AndroidVideoCodec getCodec() {
+            return codec;
+        }
+
+        /**
+         * True if the codec kept its previous configuration, see {@link #getParameterSets()}.
+         */
+        public boolean isWarm() {
+            return warm;
+        }
+
+        /**
+         * Parameter sets a warm codec is still configured with, or null.
+         */
+        @Nullable
+        public StreamData.ParameterSets getParameterSets() {
+            return warm ? params : null;
+        }
+    }
+}
@@ -0,0 +1,70 @@
+package space.iegrsy.h264player.player;
+
+import android.support.annotation.NonNull;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Something received access units can be handed to: a single {@link H264Player} or a tile of a
+ * {@link GridPlayer}.
+ */
+public interface FrameSink {
+    /**
+     * Takes over the caller's reference to {@code data}.
+     */
+    void useFrameData(@NonNull PooledBuffer data, long ts);
+
+    /**
+     * As above; {@code receivedNs} is the {@link System#nanoTime()} the frame came off the network.
+     */
+    void useFrameData(@NonNull PooledBuffer data, long ts, long receivedNs);
+
+    /**
+     * An access unit the sink reads in place, such as a view of a {@link StreamCache} file; it
+     * must stay unchanged until decoded.
+     */
+    void useFrameData(@NonNull ByteBuffer data, long ts);
+
+    /**
+     * An access unit that arrived in chunks; takes over the caller's references.
+     */
+    void useFrameData(@NonNull ScatterBuffer data, long ts, long receivedNs);
+
+    /**
+     * Frames received and still waiting for the decoder; the feeder holds the network off while
+     * this is high.
+     */
+    int getQueuedFrameCount();
+
+    /**
+     * Drops the frames queued and in the decoder without stopping it; decoding resumes at the
+     * first IDR near {@code ts}, see {@link StreamData#flush(long)}.
+     */
+    void seek(long ts);
+
+    /**
+     * Fast play: timestamps run {@code speed} times faster than real time and only frames
+     * {@code filter} accepts are decoded; 1 and {@link FrameFilter#ALL} for normal play.
+     */
+    void setPlaybackSpeed(int speed, @NonNull FrameFilter filter);
+
+    /**
+     * The last GOP received, or null.
+     */
+    StreamData.GopInfo getGopInfo();
+
+    /**
+     * Fills {@code into} with the sink's pipeline metrics, see {@link PipelineMetrics#snapshot}.
+     */
+    PipelineMetrics.Snapshot getMetricsSnapshot(PipelineMetrics.Snapshot into);
+
+    /**
+     * Metrics of the sink's stream, for the stages in front of it such as chunk reassembly.
+     */
+    PipelineMetrics getMetrics();
+
+    /**
+     * The stream feeding this sink ended or failed.
+     */
+    void stop();
+}
@@ -0,0 +1,375 @@
+package space.iegrsy.h264player.player;
+
+import android.media.MediaFormat;
+import android.os.Process;
+import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
+import android.util.Log;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Plays many streams at once, one {@link Tile} per surface.
+ * <p>
+ * All tiles share a small pool of scheduler threads: decoders run in scheduled mode (see
+ * {@link H264Decoder#start(java.util.concurrent.Executor, java.util.concurrent.Executor)}) instead
+ * of with a thread each. Codec creation and restarts, which block, run on setup threads of their
+ * own so they never hold up the input tasks of other tiles. At most
+ * {@code maxDecoders} tiles hold a codec at a time; a tile started beyond that waits, dropping
+ * its frames, until another tile stops.
+ */
+public class GridPlayer {
+    private static final String TAG = GridPlayer.class.getSimpleName();
+
+    public static final int DEFAULT_THREADS = Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+    public enum TileState {STOPPED, WAITING, PLAYING}
+
+    private final ExecutorService mScheduler;
+    // Threads come and go with codec setups, at most one per decoder.
+    private final ExecutorService mSetup = Executors.newCachedThreadPool(new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull Runnable r) {
+            return new Thread(r, TAG + "-setup-" + count.incrementAndGet());
+        }
+    });
+    private final int mMaxDecoders;
+
+    private final List<Tile> mTiles = new ArrayList<>();
+    private final ArrayDeque<Tile> mWaiting = new ArrayDeque<>();
+    private int mActiveDecoders = 0;
+
+    public GridPlayer() {
+        this(CodecLimits.getMaxDecoderInstances(MediaFormat.MIMETYPE_VIDEO_AVC), DEFAULT_THREADS);
+    }
+
+    public GridPlayer(int maxDecoders, int threads) {
+        if (maxDecoders <= 0 || threads <= 0)
+            throw new IllegalArgumentException(String.format("Invalid grid limits: %s decoders, %s threads", maxDecoders, threads));
+
+        mMaxDecoders = maxDecoders;
+        mScheduler = Executors.newFixedThreadPool(threads, schedulerThreadFactory);
+        Log.i(TAG, String.format("Grid with %s decoders on %s threads", maxDecoders, threads));
+    }
+
+    public int getMaxDecoders() {
+        return mMaxDecoders;
+    }
+
+    public synchronized int getActiveDecoders() {
+        return mActiveDecoders;
+    }
+
+    public synchronized List<Tile> getTiles() {
+        return Collections.unmodifiableList(new ArrayList<>(mTiles));
+    }
+
+    public synchronized Tile addTile(@NonNull SurfaceView surfaceView) {
+        Tile tile = new Tile(surfaceView);
+        mTiles.add(tile);
+        return tile;
+    }
+
+    public void removeTile(@NonNull Tile tile) {
+        // A codec slot handed to it from now on goes back.
+        tile.mRemoved = true;
+        tile.stop();
+        tile.mHolder.removeCallback(tile);
+        synchronized (this) {
+            mTiles.remove(tile);
+        }
+    }
+
+    /**
+     * Stops every tile, the scheduler and the setup threads; the grid can not be used afterwards.
+     */
+    public void release() {
+        for (Tile tile : getTiles())
+            removeTile(tile);
+        mScheduler.shutdown();
+        mSetup.shutdown();
+    }
+
+    private synchronized boolean acquireDecoder(Tile tile) {
+        if (mActiveDecoders < mMaxDecoders) {
+            mActiveDecoders++;
+            mWaiting.remove(tile);
+            return true;
+        }
+        if (!mWaiting.contains(tile))
+            mWaiting.add(tile);
+        return false;
+    }
+
+    /**
+     * A tile gave up its codec slot: it goes to the first waiting tile, or back to the pool.
+     */
+    private void releaseDecoder() {
+        Tile next;
+        synchronized (this) {
+            next = mWaiting.poll();
+            // Handed over still taken; the tile starts with it or gives it back.
+            if (next == null)
+                mActiveDecoders--;
+        }
+        if (next != null)
+            next.onDecoderHandedOver();
+    }
+
+    private synchronized void cancelWaiting(Tile tile) {
+        mWaiting.remove(tile);
+    }
+
+    private final ThreadFactory schedulerThreadFactory = new ThreadFactory() {
+        private final AtomicInteger count = new AtomicInteger();
+
+        @Override
+        public Thread newThread(@NonNull final Runnable r) {
+            return new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+                    r.run();
+                }
+            }, TAG + "-" + count.incrementAndGet());
+        }
+    };
+
+    /**
+     * One stream on one surface. Live mode is on by default.
+     */
+    public class Tile implements FrameSink, MetricsOverlay.Source, SurfaceHolder.Callback {
+        private final SurfaceHolder mHolder;
+        private final StreamData mData = new StreamData();
+        private H264Decoder mDecoder = null;
+        private volatile TileState mState = TileState.STOPPED;
+        private volatile boolean mRemoved = false;
+
+        private volatile int mWidth;
+        private volatile int mHeight;
+
+        private long mSampleTimeNs = 0;
+        private long mSampleFrames = 0;
+        private double mFps = 0;
+
+        Tile(SurfaceView surfaceView) {
+            mHolder = surfaceView.getHolder();
+            mHolder.addCallback(this);
+            mData.setLatencyBudgetMs(StreamData.DEFAULT_LATENCY_BUDGET_MS);
+            mWidth = surfaceView.getWidth();
+            mHeight = surfaceView.getHeight();
+        }
+
+        public TileState getState() {
+            return mState;
+        }
+
+        /**
+         * Size of the tile's surface, to pick a matching substream.
+         */
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        public void setLatencyBudget(long budgetMs) {
+            mData.setLatencyBudgetMs(budgetMs);
+        }
+
+        public synchronized void start() {
+            if (mState == TileState.PLAYING || mRemoved)
+                return;
+
+            if (!acquireDecoder(this)) {
+                mState = TileState.WAITING;
+                return;
+            }
+
+            startDecoder();
+        }
+
+        /**
+         * Takes the codec slot a stopping tile handed over, unless this tile was stopped or
+         * removed since it was taken off the queue; then the slot goes back.
+         */
+        private void onDecoderHandedOver() {
+            synchronized (this) {
+                if (mState == TileState.WAITING && !mRemoved) {
+                    // Queued again if stopped and started meanwhile.
+                    cancelWaiting(this);
+                    startDecoder();
+                    return;
+                }
+            }
+            releaseDecoder();
+        }
+
+        /**
+         * Tile lock and a codec slot held.
+         */
+        private void startDecoder() {
+            mDecoder = new H264Decoder(mData, mHolder.getSurface());
+            mDecoder.start(mScheduler, mSetup);
+            mState = TileState.PLAYING;
+        }
+
+        @Override
+        public void stop() {
+            boolean released;
+            synchronized (this) {
+                released = mState == TileState.PLAYING;
+                if (mState == TileState.WAITING)
+                    cancelWaiting(this);
+                if (mDecoder != null) {
+                    mDecoder.release();
+                    mDecoder = null;
+                }
+                mData.clearAll();
+                mState = TileState.STOPPED;
+                mFps = 0;
+                mSampleTimeNs = 0;
+            }
+            // Outside the tile lock: hands the codec slot to a waiting tile.
+            if (released)
+                releaseDecoder();
+        }
+
+        @Override
+        public void useFrameData(@NonNull PooledBuffer data, long ts) {
+            useFrameData(data, ts, System.nanoTime());
+        }
+
+        @Override
+        public void useFrameData(@NonNull PooledBuffer data, long ts, long receivedNs) {
+            if (mState != TileState.PLAYING) {
+                data.release();
+                return;
+            }
+
+            try {
+                mData.useFrameData(data, ts, receivedNs);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public void useFrameData(@NonNull ByteBuffer data, long ts) {
+            if (mState != TileState.PLAYING)
+                return;
+
+            try {
+                mData.useFrameData(data, ts);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public void useFrameData(@NonNull ScatterBuffer data, long ts, long receivedNs) {
+            if (mState != TileState.PLAYING) {
+                data.release();
+                return;
+            }
+
+            try {
+                mData.useFrameData(data, ts, receivedNs);
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+        }
+
+        @Override
+        public int getQueuedFrameCount() {
+            return mData.getFrameCount();
+        }
+
+        @Override
+        public void seek(long ts) {
+            mData.flush(ts);
+        }
+
+        @Override
+        public void setPlaybackSpeed(int speed, @NonNull FrameFilter filter) {
+            mData.getJitterBuffer().setRate(speed);
+            mData.setFrameFilter(filter);
+        }
+
+        @Override
+        public StreamData.GopInfo getGopInfo() {
+            return mData.getGopInfo();
+        }
+
+        /**
+         * Rendered frames per second since the previous call; call it at a steady interval.
+         */
+        public synchronized double sampleFps() {
+            H264Decoder decoder = mDecoder;
+            long frames = decoder != null ? decoder.getRenderedFrameCount() : 0;
+            long now = System.nanoTime();
+            if (mSampleTimeNs != 0 && now > mSampleTimeNs && frames >= mSampleFrames)
+                mFps = (frames - mSampleFrames) * 1e9 / (now - mSampleTimeNs);
+            mSampleTimeNs = now;
+            mSampleFrames = frames;
+            return mFps;
+        }
+
+        /**
+         * Receive-to-render latency: the frames waiting to be shown plus the jitter delay.
+         */
+        public long getLatencyMs() {
+            JitterBuffer jitterBuffer = mData.getJitterBuffer();
+            return jitterBuffer.getDepthMs() + jitterBuffer.getTargetDelayMs();
+        }
+
+        @Override
+        public PipelineMetrics.Snapshot getMetricsSnapshot(PipelineMetrics.Snapshot into) {
+            return mData.getMetrics().snapshot(mData, into);
+        }
+
+        @Override
+        public PipelineMetrics getMetrics() {
+            return mData.getMetrics();
+        }
+
+        public long getSkippedFrameCount() {
+            return mData.getSkippedFrameCount();
+        }
+
+        @Nullable
+        public H264Decoder.DecoderState getDecoderState() {
+            H264Decoder decoder = mDecoder;
+            return decoder != null ? decoder.getDecoderState() : null;
+        }
+
+        @Override
+        public void surfaceCreated(SurfaceHolder holder) {
+        }
+
+        @Override
+        public void surfaceChanged(SurfaceHolder holder, int format, int width, int height) {
+            mWidth = width;
+            mHeight = height;
+        }
+
+        @Override
+        public void surfaceDestroyed(SurfaceHolder holder) {
+            stop();
+        }
+    }
+}
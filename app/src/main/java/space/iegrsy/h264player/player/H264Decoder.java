@@ -1,16 +1,16 @@
 package space.iegrsy.h264player.player;
 
-import android.media.MediaCodec;
 import android.media.MediaFormat;
+import android.os.Process;
 import android.support.annotation.NonNull;
 import android.support.annotation.Nullable;
 import android.util.Log;
 import android.view.Surface;
 
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.util.Arrays;
-import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class H264Decoder {
     private static final String TAG = H264Decoder.class.getSimpleName();
@@ -20,7 +20,6 @@ public class H264Decoder {
     private static final String MIME_TYPE = MediaFormat.MIMETYPE_VIDEO_AVC;
     private static final double FRAME_RATE = 30.0;
     private static final double FRAME_RATE_TS = 1000.0 / FRAME_RATE;
-    private static final int TIMEOUT_U_SEC = 10000;
     private static final int TIMEOUT_SEC = 10000;
     private static final int WAIT_TIME = 300;
 
@@ -34,25 +33,49 @@ public class H264Decoder {
 
     private DecoderState mDecoderState = DecoderState.IDLE;
 
-    private boolean isRun = false;
+    private volatile boolean isRun = false;
     private Thread mDecodeThread = null;
+    private volatile DecodePipeline mPipeline = null;
+    // The running codec and the parameter sets it was first configured with. Decode thread only,
+    // or guarded by mLock in scheduled mode.
+    private VideoCodec mDecoder = null;
+    private StreamData.ParameterSets mParams = null;
+
+    // Codecs are MediaCodecs on mSurface unless replaced, e.g. by a simulated codec.
+    private volatile VideoCodecFactory mCodecFactory;
+
+    // Optional source of warm codecs, and the lease of the running one.
+    private volatile CodecPool mCodecPool = null;
+    private CodecPool.Lease mLease = null;
+
+    // Startup timing: from start() to the first decodable IDR, and to the first frame sent to
+    // the surface.
+    private volatile long mStartNs = 0;
+    private volatile long mTimeToReadyMs = -1;
+    private volatile long mTimeToFirstFrameMs = -1;
+    private FirstFrameListener mFirstFrameListener = null;
+
+    // Scheduled mode, see start(Executor, Executor); codec setup and teardown hold mLock.
+    private final Object mLock = new Object();
+    private volatile Executor mExecutor = null;
+    private volatile Executor mSetupExecutor = null;
+    private final AtomicBoolean isPrepareScheduled = new AtomicBoolean(false);
     private DecoderStateListener mStateListener = null;
 
     private Surface mSurface;
 
     public H264Decoder(@NonNull Surface surface) {
-        mSurface = surface;
-        mData = new StreamData();
+        this(new StreamData(), surface);
     }
 
     public H264Decoder(@NonNull StreamData data, @NonNull Surface surface) {
         mData = data;
         mSurface = surface;
+        mCodecFactory = new AndroidVideoCodec.Factory(surface);
     }
 
     public H264Decoder(@NonNull StreamData data, @NonNull Surface surface, double fps) {
-        mData = data;
-        mSurface = surface;
+        this(data, surface);
         setFrameRate(fps);
     }
 
@@ -65,6 +88,40 @@ public class H264Decoder {
         mFrameRateTs = 1000.0 / frameRate;
     }
 
+    /**
+     * Creates codecs with {@code factory} from the next start on. A {@link CodecPool}, when set,
+     * takes precedence.
+     */
+    public void setCodecFactory(@NonNull VideoCodecFactory factory) {
+        mCodecFactory = factory;
+    }
+
+    /**
+     * Leases codecs from {@code pool} and returns them to it on release, instead of creating and
+     * destroying one per start.
+     */
+    public void setCodecPool(@Nullable CodecPool pool) {
+        mCodecPool = pool;
+    }
+
+    /**
+     * Milliseconds from the last start to its first rendered frame, or -1 until then.
+     */
+    public long getTimeToFirstFrameMs() {
+        return mTimeToFirstFrameMs;
+    }
+
+    /**
+     * Milliseconds from the last start until an IDR with its SPS/PPS was available, or -1.
+     */
+    public long getTimeToReadyMs() {
+        return mTimeToReadyMs;
+    }
+
+    public void setFirstFrameListener(FirstFrameListener listener) {
+        mFirstFrameListener = listener;
+    }
+
     public void setStateListener(DecoderStateListener stateListener) {
         mStateListener = stateListener;
     }
@@ -74,16 +131,94 @@ public class H264Decoder {
     }
 
     public void start() {
-        if (mDecodeThread != null)
+        if (mDecodeThread != null || mExecutor != null)
             release();
 
+        mStartNs = System.nanoTime();
+        mTimeToReadyMs = -1;
+        mTimeToFirstFrameMs = -1;
         mDecodeThread = new Thread(decodeRunnable, TAG);
         mDecodeThread.start();
     }
 
+    /**
+     * Starts without a thread of its own: the input stage runs as tasks on {@code executor}, which
+     * may be shared by many decoders, and nothing there blocks. The codec is created once SPS, PPS
+     * and a frame are queued, and flushed or reconfigured later on, by tasks on
+     * {@code setupExecutor}, since those calls can take tens of milliseconds.
+     */
+    public void start(@NonNull Executor executor, @NonNull Executor setupExecutor) {
+        if (mDecodeThread != null || mExecutor != null)
+            release();
+
+        mStartNs = System.nanoTime();
+        mTimeToReadyMs = -1;
+        mTimeToFirstFrameMs = -1;
+        synchronized (mLock) {
+            mExecutor = executor;
+            mSetupExecutor = setupExecutor;
+            isRun = true;
+        }
+        mData.setFrameListener(prepareListener);
+        schedulePrepare();
+    }
+
+    private final StreamData.FrameListener prepareListener = new StreamData.FrameListener() {
+        @Override
+        public void onFrameAvailable() {
+            schedulePrepare();
+        }
+    };
+
+    private void schedulePrepare() {
+        Executor executor = mSetupExecutor;
+        if (executor != null && isPrepareScheduled.compareAndSet(false, true))
+            executor.execute(prepareTask);
+    }
+
+    private final Runnable prepareTask = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                synchronized (mLock) {
+                    if (!isRun || mPipeline != null || !mData.isReady())
+                        return;
+
+                    VideoCodec decoder = createDecoder();
+                    if (decoder == null)
+                        return;
+
+                    mDecoder = decoder;
+                    DecodePipeline pipeline = new DecodePipeline(decoder, mData, mParams);
+                    pipeline.setListener(pipelineListener);
+                    // Takes over the frame listener from prepareListener.
+                    pipeline.attach(mExecutor, mSetupExecutor);
+                    mPipeline = pipeline;
+                    pipeline.start();
+                }
+            } finally {
+                isPrepareScheduled.set(false);
+            }
+
+            // A frame queued while this task was finishing found the flag still set.
+            if (isRun && mPipeline == null && mDecoderState != DecoderState.ERROR && mData.isReady())
+                schedulePrepare();
+        }
+    };
+
     public void release() {
+        if (mExecutor != null) {
+            releaseScheduled();
+            return;
+        }
+
         isRun = false;
+        DecodePipeline pipeline = mPipeline;
+        if (pipeline != null)
+            pipeline.stop();
         if (mDecodeThread != null) {
+            // Wakes the decode thread if it is parked waiting for a frame.
+            mDecodeThread.interrupt();
             try {
                 Log.v(TAG, "Decoder thread is join");
                 mDecodeThread.join();
@@ -96,102 +231,198 @@ public class H264Decoder {
         setDecoderState(DecoderState.IDLE, "Decoder release");
     }
 
+    private void releaseScheduled() {
+        mData.setFrameListener(null);
+        synchronized (mLock) {
+            isRun = false;
+            DecodePipeline pipeline = mPipeline;
+            if (pipeline != null) {
+                pipeline.stop();
+                if (!pipeline.awaitStopped(WAIT_TIME, TimeUnit.MILLISECONDS))
+                    Log.w(TAG, "Input task still running at release");
+                mPipeline = null;
+            }
+            if (mDecoder != null) {
+                releaseDecoder(mDecoder, pipeline);
+                mDecoder = null;
+            }
+            mExecutor = null;
+            mSetupExecutor = null;
+        }
+
+        setDecoderState(DecoderState.IDLE, "Decoder release");
+    }
+
+    /**
+     * Frames sent to the surface by the running pipeline.
+     */
+    public long getRenderedFrameCount() {
+        DecodePipeline pipeline = mPipeline;
+        return pipeline != null ? pipeline.getRenderedFrameCount() : 0;
+    }
+
     private Runnable decodeRunnable = new Runnable() {
         @Override
         public void run() {
             isRun = true;
 
-            MediaCodec mDecoder = prepareDecoder();
-            if (mDecoder == null || mDecoderState != DecoderState.READY) {
+            VideoCodec decoder = prepareDecoder();
+            if (decoder == null || mDecoderState != DecoderState.READY) {
                 setDecoderState(DecoderState.IDLE, "Decoder not ready");
                 return;
             }
 
-            int frameIndex = 0;
-            StreamData.RAWFrame frame;
-
-            MediaCodec.BufferInfo info = new MediaCodec.BufferInfo();
-            while (isRun) {
-                if (mData.getFrames().size() <= 0)
-                    continue;
-
-                frame = mData.getFrame(frameIndex);
-                mData.removeFrame(frameIndex);
-
-                int inIndex;
-                while ((inIndex = mDecoder.dequeueInputBuffer(TIMEOUT_U_SEC)) < 0)
-                    if (!isRun) break;
-
-                if (inIndex >= 0) {
-                    Objects.requireNonNull(mDecoder.getInputBuffer(inIndex)).put(frame.frameData);
-                    mDecoder.queueInputBuffer(inIndex, 0, frame.frameData.length, 0, MediaCodec.CRYPTO_MODE_UNENCRYPTED);
-
-                    int outIndex = mDecoder.dequeueOutputBuffer(info, TIMEOUT_U_SEC);
-                    switch (outIndex) {
-                        case MediaCodec.INFO_TRY_AGAIN_LATER:
-                            Log.d("Buffer info", "INFO_TRY_AGAIN_LATER");
-                            break;
-                        case MediaCodec.INFO_OUTPUT_FORMAT_CHANGED:
-                            Log.d("Buffer info", "INFO_OUTPUT_FORMAT_CHANGED: New format: " + mDecoder.getOutputFormat());
-                            break;
-                        case MediaCodec.INFO_OUTPUT_BUFFERS_CHANGED:
-                            Log.d("Buffer info", "INFO_OUTPUT_BUFFERS_CHANGED");
-                            break;
-                        default:
-                            mDecoder.releaseOutputBuffer(outIndex, true);
-                            break;
-                    }
+            mDecoder = decoder;
+            DecodePipeline pipeline = new DecodePipeline(decoder, mData, mParams);
+            pipeline.setListener(pipelineListener);
+            mPipeline = pipeline;
+
+            // Input stage runs on this thread, output stage on a render thread of its own.
+            pipeline.start();
+            Thread renderThread = new Thread(new RenderRunnable(pipeline), TAG + "-render");
+            renderThread.start();
+            if (isRun)
+                pipeline.runInputStage();
+            pipeline.stop();
+            // The interrupt of release() ended the input stage; the codec is stopped only once the
+            // render thread has exited, however long that takes.
+            Thread.interrupted();
+            renderThread.interrupt();
+            while (renderThread.isAlive()) {
+                try {
+                    renderThread.join();
+                } catch (InterruptedException e) {
+                    Log.w(TAG, "Render thread join interrupted");
                 }
             }
+            mPipeline = null;
 
-            mDecoder.setParameters(null);
-            mDecoder.stop();
-            mDecoder.release();
+            releaseDecoder(decoder, pipeline);
+            mDecoder = null;
 
             setDecoderState(DecoderState.IDLE, "Decoding stop");
         }
     };
 
-    private MediaCodec prepareDecoder() {
-        MediaCodec mDecoder;
-        long ts = System.currentTimeMillis();
-        while (mData.getHeader_sps() == null || mData.getHeader_pps() == null || mData.getFrames().size() <= 0) {
-            try {
-                if (!isRun)
-                    throw new Exception("Stopped decoder");
-                if (System.currentTimeMillis() - ts > TIMEOUT_SEC)
-                    throw new Exception("Timeout setup decoder");
-                Thread.sleep(WAIT_TIME);
-                Log.v(TAG, "Waiting SPS PPS data ...");
-            } catch (InterruptedException e) {
-                setDecoderState(DecoderState.ERROR, e.getMessage());
-                return null;
-            } catch (Exception e) {
-                setDecoderState(DecoderState.ERROR, e.getMessage());
+    /**
+     * Releases decoded frames to the surface at display priority, like the codec callbacks.
+     */
+    private static class RenderRunnable implements Runnable {
+        private final DecodePipeline mPipeline;
+
+        RenderRunnable(DecodePipeline pipeline) {
+            mPipeline = pipeline;
+        }
+
+        @Override
+        public void run() {
+            Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+            mPipeline.runOutputStage();
+        }
+    }
+
+    private VideoCodec prepareDecoder() {
+        try {
+            // Woken by the network thread as soon as the first IDR is queued with its SPS/PPS.
+            if (!mData.awaitReady(TIMEOUT_SEC, TimeUnit.MILLISECONDS)) {
+                setDecoderState(DecoderState.ERROR, "Timeout setup decoder");
                 return null;
             }
+        } catch (InterruptedException e) {
+            return null;
         }
 
-        MediaFormat mediaFormat = MediaFormat.createVideoFormat(MIME_TYPE, mMediaCodecWidth, mMediaCodecHeight);
-        mediaFormat.setByteBuffer("csd-0", ByteBuffer.wrap(mData.getHeader_sps()));
-        mediaFormat.setByteBuffer("csd-1", ByteBuffer.wrap(mData.getHeader_pps()));
-        mediaFormat.setInteger(MediaFormat.KEY_FRAME_RATE, (int) mFrameRate);
+        if (!isRun)
+            return null;
+
+        return createDecoder();
+    }
 
+    /**
+     * Creates and configures the codec for the current parameter sets, which must be known.
+     */
+    private VideoCodec createDecoder() {
+        VideoCodec decoder;
+        mTimeToReadyMs = (System.nanoTime() - mStartNs) / 1000000L;
+        mParams = mData.getParameterSets();
+        VideoFormat format = createFormat(mParams);
+
+        long ts = System.nanoTime();
+        CodecPool pool = mCodecPool;
         try {
-            mDecoder = MediaCodec.createDecoderByType(MIME_TYPE);
-            mDecoder.configure(mediaFormat, mSurface, null, 0);
-            mDecoder.start();
-        } catch (IOException e) {
+            if (pool != null) {
+                mLease = pool.acquire(MIME_TYPE, AndroidVideoCodec.toMediaFormat(format), mSurface);
+                decoder = mLease.getCodec();
+                // A warm codec still has the previous stream's SPS/PPS; the pipeline sends ours.
+                if (mLease.isWarm())
+                    mParams = mLease.getParameterSets();
+            } else {
+                decoder = mCodecFactory.createDecoder(format);
+            }
+        } catch (IOException | IllegalArgumentException | IllegalStateException e) {
             e.printStackTrace();
             setDecoderState(DecoderState.ERROR, e.getMessage());
             return null;
         }
 
+        Log.i(TAG, String.format("Codec setup: %s us (%s)", (System.nanoTime() - ts) / 1000,
+                mLease == null ? "unpooled" : mLease.isWarm() ? "warm" : "pooled"));
         setDecoderState(DecoderState.READY, "Prepared decoder");
 
-        return mDecoder;
+        return decoder;
+    }
+
+    private void releaseDecoder(VideoCodec decoder, DecodePipeline pipeline) {
+        CodecPool.Lease lease = mLease;
+        mLease = null;
+        if (lease != null && mCodecPool != null) {
+            mCodecPool.recycle(lease, pipeline != null ? pipeline.getParameterSets() : mParams);
+            return;
+        }
+
+        decoder.stop();
+        decoder.release();
+    }
+
+    private VideoFormat createFormat(StreamData.ParameterSets params) {
+        return VideoFormat.of(MIME_TYPE, params, mMediaCodecWidth, mMediaCodecHeight, mFrameRate);
     }
 
+    private final DecodePipeline.Listener pipelineListener = new DecodePipeline.Listener() {
+        @Override
+        public void onOutputFormatChanged(int width, int height) {
+            Log.d(TAG, String.format("Output format changed: %sx%s", width, height));
+        }
+
+        @Override
+        public void onFirstFrameRendered() {
+            mTimeToFirstFrameMs = (System.nanoTime() - mStartNs) / 1000000L;
+            Log.i(TAG, String.format("Time to first frame: %s ms (first IDR after %s ms)", mTimeToFirstFrameMs, mTimeToReadyMs));
+            FirstFrameListener listener = mFirstFrameListener;
+            if (listener != null)
+                listener.onFirstFrame(mTimeToReadyMs, mTimeToFirstFrameMs);
+        }
+
+        @Override
+        public boolean onReconfigure(StreamData.ParameterSets params) {
+            long ts = System.nanoTime();
+            try {
+                mDecoder.configure(createFormat(params));
+            } catch (IllegalArgumentException | IllegalStateException e) {
+                Log.e(TAG, "Reconfigure failed", e);
+                return false;
+            }
+            Log.i(TAG, String.format("Reconfigured for parameter sets version %s in %s us",
+                    params.getVersion(), (System.nanoTime() - ts) / 1000));
+            return true;
+        }
+
+        @Override
+        public void onError(Exception e) {
+            setDecoderState(DecoderState.ERROR, e.getMessage());
+        }
+    };
+
     private void setDecoderState(DecoderState state, String msg) {
         mDecoderState = state;
         if (mStateListener != null)
@@ -202,47 +433,28 @@ public class H264Decoder {
         void onState(DecoderState state, @Nullable String msg);
     }
 
+    /**
+     * Startup timing, reported once per start on the render thread, or the codec callback thread
+     * in scheduled mode.
+     */
+    public interface FirstFrameListener {
+        void onFirstFrame(long timeToReadyMs, long timeToFirstFrameMs);
+    }
+
     public static class Helper {
         public static int findNextStart(byte[] data, int off) {
-            if (off >= data.length)
+            if (off < 0 || off >= data.length)
                 return -1;
 
-            for (int i = off; i < data.length; i++)
-                if ((data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 0 && data[i + 3] == 1)
-                        || (data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 1))
-                    return i;
-
-            return -1;
+            return NalScanner.findStartCode(data, off, data.length);
         }
 
         public static byte[] findSPS(byte[] data) {
-            for (int i = 0; i < data.length - 5; i++) {
-                if (data[i] == 0 &&
-                        data[i + 1] == 0 &&
-                        data[i + 2] == 0 &&
-                        data[i + 3] == 1 &&
-                        (data[i + 4] & 0x1f) == 0x07) {
-                    int next = findNextStart(data, i + 5);
-                    return Arrays.copyOfRange(data, i, next > i ? next : data.length);
-                }
-            }
-
-            return null;
+            return NalScanner.copyNalUnit(data, NalIndex.TYPE_SPS);
         }
 
         public static byte[] findPPS(byte[] data) {
-            for (int i = 0; i < data.length - 5; i++) {
-                if (data[i] == 0 &&
-                        data[i + 1] == 0 &&
-                        data[i + 2] == 0 &&
-                        data[i + 3] == 1 &&
-                        (data[i + 4] & 0x1f) == 0x08) {
-                    int next = findNextStart(data, i + 5);
-                    return Arrays.copyOfRange(data, i, next > i ? next : data.length);
-                }
-            }
-
-            return null;
+            return NalScanner.copyNalUnit(data, NalIndex.TYPE_PPS);
         }
     }
 }
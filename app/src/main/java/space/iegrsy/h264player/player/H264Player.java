@@ -6,7 +6,9 @@ import android.util.Log;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
 
-public class H264Player implements SurfaceHolder.Callback {
+import java.nio.ByteBuffer;
+
+public class H264Player implements FrameSink, MetricsOverlay.Source, SurfaceHolder.Callback {
     private static final String TAG = H264Player.class.getSimpleName();
 
     SurfaceHolder mHolder;
@@ -15,6 +17,8 @@ public class H264Player implements SurfaceHolder.Callback {
 
     private double mFrameRate = 30.0;
     private H264Decoder mDecoder;
+    private CodecPool mCodecPool = null;
+    private H264Decoder.FirstFrameListener mFirstFrameListener = null;
 
     private boolean isPlay = false;
     private PlayingChangeListener playingChangeListener;
@@ -46,6 +50,82 @@ public class H264Player implements SurfaceHolder.Callback {
         }
     }
 
+    /**
+     * Zero-copy variant; the buffer (e.g. {@code ByteString.asReadOnlyByteBuffer()}) is handed to
+     * the decoder as is and copied once, into the codec input buffer.
+     */
+    @Override
+    public void useFrameData(@NonNull ByteBuffer readInData, long ts) {
+        if (!isPlay)
+            return;
+
+        try {
+            if (readInData != null && readInData.remaining() <= 0)
+                throw new Exception("Size error !!!");
+
+            mData.useFrameData(readInData, ts);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Takes over the caller's reference to a pooled payload.
+     */
+    @Override
+    public void useFrameData(@NonNull PooledBuffer readInData, long ts) {
+        useFrameData(readInData, ts, System.nanoTime());
+    }
+
+    @Override
+    public void useFrameData(@NonNull PooledBuffer readInData, long ts, long receivedNs) {
+        if (!isPlay) {
+            readInData.release();
+            return;
+        }
+
+        try {
+            mData.useFrameData(readInData, ts, receivedNs);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public void useFrameData(@NonNull ScatterBuffer readInData, long ts, long receivedNs) {
+        if (!isPlay) {
+            readInData.release();
+            return;
+        }
+
+        try {
+            mData.useFrameData(readInData, ts, receivedNs);
+        } catch (Exception e) {
+            e.printStackTrace();
+        }
+    }
+
+    @Override
+    public int getQueuedFrameCount() {
+        return mData.getFrameCount();
+    }
+
+    @Override
+    public void seek(long ts) {
+        mData.flush(ts);
+    }
+
+    @Override
+    public void setPlaybackSpeed(int speed, @NonNull FrameFilter filter) {
+        mData.getJitterBuffer().setRate(speed);
+        mData.setFrameFilter(filter);
+    }
+
+    @Override
+    public StreamData.GopInfo getGopInfo() {
+        return mData.getGopInfo();
+    }
+
     public void useFrameData(byte[] readInData) {
         useFrameData(readInData, System.currentTimeMillis());
     }
@@ -60,6 +140,61 @@ public class H264Player implements SurfaceHolder.Callback {
             playingChangeListener.onChange(isPlay);
     }
 
+    /**
+     * Live mode keeps playback within {@link StreamData#DEFAULT_LATENCY_BUDGET_MS} of the newest
+     * received frame by skipping stale GOPs; off by default.
+     */
+    public void setLiveMode(boolean live) {
+        setLatencyBudget(live ? StreamData.DEFAULT_LATENCY_BUDGET_MS : 0);
+    }
+
+    public void setLatencyBudget(long budgetMs) {
+        mData.setLatencyBudgetMs(budgetMs);
+    }
+
+    public long getSkippedFrameCount() {
+        return mData.getSkippedFrameCount();
+    }
+
+    public long getSkippedTimeMs() {
+        return mData.getSkippedTimeMs();
+    }
+
+    @Override
+    public PipelineMetrics getMetrics() {
+        return mData.getMetrics();
+    }
+
+    /**
+     * Fills {@code into} with the current metrics; see {@link PipelineMetrics#snapshot}.
+     */
+    @Override
+    public PipelineMetrics.Snapshot getMetricsSnapshot(PipelineMetrics.Snapshot into) {
+        return mData.getMetrics().snapshot(mData, into);
+    }
+
+    public JitterBuffer getJitterBuffer() {
+        return mData.getJitterBuffer();
+    }
+
+    /**
+     * Reuses codecs from {@code pool} across start/stop, e.g. when switching cameras.
+     */
+    public void setCodecPool(@Nullable CodecPool pool) {
+        mCodecPool = pool;
+    }
+
+    /**
+     * Time to first frame of the current playback, or -1 until it is shown.
+     */
+    public long getTimeToFirstFrameMs() {
+        return mDecoder != null ? mDecoder.getTimeToFirstFrameMs() : -1;
+    }
+
+    public void setFirstFrameListener(H264Decoder.FirstFrameListener listener) {
+        mFirstFrameListener = listener;
+    }
+
     public boolean isPlay() {
         return isPlay;
     }
@@ -70,11 +205,14 @@ public class H264Player implements SurfaceHolder.Callback {
 
         mDecoder = new H264Decoder(mData, mHolder.getSurface(), mFrameRate);
         mDecoder.setStateListener(decoderStateListener);
+        mDecoder.setCodecPool(mCodecPool);
+        mDecoder.setFirstFrameListener(mFirstFrameListener);
         mDecoder.start();
 
         setIsPlay(true);
     }
 
+    @Override
     public void stop() {
         if (mDecoder != null) {
             mDecoder.release();
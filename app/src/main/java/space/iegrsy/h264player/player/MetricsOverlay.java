@@ -0,0 +1,82 @@
+package space.iegrsy.h264player.player;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.support.annotation.NonNull;
+import android.view.View;
+import android.widget.TextView;
+
+/**
+ * Debug overlay: shows a player's {@link PipelineMetrics} in a TextView, refreshed once a second
+ * on the main thread while started.
+ */
+public class MetricsOverlay {
+    private static final long INTERVAL_MS = 1000;
+
+    public interface Source {
+        PipelineMetrics.Snapshot getMetricsSnapshot(PipelineMetrics.Snapshot into);
+    }
+
+    private final TextView mView;
+    private final Source mSource;
+    private final Handler mHandler = new Handler(Looper.getMainLooper());
+    private final PipelineMetrics.Snapshot mCurrent = new PipelineMetrics.Snapshot();
+    private final PipelineMetrics.Snapshot mPrevious = new PipelineMetrics.Snapshot();
+    private boolean isStarted = false;
+
+    public MetricsOverlay(@NonNull TextView view, @NonNull Source source) {
+        mView = view;
+        mSource = source;
+    }
+
+    public boolean isStarted() {
+        return isStarted;
+    }
+
+    public void start() {
+        if (isStarted)
+            return;
+
+        isStarted = true;
+        mView.setVisibility(View.VISIBLE);
+        mHandler.post(updateRunnable);
+    }
+
+    public void stop() {
+        isStarted = false;
+        mHandler.removeCallbacks(updateRunnable);
+        mView.setVisibility(View.GONE);
+    }
+
+    public void toggle() {
+        if (isStarted)
+            stop();
+        else
+            start();
+    }
+
+    private final Runnable updateRunnable = new Runnable() {
+        @Override
+        public void run() {
+            if (!isStarted)
+                return;
+
+            mSource.getMetricsSnapshot(mCurrent);
+            mView.setText(format(mCurrent, mPrevious));
+            mPrevious.set(mCurrent);
+            mHandler.postDelayed(this, INTERVAL_MS);
+        }
+    };
+
+    static String format(PipelineMetrics.Snapshot s, PipelineMetrics.Snapshot previous) {
+        return String.format("fps %.1f  %.0f kB/s  queue %s  jitter %s ms\n", s.getRenderedFps(previous), s.getBytesPerSecond(previous) / 1024, s.getQueueDepth(), s.getJitterDepthMs())
+                + String.format("recv %s  queued %s  fed %s  rendered %s\n", s.getFramesReceived(), s.getFramesQueued(), s.getFramesFed(), s.getFramesRendered())
+                + String.format("dropped %s  skipped %s  stalls %s  sps/pps %s\n", s.getFramesDropped(), s.getFramesSkipped(), s.getCodecStalls(), s.getParameterSetChanges())
+                + String.format("in flight %s (peak %s)  flushes %s\n", s.getCodecInFlight(), s.getCodecInFlightPeak(), s.getCodecFlushes())
+                + String.format("md5 failed %s  reassembly %s\n", s.getChecksumFailures(), s.getReassembly())
+                + String.format("recv>queue %s\n", s.getReceiveToQueue())
+                + String.format("queue>input %s\n", s.getQueueToInput())
+                + String.format("input>output %s\n", s.getInputToOutput())
+                + String.format("input>render %s", s.getInputToRender());
+    }
+}
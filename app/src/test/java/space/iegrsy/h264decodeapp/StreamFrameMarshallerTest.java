@@ -0,0 +1,55 @@
+package space.iegrsy.h264decodeapp;
+
+import com.google.protobuf.ByteString;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.nio.ByteBuffer;
+
+import space.iegrsy.h264player.player.BufferPool;
+import vms.Nvr;
+
+import static org.junit.Assert.*;
+
+public class StreamFrameMarshallerTest {
+    @Test
+    public void parsesPayloadIntoPooledBuffer() {
+        byte[] payload = new byte[20000];
+        for (int i = 0; i < payload.length; i++)
+            payload[i] = (byte) i;
+
+        Nvr.StreamFrame frame = Nvr.StreamFrame.newBuilder()
+                .addInfo(Nvr.CameraStream.newBuilder().setFrameRate(25.0))
+                .addData(Nvr.StreamBuffer.newBuilder()
+                        .setData(ByteString.copyFrom(payload))
+                        .setMd5("abc")
+                        .setChunked(true)
+                        .setFlags(3)
+                        .setTs(1234567890123L))
+                .build();
+
+        BufferPool pool = new BufferPool(1024 * 1024, true);
+        PooledStreamFrame parsed = new StreamFrameMarshaller(pool).parse(new ByteArrayInputStream(frame.toByteArray()));
+
+        assertEquals(1, parsed.getInfoCount());
+        assertEquals(25.0, parsed.getInfo(0).getFrameRate(), 0.0);
+        assertEquals(1, parsed.getDataCount());
+
+        PooledStreamFrame.Buffer buffer = parsed.getData(0);
+        assertEquals("abc", buffer.getMd5());
+        assertTrue(buffer.getChunked());
+        assertEquals(3, buffer.getFlags());
+        assertEquals(1234567890123L, buffer.getTs());
+        assertEquals(payload.length, buffer.getSize());
+
+        ByteBuffer data = buffer.getData().buffer();
+        byte[] copy = new byte[data.remaining()];
+        data.duplicate().get(copy);
+        assertArrayEquals(payload, copy);
+
+        parsed.release();
+        assertEquals(1, pool.getMisses());
+        assertEquals(pool.getAllocatedBytes(), pool.getIdleBytes());
+    }
+}
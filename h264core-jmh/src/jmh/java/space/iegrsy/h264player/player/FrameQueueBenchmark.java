@@ -0,0 +1,100 @@
+package space.iegrsy.h264player.player;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Group;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.util.ArrayList;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Enqueue/dequeue throughput of {@link FrameRing} against the synchronized ArrayList queue
+ * {@link StreamData} used before it, uncontended and with a network and a decode thread.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameQueueBenchmark {
+    private static final int CAPACITY = 1024;
+    private static final Object FRAME = new Object();
+
+    @State(Scope.Group)
+    public static class Ring {
+        FrameRing<Object> ring;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            ring = new FrameRing<>(CAPACITY);
+        }
+    }
+
+    @State(Scope.Group)
+    public static class Legacy {
+        LegacyQueue queue;
+
+        @Setup(Level.Iteration)
+        public void setup() {
+            queue = new LegacyQueue();
+        }
+    }
+
+    @Benchmark
+    @Group("ringUncontended")
+    public Object ringOfferPoll(Ring state) {
+        state.ring.offer(FRAME);
+        return state.ring.poll();
+    }
+
+    @Benchmark
+    @Group("legacyUncontended")
+    public Object legacyOfferPoll(Legacy state) {
+        state.queue.add(FRAME);
+        return state.queue.poll();
+    }
+
+    @Benchmark
+    @Group("ring")
+    public boolean ringOffer(Ring state) {
+        return state.ring.offer(FRAME);
+    }
+
+    @Benchmark
+    @Group("ring")
+    public Object ringPoll(Ring state) {
+        return state.ring.poll();
+    }
+
+    @Benchmark
+    @Group("legacy")
+    public void legacyOffer(Legacy state) {
+        state.queue.add(FRAME);
+    }
+
+    @Benchmark
+    @Group("legacy")
+    public Object legacyPoll(Legacy state) {
+        return state.queue.poll();
+    }
+
+    /**
+     * The old frame list: every call takes the StreamData monitor and dequeue shifts the array.
+     */
+    static final class LegacyQueue {
+        private final ArrayList<Object> frames = new ArrayList<>();
+
+        synchronized void add(Object frame) {
+            if (frames.size() > CAPACITY)
+                frames.remove(0);
+            frames.add(frame);
+        }
+
+        synchronized Object poll() {
+            return frames.isEmpty() ? null : frames.remove(0);
+        }
+    }
+}
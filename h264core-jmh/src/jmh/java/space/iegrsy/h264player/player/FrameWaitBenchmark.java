@@ -0,0 +1,130 @@
+package space.iegrsy.h264player.player;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The decode thread waiting for frames: {@link StreamData#takeFrame} parked until the network
+ * thread unparks it, against the {@link StreamData#pollFrame()} spin loop it replaced.
+ * <p>
+ * {@code wakeLatency} times one frame from the offer to the consumer holding it. {@code idle}
+ * offers one frame every {@code periodUs}, as a camera does; its {@code cpuUs} counter is the
+ * consumer's CPU time per second, 1,000,000 being a core kept busy, and {@code wakeNs} the
+ * offer-to-wake latency summed over a second: divided by the ops rate, the mean per frame.
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class FrameWaitBenchmark {
+    private static final long WAIT_MS = 300;
+    private static final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+    @State(Scope.Benchmark)
+    public static class Consumer {
+        @Param({"park", "spin"})
+        public String wait;
+
+        @Param({"1000"})
+        public long periodUs;
+
+        private final StreamData.RAWFrame frame = new StreamData.RAWFrame(0);
+        private StreamData data;
+        private Thread thread;
+        private volatile boolean isRun;
+        // Written by the consumer for every frame taken.
+        private volatile long taken = 0;
+        private volatile long wokenNs = 0;
+
+        @Setup(Level.Trial)
+        public void start() {
+            data = new StreamData();
+            isRun = true;
+            final boolean park = wait.equals("park");
+            thread = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        while (isRun) {
+                            StreamData.RAWFrame next = park
+                                    ? data.takeFrame(WAIT_MS, TimeUnit.MILLISECONDS)
+                                    : data.pollFrame();
+                            if (next == null)
+                                continue;
+
+                            wokenNs = System.nanoTime();
+                            taken++;
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            }, "consumer");
+            thread.start();
+        }
+
+        @TearDown(Level.Trial)
+        public void stop() throws InterruptedException {
+            isRun = false;
+            thread.interrupt();
+            thread.join();
+        }
+
+        long getCpuNs() {
+            return threads.getThreadCpuTime(thread.getId());
+        }
+
+        /**
+         * Offers the frame and spins until the consumer has it; returns when it woke.
+         */
+        long offerAndAwait() {
+            final long count = taken;
+            data.addFrame(frame);
+            while (taken == count) ;
+            return wokenNs;
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Counters {
+        public long cpuUs;
+        public long wakeNs;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            cpuUs = 0;
+            wakeNs = 0;
+        }
+    }
+
+    @Benchmark
+    public long wakeLatency(Consumer consumer) {
+        return consumer.offerAndAwait();
+    }
+
+    @Benchmark
+    @BenchmarkMode(Mode.Throughput)
+    @OutputTimeUnit(TimeUnit.SECONDS)
+    public long idle(Consumer consumer, Counters counters) {
+        final long cpuNs = consumer.getCpuNs();
+        LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(consumer.periodUs));
+        final long offeredNs = System.nanoTime();
+        final long wokenNs = consumer.offerAndAwait();
+        counters.wakeNs += wokenNs - offeredNs;
+        counters.cpuUs += TimeUnit.NANOSECONDS.toMicros(consumer.getCpuNs() - cpuNs);
+        return wokenNs;
+    }
+}
@@ -0,0 +1,154 @@
+package space.iegrsy.h264player.player;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Start code scanning, one access unit per operation, taken in turn from a recorded Annex-B
+ * stream: {@code /streams/<stream>.h264} from the core's test resources. Without the recording
+ * a synthetic GOP of the same resolution stands in. The {@code megabytes} counter is the scan
+ * rate in MB/s.
+ * <p>
+ * {@link #byteAtATime} is the scan the decoder used before {@link NalScanner}, kept as the baseline.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+public class NalScannerBenchmark {
+    private static final int SYNTHETIC_GOP = 30;
+
+    @Param({"1080p", "2160p"})
+    public String stream;
+
+    @Param({"false", "true"})
+    public boolean direct;
+
+    private ByteBuffer[] units;
+    private int next = 0;
+    private final NalIndex index = new NalIndex();
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.OPERATIONS)
+    public static class Scanned {
+        public double megabytes;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            megabytes = 0;
+        }
+    }
+
+    @Setup
+    public void setup() throws IOException {
+        List<byte[]> recorded = load("/streams/" + stream + ".h264");
+        if (recorded.isEmpty()) {
+            final int size = stream.equals("2160p") ? SyntheticStream.SIZE_4K : SyntheticStream.SIZE_1080P;
+            recorded.add(SyntheticStream.keyFrame(size, 42));
+            for (int i = 1; i < SYNTHETIC_GOP; i++)
+                recorded.add(SyntheticStream.frame(size / 8, 42 + i));
+        }
+
+        units = new ByteBuffer[recorded.size()];
+        for (int i = 0; i < units.length; i++) {
+            byte[] data = recorded.get(i);
+            units[i] = direct ? ByteBuffer.allocateDirect(data.length) : ByteBuffer.allocate(data.length);
+            units[i].put(data).flip();
+        }
+    }
+
+    /**
+     * The access units of an Annex-B resource, as the assembler splits them; none if missing.
+     */
+    private static List<byte[]> load(String name) throws IOException {
+        final List<byte[]> units = new ArrayList<>();
+        InputStream in = NalScannerBenchmark.class.getResourceAsStream(name);
+        if (in == null)
+            return units;
+
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            byte[] chunk = new byte[64 * 1024];
+            int n;
+            while ((n = in.read(chunk)) > 0)
+                out.write(chunk, 0, n);
+        } finally {
+            in.close();
+        }
+
+        AccessUnitAssembler assembler = new AccessUnitAssembler(new AccessUnitAssembler.Listener() {
+            @Override
+            public void onAccessUnit(ScatterBuffer data, NalIndex nals, long ts, long receivedNs) {
+                ByteBuffer unit = ByteBuffer.allocate(data.size());
+                data.copyTo(0, data.size(), unit);
+                units.add(unit.array());
+                data.release();
+            }
+        }, new PipelineMetrics());
+        ScatterBuffer data = ScatterBuffer.wrap(ByteBuffer.wrap(out.toByteArray()), null);
+        assembler.add(data, 0, 0);
+        data.release();
+        // The last access unit waits for a next one that never comes.
+        assembler.reset();
+        return units;
+    }
+
+    private ByteBuffer nextUnit(Scanned scanned) {
+        ByteBuffer unit = units[next];
+        next = (next + 1) % units.length;
+        scanned.megabytes += unit.limit() / 1e6;
+        return unit;
+    }
+
+    @Benchmark
+    public int wordAtATime(Scanned scanned) {
+        ByteBuffer buffer = nextUnit(scanned);
+        int count = 0;
+        int to = buffer.limit();
+        int i = NalScanner.findStartCode(buffer, 0, to);
+        while (i >= 0) {
+            count++;
+            i = NalScanner.findStartCode(buffer, i + NalScanner.startCodeLength(buffer, i, to), to);
+        }
+        return count;
+    }
+
+    @Benchmark
+    public int byteAtATime(Scanned scanned) {
+        ByteBuffer buffer = nextUnit(scanned);
+        int count = 0;
+        int to = buffer.limit() - 3;
+        for (int i = 0; i <= to; i++) {
+            if (buffer.get(i) == 0 && buffer.get(i + 1) == 0 && buffer.get(i + 2) == 1) {
+                count++;
+                i += 2;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * The full per frame cost on the network thread.
+     */
+    @Benchmark
+    public NalIndex indexAccessUnit(Scanned scanned) {
+        ByteBuffer buffer = nextUnit(scanned);
+        index.scan(buffer, 0, buffer.limit());
+        return index;
+    }
+}
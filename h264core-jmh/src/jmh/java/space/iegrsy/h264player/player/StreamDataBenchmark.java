@@ -0,0 +1,62 @@
+package space.iegrsy.h264player.player;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One frame through {@link StreamData}: network copy, useFrameData, pollFrame and release.
+ * Run with the gc profiler; gc.alloc.rate.norm is the per frame allocation the pooled path keeps low.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class StreamDataBenchmark {
+    @Param({"" + SyntheticStream.SIZE_1080P})
+    public int size;
+
+    private StreamData data;
+    private BufferPool pool;
+    private byte[] keyFrame;
+    private byte[] frame;
+    private long ts;
+
+    @Setup(Level.Iteration)
+    public void setup() throws Exception {
+        keyFrame = SyntheticStream.keyFrame(size, 1);
+        frame = SyntheticStream.frame(size, 2);
+        pool = new BufferPool();
+        data = new StreamData();
+        // Frames before the first IDR are not queued.
+        data.useFrameData(keyFrame, ts++);
+        data.pollFrame().release();
+    }
+
+    @Benchmark
+    public StreamData.RAWFrame pooled() throws Exception {
+        PooledBuffer lease = pool.acquire(frame.length);
+        ByteBuffer buffer = lease.buffer();
+        buffer.put(frame).flip();
+        data.useFrameData(lease, ts++);
+        StreamData.RAWFrame polled = data.pollFrame();
+        polled.release();
+        return polled;
+    }
+
+    @Benchmark
+    public StreamData.RAWFrame copied() throws Exception {
+        data.useFrameData(frame.clone(), ts++);
+        StreamData.RAWFrame polled = data.pollFrame();
+        polled.release();
+        return polled;
+    }
+}
@@ -0,0 +1,189 @@
+package space.iegrsy.h264player.player;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Groups the NAL units of received messages into access units, however the server splits them:
+ * one access unit per message, one NAL unit per message, or several access units in one.
+ * <p>
+ * An access unit ends where the next one starts (H.264 7.4.1.2.3): after a slice, at an access
+ * unit delimiter, SEI or parameter set, at a slice with first_mb_in_slice 0, or at a new
+ * timestamp. That is only known once the next unit arrives, so while messages look aligned to
+ * access units each one is handed on as soon as it has ended with a slice. A slice continuing the
+ * picture handed on last shows they are not; from then on an access unit waits for the start of
+ * the next, and the stray slices are dropped until it comes.
+ * <p>
+ * Messages are kept in the buffers they arrived in; an access unit is a {@link ScatterBuffer}
+ * over them. Network thread only.
+ */
+public class AccessUnitAssembler {
+    public interface Listener {
+        /**
+         * An access unit with its NAL units; takes over the reference to {@code data}.
+         *
+         * @param receivedNs when its first message came off the network
+         */
+        void onAccessUnit(ScatterBuffer data, NalIndex nals, long ts, long receivedNs);
+    }
+
+    // Enough of a slice header for first_mb_in_slice, emulation prevention bytes included.
+    private static final int FIRST_MB_BYTES = 8;
+
+    private final Listener listener;
+    private final PipelineMetrics metrics;
+    private final BitReader bits = new BitReader();
+
+    private final List<ScatterBuffer> pending = new ArrayList<>();
+    private long pendingTs = 0;
+    private long pendingNs = 0;
+    private boolean pendingHasSlice = false;
+    // Index of the pending access unit when it is exactly one whole message, so it is not rescanned.
+    private NalIndex pendingNals = null;
+
+    private boolean aligned = true;
+    // Dropping the slices of a picture whose start is missing.
+    private boolean discarding = false;
+    private long discardTs = 0;
+    private long lastTs = Long.MIN_VALUE;
+
+    public AccessUnitAssembler(Listener listener, PipelineMetrics metrics) {
+        this.listener = listener;
+        this.metrics = metrics;
+    }
+
+    /**
+     * True while messages are taken as whole access units, handed on without waiting for the
+     * next one.
+     */
+    public boolean isAligned() {
+        return aligned;
+    }
+
+    /**
+     * One message of Annex-B NAL units. Keeps references of its own to the parts it holds on to;
+     * the caller keeps its reference to {@code data}.
+     */
+    public void add(ScatterBuffer data, long ts, long receivedNs) {
+        final NalIndex nals = NalIndex.of(data);
+        int from = 0;
+
+        for (int i = 0; i < nals.count(); i++) {
+            final int offset = nals.offset(i);
+            final int type = nals.type(i);
+            final boolean slice = type == NalIndex.TYPE_SLICE || type == NalIndex.TYPE_IDR;
+            final int firstMb = slice ? firstMb(data, nals, i) : -1;
+
+            if (discarding) {
+                if (slice && firstMb > 0 && ts == discardTs) {
+                    from = offset + nals.length(i);
+                    continue;
+                }
+                discarding = false;
+            }
+
+            if (pendingHasSlice && startsAccessUnit(type, slice, firstMb, ts)) {
+                keep(data, nals, from, offset, ts, receivedNs);
+                from = offset;
+                complete();
+            }
+
+            if (slice && !pendingHasSlice && firstMb > 0) {
+                // The rest of a picture. Handed on already when messages are not whole access
+                // units after all; otherwise its start was lost.
+                if (ts == lastTs)
+                    aligned = false;
+                metrics.onFramesDropped(1);
+                keep(data, nals, from, offset, ts, receivedNs);
+                from = offset + nals.length(i);
+                discarding = true;
+                discardTs = ts;
+                continue;
+            }
+
+            if (slice)
+                pendingHasSlice = true;
+        }
+
+        keep(data, nals, from, data.size(), ts, receivedNs);
+        if (aligned && pendingHasSlice)
+            complete();
+    }
+
+    /**
+     * Drops the pending access unit, e.g. on a restart of the stream.
+     */
+    public void reset() {
+        for (ScatterBuffer part : pending)
+            part.release();
+        pending.clear();
+        pendingNals = null;
+        pendingHasSlice = false;
+        discarding = false;
+        lastTs = Long.MIN_VALUE;
+    }
+
+    /**
+     * Whether a unit after a slice of the pending access unit starts the next one.
+     */
+    private boolean startsAccessUnit(int type, boolean slice, int firstMb, long ts) {
+        if (ts != pendingTs)
+            return true;
+        if (slice)
+            return firstMb == 0;
+        return type == NalIndex.TYPE_AUD || type == NalIndex.TYPE_SEI || type == NalIndex.TYPE_SPS
+                || type == NalIndex.TYPE_PPS || (type >= 14 && type <= 18);
+    }
+
+    /**
+     * first_mb_in_slice of slice {@code i}, or -1 if it can not be read.
+     */
+    private int firstMb(ScatterBuffer data, NalIndex nals, int i) {
+        final int header = nals.headerOffset(i) + 1;
+        final int length = Math.min(FIRST_MB_BYTES, nals.offset(i) + nals.length(i) - header);
+        if (length <= 0)
+            return -1;
+
+        ByteBuffer slice = data.slice(header, length);
+        int firstMb = bits.reset(slice, slice.position(), slice.limit()).readUE();
+        return bits.isOverrun() ? -1 : firstMb;
+    }
+
+    /**
+     * Adds {@code [from, to)} of the message to the pending access unit.
+     */
+    private void keep(ScatterBuffer data, NalIndex nals, int from, int to, long ts, long receivedNs) {
+        if (from >= to)
+            return;
+
+        if (pending.isEmpty()) {
+            pendingTs = ts;
+            pendingNs = receivedNs;
+            pendingNals = from == 0 && to == data.size() ? nals : null;
+        } else {
+            pendingNals = null;
+        }
+        pending.add(data.range(from, to));
+    }
+
+    private void complete() {
+        if (pending.isEmpty())
+            return;
+
+        ScatterBuffer unit = ScatterBuffer.join(pending);
+        NalIndex nals = pendingNals != null ? pendingNals : NalIndex.of(unit);
+        final boolean hasSlice = pendingHasSlice;
+        pending.clear();
+        pendingNals = null;
+        pendingHasSlice = false;
+
+        if (!hasSlice) {
+            // Parameter sets or SEI without a picture.
+            unit.release();
+            return;
+        }
+        lastTs = pendingTs;
+        listener.onAccessUnit(unit, nals, pendingTs, pendingNs);
+    }
+}
@@ -0,0 +1,126 @@
+package space.iegrsy.h264player.player;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Bit reader over the RBSP of a NAL unit. Emulation prevention bytes (the 0x03 in 00 00 03) are
+ * dropped while reading, so the payload is never copied. Reading past the end yields zero bits
+ * and sets {@link #isOverrun()} instead of throwing; a reader can be reused with {@link #reset}.
+ */
+public final class BitReader {
+    private ByteBuffer buffer;
+    private int position;
+    private int limit;
+    private int zeros;
+
+    private int current;
+    private int bitsLeft;
+    private boolean overrun;
+
+    public BitReader reset(ByteBuffer buffer, int from, int to) {
+        this.buffer = buffer;
+        this.position = from;
+        this.limit = to;
+        this.zeros = 0;
+        this.current = 0;
+        this.bitsLeft = 0;
+        this.overrun = false;
+        return this;
+    }
+
+    public BitReader reset(byte[] data, int from, int to) {
+        return reset(ByteBuffer.wrap(data), from, to);
+    }
+
+    private int nextByte() {
+        if (position >= limit) {
+            overrun = true;
+            return 0;
+        }
+
+        int b = buffer.get(position++) & 0xff;
+        if (zeros >= 2 && b == 0x03) {
+            zeros = 0;
+            if (position >= limit) {
+                overrun = true;
+                return 0;
+            }
+            b = buffer.get(position++) & 0xff;
+        }
+        zeros = b == 0 ? zeros + 1 : 0;
+        return b;
+    }
+
+    public int readBit() {
+        if (bitsLeft == 0) {
+            current = nextByte();
+            bitsLeft = 8;
+        }
+        bitsLeft--;
+        return (current >>> bitsLeft) & 0x01;
+    }
+
+    public boolean readFlag() {
+        return readBit() != 0;
+    }
+
+    /**
+     * Reads {@code count} bits, at most 32, most significant first.
+     */
+    public long readBits(int count) {
+        if (count < 0 || count > 32)
+            throw new IllegalArgumentException("Bit count out of range: " + count);
+
+        long value = 0;
+        while (count > 0) {
+            if (bitsLeft == 0) {
+                current = nextByte();
+                bitsLeft = 8;
+            }
+            int take = Math.min(count, bitsLeft);
+            int shift = bitsLeft - take;
+            value = (value << take) | ((current >>> shift) & ((1 << take) - 1));
+            bitsLeft -= take;
+            count -= take;
+        }
+        return value;
+    }
+
+    public int readInt(int count) {
+        return (int) readBits(count);
+    }
+
+    public void skipBits(int count) {
+        while (count > 32) {
+            readBits(32);
+            count -= 32;
+        }
+        readBits(count);
+    }
+
+    /**
+     * Unsigned exp-Golomb code, ue(v).
+     */
+    public int readUE() {
+        int leadingZeros = 0;
+        while (readBit() == 0) {
+            if (++leadingZeros > 31 || overrun) {
+                overrun = true;
+                return 0;
+            }
+        }
+        return (int) ((1L << leadingZeros) - 1 + readBits(leadingZeros));
+    }
+
+    /**
+     * Signed exp-Golomb code, se(v).
+     */
+    public int readSE() {
+        int value = readUE();
+        return (value & 0x01) != 0 ? (value + 1) / 2 : -(value / 2);
+    }
+
+    public boolean isOverrun() {
+        return overrun;
+    }
+}
@@ -0,0 +1,151 @@
+package space.iegrsy.h264player.player;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Size-class pool of reusable direct buffers for frame payloads.
+ * <p>
+ * Classes are powers of two from {@link #MIN_CLASS_SIZE} to {@link #MAX_CLASS_SIZE}. A request is
+ * served from the idle list of its class (hit) or by allocating a new buffer (miss). The total
+ * capacity owned by the pool, leased or idle, never exceeds the memory ceiling: idle buffers of
+ * other classes are trimmed first, and if that is not enough the request gets an unpooled heap
+ * buffer that is simply garbage collected (overflow).
+ */
+public class BufferPool {
+    public static final int MIN_CLASS_SIZE = 4 * 1024;
+    public static final int MAX_CLASS_SIZE = 16 * 1024 * 1024;
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    private static final int MIN_SHIFT = Integer.numberOfTrailingZeros(MIN_CLASS_SIZE);
+    private static final int CLASS_COUNT = Integer.numberOfTrailingZeros(MAX_CLASS_SIZE) - MIN_SHIFT + 1;
+
+    private final long maxBytes;
+    private final boolean direct;
+    // Generic arrays can not be created; every element is a queue of PooledBuffer, so the cast holds.
+    @SuppressWarnings("unchecked")
+    private final ConcurrentLinkedQueue<PooledBuffer>[] idle = (ConcurrentLinkedQueue<PooledBuffer>[]) new ConcurrentLinkedQueue<?>[CLASS_COUNT];
+
+    private final AtomicLong allocatedBytes = new AtomicLong();
+    private final AtomicLong idleBytes = new AtomicLong();
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong overflows = new AtomicLong();
+
+    public BufferPool() {
+        this(DEFAULT_MAX_BYTES, true);
+    }
+
+    public BufferPool(long maxBytes, boolean direct) {
+        if (maxBytes <= 0)
+            throw new IllegalArgumentException("Max bytes must be positive: " + maxBytes);
+
+        this.maxBytes = maxBytes;
+        this.direct = direct;
+        for (int i = 0; i < CLASS_COUNT; i++)
+            idle[i] = new ConcurrentLinkedQueue<>();
+    }
+
+    /**
+     * Returns a lease with a reference count of one whose buffer is cleared and limited to
+     * {@code size} bytes.
+     */
+    public PooledBuffer acquire(int size) {
+        if (size < 0)
+            throw new IllegalArgumentException("Negative size: " + size);
+
+        if (size > MAX_CLASS_SIZE) {
+            overflows.incrementAndGet();
+            return PooledBuffer.unpooled(ByteBuffer.allocate(size), size);
+        }
+
+        final int sizeClass = sizeClass(size);
+        PooledBuffer lease = idle[sizeClass].poll();
+        if (lease != null) {
+            idleBytes.addAndGet(-lease.capacity());
+            hits.incrementAndGet();
+            return lease.reuse(size);
+        }
+
+        misses.incrementAndGet();
+        final int capacity = MIN_CLASS_SIZE << sizeClass;
+        if (!reserve(capacity)) {
+            overflows.incrementAndGet();
+            return PooledBuffer.unpooled(ByteBuffer.allocate(size), size);
+        }
+
+        ByteBuffer buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+        return new PooledBuffer(this, sizeClass, buffer).reuse(size);
+    }
+
+    void recycle(PooledBuffer lease) {
+        idleBytes.addAndGet(lease.capacity());
+        idle[lease.sizeClass()].offer(lease);
+    }
+
+    private boolean reserve(int capacity) {
+        for (; ; ) {
+            long allocated = allocatedBytes.get();
+            if (allocated + capacity <= maxBytes) {
+                if (allocatedBytes.compareAndSet(allocated, allocated + capacity))
+                    return true;
+                continue;
+            }
+            if (!trimOne())
+                return false;
+        }
+    }
+
+    /**
+     * Frees one idle buffer, largest class first. Returns false when nothing is idle.
+     */
+    private boolean trimOne() {
+        for (int i = CLASS_COUNT - 1; i >= 0; i--) {
+            PooledBuffer lease = idle[i].poll();
+            if (lease != null) {
+                idleBytes.addAndGet(-lease.capacity());
+                allocatedBytes.addAndGet(-lease.capacity());
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Frees every idle buffer; leased buffers return to the pool as usual.
+     */
+    public void trim() {
+        while (trimOne()) ;
+    }
+
+    private static int sizeClass(int size) {
+        if (size <= MIN_CLASS_SIZE)
+            return 0;
+        return 32 - Integer.numberOfLeadingZeros(size - 1) - MIN_SHIFT;
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public long getAllocatedBytes() {
+        return allocatedBytes.get();
+    }
+
+    public long getIdleBytes() {
+        return idleBytes.get();
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getOverflows() {
+        return overflows.get();
+    }
+}
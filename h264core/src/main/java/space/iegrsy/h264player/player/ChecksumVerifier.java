@@ -0,0 +1,126 @@
+package space.iegrsy.h264player.player;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Checks payloads against the MD5 sent with them on a background executor, off the network and
+ * decode threads. A mismatch is counted in the stream's {@link PipelineMetrics}; the frame has
+ * usually been decoded by then. At most {@link #MAX_PENDING} payloads wait at a time and later
+ * ones go unchecked, so a slow executor never holds on to more pool buffers than that.
+ */
+public class ChecksumVerifier {
+    public static final int MAX_PENDING = 16;
+
+    private static final ThreadLocal<MessageDigest> md5 = new ThreadLocal<MessageDigest>() {
+        @Override
+        protected MessageDigest initialValue() {
+            try {
+                return MessageDigest.getInstance("MD5");
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("MD5 not available", e);
+            }
+        }
+    };
+
+    private final Executor executor;
+    private final AtomicInteger pending = new AtomicInteger();
+    private final AtomicLong verified = new AtomicLong();
+    private final AtomicLong failed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    public ChecksumVerifier(Executor executor) {
+        if (executor == null)
+            throw new NullPointerException("Executor null");
+        this.executor = executor;
+    }
+
+    /**
+     * Network thread, before the payload is handed on: the bytes between its position and limit
+     * are checked later under a reference of the verifier's own. An empty {@code expectedMd5}
+     * means none was sent.
+     *
+     * @param expectedMd5 32 hex digits
+     */
+    public void verify(PooledBuffer payload, String expectedMd5, final PipelineMetrics metrics) {
+        if (expectedMd5 == null || expectedMd5.isEmpty())
+            return;
+
+        if (pending.incrementAndGet() > MAX_PENDING) {
+            pending.decrementAndGet();
+            skipped.incrementAndGet();
+            return;
+        }
+
+        final PooledBuffer lease = payload.retain();
+        final ByteBuffer data = payload.buffer().duplicate();
+        final byte[] expected = parseHex(expectedMd5);
+        try {
+            executor.execute(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        check(data, expected, metrics);
+                    } finally {
+                        lease.release();
+                        pending.decrementAndGet();
+                    }
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            lease.release();
+            pending.decrementAndGet();
+            skipped.incrementAndGet();
+        }
+    }
+
+    private void check(ByteBuffer data, byte[] expected, PipelineMetrics metrics) {
+        MessageDigest digest = md5.get();
+        digest.reset();
+        digest.update(data);
+        if (expected != null && MessageDigest.isEqual(digest.digest(), expected)) {
+            verified.incrementAndGet();
+        } else {
+            failed.incrementAndGet();
+            metrics.onChecksumFailed();
+        }
+    }
+
+    /**
+     * Returns null if {@code hex} is not an MD5 in hex, which then never matches.
+     */
+    static byte[] parseHex(String hex) {
+        if (hex.length() != 32)
+            return null;
+
+        byte[] bytes = new byte[16];
+        for (int i = 0; i < bytes.length; i++) {
+            int high = Character.digit(hex.charAt(2 * i), 16);
+            int low = Character.digit(hex.charAt(2 * i + 1), 16);
+            if (high < 0 || low < 0)
+                return null;
+            bytes[i] = (byte) (high << 4 | low);
+        }
+        return bytes;
+    }
+
+    public long getVerifiedCount() {
+        return verified.get();
+    }
+
+    public long getFailedCount() {
+        return failed.get();
+    }
+
+    /**
+     * Payloads left unchecked because too many were waiting or the executor was shut down.
+     */
+    public long getSkippedCount() {
+        return skipped.get();
+    }
+}
@@ -0,0 +1,92 @@
+package space.iegrsy.h264player.player;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Joins an access unit sent in chunks, consecutive buffers of one timestamp with the chunked flag
+ * on every one but the last, into a {@link ScatterBuffer} without copying them. A chunk of
+ * another timestamp while one is pending means the rest was lost: the partial frame is dropped.
+ * Network thread only.
+ */
+public class ChunkReassembler {
+    // Larger than any frame the pool can hold; a chunked frame past it is garbage.
+    private static final int MAX_FRAME_BYTES = BufferPool.MAX_CLASS_SIZE;
+
+    private final PipelineMetrics metrics;
+    private final List<PooledBuffer> pending = new ArrayList<>();
+    private long pendingTs = 0;
+    private long pendingBytes = 0;
+    private long firstChunkNs = 0;
+    private long incompleteFrames = 0;
+
+    /**
+     * @param metrics of the stream the frames go to; takes reassembly latency and lost frames
+     */
+    public ChunkReassembler(PipelineMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * True while chunks of an access unit are held; a single buffer that is not chunked can skip
+     * the reassembler only while this is false.
+     */
+    public boolean hasPending() {
+        return !pending.isEmpty();
+    }
+
+    /**
+     * Takes over the caller's reference to {@code chunk}. Returns the access unit once its last
+     * chunk is in ({@code more} false), null while more chunks are due.
+     *
+     * @param receivedNs {@link System#nanoTime()} the chunk came off the network
+     */
+    public ScatterBuffer add(PooledBuffer chunk, boolean more, long ts, long receivedNs) {
+        if (!pending.isEmpty() && ts != pendingTs)
+            discard();
+
+        if (pending.isEmpty()) {
+            pendingTs = ts;
+            firstChunkNs = receivedNs;
+        }
+        pending.add(chunk);
+        pendingBytes += chunk.buffer().remaining();
+
+        if (pendingBytes > MAX_FRAME_BYTES) {
+            discard();
+            return null;
+        }
+        if (more)
+            return null;
+
+        if (pending.size() > 1)
+            metrics.onFrameReassembled(firstChunkNs, receivedNs);
+        ScatterBuffer frame = new ScatterBuffer(pending);
+        pending.clear();
+        pendingBytes = 0;
+        return frame;
+    }
+
+    /**
+     * Drops the chunks held, e.g. when the stream is restarted; not counted as a lost frame.
+     */
+    public void reset() {
+        for (PooledBuffer chunk : pending)
+            chunk.release();
+        pending.clear();
+        pendingBytes = 0;
+    }
+
+    /**
+     * Access units dropped because a chunk was missing.
+     */
+    public long getIncompleteFrameCount() {
+        return incompleteFrames;
+    }
+
+    private void discard() {
+        reset();
+        incompleteFrames++;
+        metrics.onFramesDropped(1);
+    }
+}
@@ -0,0 +1,555 @@
+package space.iegrsy.h264player.player;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds frames from {@link StreamData} into an asynchronous {@link VideoCodec}.
+ * <p>
+ * Input stage: the thread calling {@link #runInputStage()} pairs queued frames with the input
+ * buffers the codec hands out and parks while either is missing; or, after
+ * {@link #attach(Executor, Executor)}, short tasks on a shared executor do the same without
+ * blocking.
+ * Output stage: the thread calling {@link #runOutputStage()} releases decoded buffers to the
+ * surface, each scheduled at the render time the {@link JitterBuffer} gives for its presentation
+ * time. The codec callback only hands it the buffer index, and every wake-up drains all buffers
+ * decoded so far, so a codec putting out several frames per input (after a stall, or reordering
+ * B-frames) gets them all back at once and the callback thread, which also hands out input
+ * buffers, never waits on a release or a format change. Without an output thread, e.g. in
+ * scheduled mode, buffers are released straight from the callback.
+ * <p>
+ * A frame carrying a new {@link StreamData.ParameterSets} version is preceded by a codec config
+ * buffer when the stream format stays the same; otherwise the codec is stopped, reconfigured by
+ * the {@link Listener} and started again on the input thread, or the setup executor in scheduled
+ * mode, and decoding resumes at the next key frame. Either way the codec instance and the threads are kept.
+ * <p>
+ * After a seek ({@link StreamData#flush(long)}) the first frame of the new generation flushes the
+ * codec, dropping whatever it still holds from the old position, and restarts it in place.
+ */
+public class DecodePipeline implements VideoCodec.Callback {
+    // More than any decoder hands out at once; an index is never dropped.
+    private static final int INPUT_SLOTS = 256;
+    private static final int OUTPUT_SLOTS = 256;
+    // Stands in the output ring for a format change, ordered with the buffers around it.
+    private static final int FORMAT_CHANGED = -1;
+    private static final long WAIT_TIME = 300;
+    private static final long STOP_POLL_NS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    private final VideoCodec mCodec;
+    private final StreamData mData;
+    // Offered to by the codec callback only: the ring takes a single producer.
+    private final FrameRing<Integer> mFreeInputs = new FrameRing<>(INPUT_SLOTS, FrameRing.OverflowPolicy.DROP_NEWEST);
+
+    private volatile boolean isRun = false;
+    // Also set while flushing; output buffers of the old session may fail to release meanwhile.
+    private volatile boolean isReconfiguring = false;
+    private volatile Thread mInputThread = null;
+    private volatile Thread mOutputThread = null;
+    private Listener mListener = null;
+    // Written by the thread releasing output buffers only.
+    private volatile long mRenderedFrames = 0;
+
+    // Output stage, see runOutputStage(): indices from the codec callback, with the presentation
+    // time and codec session of each written before the index is offered.
+    private final FrameRing<Integer> mOutputs = new FrameRing<>(OUTPUT_SLOTS, FrameRing.OverflowPolicy.DROP_NEWEST);
+    private final long[] mOutputPts = new long[OUTPUT_SLOTS];
+    private final int[] mOutputSessions = new int[OUTPUT_SLOTS];
+    // Bumped by every flush and restart of the codec, which take back the buffers it had put out.
+    private volatile int mSession = 0;
+    private volatile int mOutputWidth = 0;
+    private volatile int mOutputHeight = 0;
+
+    // Scheduled mode, see attach().
+    private volatile Executor mExecutor = null;
+    private volatile Executor mSetupExecutor = null;
+    // Set while an input task or the setup task that took over from it is queued or running.
+    private final AtomicBoolean isScheduled = new AtomicBoolean(false);
+    private StreamData.RAWFrame mPending = null;
+    // Codec restarts an input task left to the setup executor.
+    private boolean isFlushPending = false;
+    private StreamData.ParameterSets mReconfigurePending = null;
+
+    // Input thread, or the running input task in scheduled mode, only.
+    private final SpsParser mSpsParser = new SpsParser();
+    private final SpsInfo mFormat = new SpsInfo();
+    private final SpsInfo mNextFormat = new SpsInfo();
+    private StreamData.ParameterSets mParams;
+    private boolean hasFormat = false;
+    private boolean awaitKeyFrame = false;
+    private int mGeneration = 0;
+    private boolean hasQueued = false;
+    // Set by a flush or restart: the next frame goes to the codec with all its NAL units.
+    private boolean keepAllNals = false;
+    // An index taken from mFreeInputs and left unused, taken again before the ring; -1 if none.
+    private int mSpareInput = -1;
+
+    public DecodePipeline(VideoCodec codec, StreamData data) {
+        this(codec, data, null);
+    }
+
+    /**
+     * @param params parameter sets the codec was configured with, or null to take them from the
+     *               first frame
+     */
+    public DecodePipeline(VideoCodec codec, StreamData data, StreamData.ParameterSets params) {
+        mCodec = codec;
+        mData = data;
+        if (params != null)
+            useParameterSets(params);
+    }
+
+    public void setListener(Listener listener) {
+        mListener = listener;
+    }
+
+    public boolean isRunning() {
+        return isRun;
+    }
+
+    public void start() {
+        isRun = true;
+        mCodec.setCallback(this);
+        mCodec.start();
+    }
+
+    public void stop() {
+        isRun = false;
+        Thread inputThread = mInputThread;
+        if (inputThread != null)
+            LockSupport.unpark(inputThread);
+        Thread outputThread = mOutputThread;
+        if (outputThread != null)
+            LockSupport.unpark(outputThread);
+        if (mExecutor != null) {
+            mData.setFrameListener(null);
+            // Lets a last task release the frame it holds.
+            schedule();
+        }
+    }
+
+    /**
+     * Parameter sets the codec is configured with; read it once the input stage has stopped.
+     */
+    public StreamData.ParameterSets getParameterSets() {
+        return mParams;
+    }
+
+    /**
+     * Frames sent to the surface so far.
+     */
+    public long getRenderedFrameCount() {
+        return mRenderedFrames;
+    }
+
+    /**
+     * Runs the input stage on the calling thread until {@link #stop()} or an interrupt.
+     */
+    public void runInputStage() {
+        mInputThread = Thread.currentThread();
+
+        StreamData.RAWFrame frame = null;
+        try {
+            while (isRun) {
+                if (frame == null && (frame = mData.takeFrame(WAIT_TIME, TimeUnit.MILLISECONDS)) == null)
+                    continue;
+
+                Integer index = takeInput();
+                if (index == null) {
+                    mData.getMetrics().onCodecStall();
+                    LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(WAIT_TIME));
+                    if (Thread.interrupted())
+                        throw new InterruptedException("Wait input buffer interrupted");
+                    continue;
+                }
+
+                if (feed(frame, index))
+                    frame = null;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            if (frame != null)
+                frame.release();
+            mInputThread = null;
+        }
+    }
+
+    /**
+     * Runs the output stage on the calling thread until {@link #stop()} or an interrupt. Start it
+     * after {@link #start()}; buffers decoded before it runs are released from the callback.
+     */
+    public void runOutputStage() {
+        mOutputThread = Thread.currentThread();
+        try {
+            while (isRun) {
+                if (drainOutputs(true) > 0)
+                    continue;
+
+                LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(WAIT_TIME));
+                if (Thread.interrupted())
+                    break;
+            }
+        } finally {
+            mOutputThread = null;
+            // Handed over before the thread went; back to the codec without rendering.
+            drainOutputs(false);
+        }
+    }
+
+    /**
+     * Releases every buffer decoded so far; returns how many there were.
+     */
+    private int drainOutputs(boolean render) {
+        int count = 0;
+        Integer index;
+        while ((index = mOutputs.poll()) != null) {
+            if (index == FORMAT_CHANGED) {
+                if (render && mListener != null)
+                    mListener.onOutputFormatChanged(mOutputWidth, mOutputHeight);
+                continue;
+            }
+            if (mOutputSessions[index] == mSession)
+                releaseOutput(index, mOutputPts[index], render && isRun);
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Scheduled mode: the input stage runs as short tasks on {@code executor}, shared with other
+     * pipelines, instead of on a thread of its own. A task is posted whenever a frame arrives or
+     * an input buffer frees up, and runs until it lacks one or the other; at most one task per
+     * pipeline is queued or running at a time. A flush or reconfiguration, which stops and starts
+     * the codec, is handed to {@code setupExecutor} instead, and the input task is posted again
+     * once the codec is back. Call before {@link #start()}.
+     */
+    public void attach(Executor executor, Executor setupExecutor) {
+        mExecutor = executor;
+        mSetupExecutor = setupExecutor;
+        mData.setFrameListener(new StreamData.FrameListener() {
+            @Override
+            public void onFrameAvailable() {
+                schedule();
+            }
+        });
+    }
+
+    private void schedule() {
+        Executor executor = mExecutor;
+        if (executor != null && isScheduled.compareAndSet(false, true))
+            executor.execute(pumpTask);
+    }
+
+    private final Runnable pumpTask = new Runnable() {
+        @Override
+        public void run() {
+            pump();
+            if (isFlushPending || mReconfigurePending != null) {
+                // Stays scheduled: no input task runs until the codec is back.
+                mSetupExecutor.execute(setupTask);
+                return;
+            }
+            isScheduled.set(false);
+            // Work signalled while pump() was finishing found the flag still set.
+            if (isRun && mData.hasFrame() && (mSpareInput >= 0 || !mFreeInputs.isEmpty()))
+                schedule();
+        }
+    };
+
+    private final Runnable setupTask = new Runnable() {
+        @Override
+        public void run() {
+            final StreamData.ParameterSets params = mReconfigurePending;
+            final boolean flush = isFlushPending;
+            mReconfigurePending = null;
+            isFlushPending = false;
+            try {
+                if (isRun && params != null)
+                    reconfigure(params);
+                else if (isRun && flush)
+                    flush();
+            } finally {
+                isScheduled.set(false);
+            }
+            // For the frame that waited, or to release it after stop().
+            schedule();
+        }
+    };
+
+    /**
+     * Queues frames while both a frame and an input buffer are at hand; never blocks, leaving
+     * codec restarts to the setup task.
+     */
+    private void pump() {
+        while (isRun) {
+            if (mPending == null && (mPending = mData.pollFrame()) == null)
+                return;
+
+            Integer index = takeInput();
+            if (index == null) {
+                mData.getMetrics().onCodecStall();
+                return;
+            }
+
+            if (feed(mPending, index))
+                mPending = null;
+            if (isFlushPending || mReconfigurePending != null)
+                return;
+        }
+
+        if (mPending != null) {
+            mPending.release();
+            mPending = null;
+        }
+    }
+
+    private Integer takeInput() {
+        if (mSpareInput < 0)
+            return mFreeInputs.poll();
+
+        Integer index = mSpareInput;
+        mSpareInput = -1;
+        return index;
+    }
+
+    /**
+     * Keeps an input buffer the frame it was taken for did not use, for the next one.
+     */
+    private void keepInput(int index) {
+        mSpareInput = index;
+    }
+
+    /**
+     * Scheduled mode: waits for a running input task to finish after {@link #stop()}, so the
+     * codec can be stopped without racing it. Returns false on timeout.
+     */
+    public boolean awaitStopped(long timeout, TimeUnit unit) {
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (isScheduled.get()) {
+            if (System.nanoTime() > deadline)
+                return false;
+            LockSupport.parkNanos(this, STOP_POLL_NS);
+        }
+        return true;
+    }
+
+    /**
+     * Queues {@code frame} into input buffer {@code index}, switching parameter sets first if the
+     * frame needs it. Returns false if the frame still has to be queued, into another buffer.
+     */
+    private boolean feed(StreamData.RAWFrame frame, int index) {
+        if (frame.getGeneration() != mGeneration) {
+            mGeneration = frame.getGeneration();
+            if (hasQueued) {
+                if (mExecutor != null && mSetupExecutor != null)
+                    isFlushPending = true;
+                else
+                    flush();
+                return false;
+            }
+        }
+
+        StreamData.ParameterSets params = frame.getParameterSets();
+        if (params != null && params != mParams && !changeParameterSets(params, index))
+            return false;
+
+        if (awaitKeyFrame && !frame.isKeyFrame()) {
+            // Nothing to reference after a reconfiguration until the next IDR.
+            keepInput(index);
+            frame.release();
+            mData.getMetrics().onFramesDropped(1);
+            return true;
+        }
+
+        awaitKeyFrame = false;
+        queueInput(index, frame);
+        return true;
+    }
+
+    /**
+     * Switches to {@code params} before the frame using them is queued. Returns false if
+     * {@code index} is no longer usable: it carried the codec config, or the codec was restarted.
+     */
+    private boolean changeParameterSets(StreamData.ParameterSets params, int index) {
+        if (mParams == null || !mSpsParser.parse(params.getSps(), mNextFormat)) {
+            // Nothing to compare against; the frame carries its parameter sets in-band.
+            useParameterSets(params);
+            return true;
+        }
+
+        if (hasFormat && mFormat.isSameFormat(mNextFormat)) {
+            useParameterSets(params);
+            ByteBuffer buffer = mCodec.getInputBuffer(index);
+            if (buffer == null || buffer.capacity() < params.size())
+                return true;
+
+            buffer.clear();
+            buffer.put(params.getSps());
+            buffer.put(params.getPps());
+            mCodec.queueInputBuffer(index, 0, params.size(), 0, VideoCodec.BUFFER_FLAG_CODEC_CONFIG);
+            return false;
+        }
+
+        if (mExecutor != null && mSetupExecutor != null)
+            mReconfigurePending = params;
+        else
+            reconfigure(params);
+        return false;
+    }
+
+    private void reconfigure(StreamData.ParameterSets params) {
+        isReconfiguring = true;
+        try {
+            mCodec.stop();
+            // Indices handed out before stop() are void.
+            mSession++;
+            mFreeInputs.clear();
+            mSpareInput = -1;
+            mData.getMetrics().onCodecRestarted();
+            if (mListener == null || !mListener.onReconfigure(params)) {
+                onError(new IllegalStateException("Codec reconfiguration failed, version " + params.getVersion()));
+                return;
+            }
+            mCodec.start();
+        } finally {
+            isReconfiguring = false;
+        }
+
+        useParameterSets(params);
+        awaitKeyFrame = true;
+        keepAllNals = true;
+    }
+
+    /**
+     * Drops the frames of the old position the codec still holds; indices handed out before are
+     * void, as after a reconfiguration.
+     */
+    private void flush() {
+        isReconfiguring = true;
+        try {
+            mCodec.flush();
+            mSession++;
+            mFreeInputs.clear();
+            mSpareInput = -1;
+            mCodec.start();
+        } finally {
+            isReconfiguring = false;
+        }
+        hasQueued = false;
+        keepAllNals = true;
+        mData.getMetrics().onCodecFlushed();
+    }
+
+    private void useParameterSets(StreamData.ParameterSets params) {
+        mParams = params;
+        hasFormat = mSpsParser.parse(params.getSps(), mFormat);
+    }
+
+    private void queueInput(int index, StreamData.RAWFrame frame) {
+        if (keepAllNals)
+            frame.keepAll();
+        ByteBuffer buffer = mCodec.getInputBuffer(index);
+        final int size = frame.size();
+        if (buffer == null || buffer.capacity() < size) {
+            // Frame does not fit the codec buffer; drop it and keep the buffer for the next one.
+            keepInput(index);
+            frame.release();
+            mData.getMetrics().onFramesDropped(1);
+            return;
+        }
+
+        // The one and only copy of the payload, straight from the received buffers.
+        buffer.clear();
+        frame.copyTo(buffer);
+        frame.release();
+        mCodec.queueInputBuffer(index, 0, size, frame.pts, 0);
+        hasQueued = true;
+        keepAllNals = false;
+        mData.getMetrics().onFrameFed(frame.queuedNs, frame.pts, System.nanoTime());
+    }
+
+    @Override
+    public void onInputBufferAvailable(int index) {
+        mFreeInputs.offer(index);
+        Thread inputThread = mInputThread;
+        if (inputThread != null)
+            LockSupport.unpark(inputThread);
+        else
+            schedule();
+    }
+
+    @Override
+    public void onOutputBufferAvailable(int index, long presentationTimeUs, int flags) {
+        mData.getMetrics().onFrameDecoded(presentationTimeUs, System.nanoTime());
+        Thread outputThread = mOutputThread;
+        if (outputThread != null && index >= 0 && index < OUTPUT_SLOTS) {
+            mOutputPts[index] = presentationTimeUs;
+            mOutputSessions[index] = mSession;
+            if (mOutputs.offer(index)) {
+                LockSupport.unpark(outputThread);
+                return;
+            }
+        }
+        releaseOutput(index, presentationTimeUs, isRun);
+    }
+
+    private void releaseOutput(int index, long presentationTimeUs, boolean render) {
+        try {
+            if (render) {
+                final long renderNs = mData.getJitterBuffer().renderTimeNs(presentationTimeUs);
+                mCodec.releaseOutputBuffer(index, renderNs);
+                mData.getMetrics().onFrameRendered(presentationTimeUs, renderNs);
+                if (mRenderedFrames++ == 0 && mListener != null)
+                    mListener.onFirstFrameRendered();
+            } else
+                mCodec.releaseOutputBuffer(index, false);
+        } catch (IllegalStateException e) {
+            // Codec is being stopped under us, or the index went with a flush.
+            if (isRun && !isReconfiguring)
+                onError(e);
+        }
+    }
+
+    @Override
+    public void onOutputFormatChanged(int width, int height) {
+        Thread outputThread = mOutputThread;
+        if (outputThread != null) {
+            mOutputWidth = width;
+            mOutputHeight = height;
+            if (mOutputs.offer(FORMAT_CHANGED)) {
+                LockSupport.unpark(outputThread);
+                return;
+            }
+        }
+        if (mListener != null)
+            mListener.onOutputFormatChanged(width, height);
+    }
+
+    @Override
+    public void onError(Exception e) {
+        if (mListener != null)
+            mListener.onError(e);
+        stop();
+    }
+
+    public interface Listener {
+        void onOutputFormatChanged(int width, int height);
+
+        /**
+         * Called on the output thread, or the codec callback thread without one, when the first
+         * frame is sent to the surface.
+         */
+        void onFirstFrameRendered();
+
+        /**
+         * Called on the input thread, or the setup executor, with the codec stopped; configures it for {@code params}.
+         * Returns false if that failed.
+         */
+        boolean onReconfigure(StreamData.ParameterSets params);
+
+        void onError(Exception e);
+    }
+}
@@ -0,0 +1,23 @@
+package space.iegrsy.h264player.player;
+
+/**
+ * Which access units are decoded, for fast play. Dropping non-reference frames or everything but
+ * IDRs never leaves a decoded frame without its references.
+ */
+public enum FrameFilter {
+    ALL,
+    // Skips frames with nal_ref_idc 0.
+    REFERENCE_ONLY,
+    KEY_FRAMES_ONLY;
+
+    public boolean accepts(NalIndex nals) {
+        switch (this) {
+            case REFERENCE_ONLY:
+                return nals.isReference();
+            case KEY_FRAMES_ONLY:
+                return nals.isKeyFrame();
+            default:
+                return true;
+        }
+    }
+}
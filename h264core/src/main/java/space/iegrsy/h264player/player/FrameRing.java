@@ -0,0 +1,155 @@
+package space.iegrsy.h264player.player;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Bounded single-producer / single-consumer ring.
+ * <p>
+ * One thread (the network thread) calls {@link #offer(Object)}, one thread (the decode thread)
+ * calls {@link #poll()}. Neither side ever blocks or takes a monitor; the only shared writes are
+ * the head and tail counters. When the ring is full the configured {@link OverflowPolicy} decides
+ * whether the incoming or the oldest element is dropped.
+ */
+public class FrameRing<E> {
+    public enum OverflowPolicy {DROP_NEWEST, DROP_OLDEST}
+
+    private final int capacity;
+    private final int mask;
+    private final AtomicReferenceArray<E> buffer;
+
+    // Next position to poll. Advanced by the consumer, and by the producer when it drops the oldest.
+    private final AtomicLong head = new AtomicLong();
+    // Next position to offer. Written by the producer only.
+    private final AtomicLong tail = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+
+    private volatile OverflowPolicy overflowPolicy;
+    private volatile DropListener<E> dropListener = null;
+
+    public FrameRing(int capacity) {
+        this(capacity, OverflowPolicy.DROP_OLDEST);
+    }
+
+    public FrameRing(int capacity, OverflowPolicy overflowPolicy) {
+        if (capacity <= 0 || capacity > (1 << 30))
+            throw new IllegalArgumentException("Capacity out of range: " + capacity);
+
+        int length = Integer.highestOneBit(capacity);
+        if (length < capacity)
+            length <<= 1;
+
+        this.capacity = capacity;
+        this.mask = length - 1;
+        this.buffer = new AtomicReferenceArray<>(length);
+        setOverflowPolicy(overflowPolicy);
+    }
+
+    public void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        if (overflowPolicy == null)
+            throw new NullPointerException("Overflow policy null");
+        this.overflowPolicy = overflowPolicy;
+    }
+
+    public OverflowPolicy getOverflowPolicy() {
+        return overflowPolicy;
+    }
+
+    /**
+     * Called on the producer thread for every element the overflow policy drops.
+     */
+    public void setDropListener(DropListener<E> dropListener) {
+        this.dropListener = dropListener;
+    }
+
+    /**
+     * Producer side. Returns false if the element was rejected because the ring is full and the
+     * policy is {@link OverflowPolicy#DROP_NEWEST}.
+     */
+    public boolean offer(E e) {
+        if (e == null)
+            throw new NullPointerException("Element null");
+
+        final long t = tail.get();
+        E evicted = null;
+        long h;
+        while (t - (h = head.get()) >= capacity) {
+            if (overflowPolicy == OverflowPolicy.DROP_NEWEST) {
+                dropped.incrementAndGet();
+                notifyDrop(e);
+                return false;
+            }
+            if (head.compareAndSet(h, h + 1)) {
+                evicted = buffer.getAndSet(index(h), null);
+                dropped.incrementAndGet();
+                break;
+            }
+        }
+
+        buffer.lazySet(index(t), e);
+        // Full volatile store: a consumer that checked the ring and is about to park must either
+        // see this element or be seen by the producer's subsequent wake-up check.
+        tail.set(t + 1);
+
+        if (evicted != null)
+            notifyDrop(evicted);
+        return true;
+    }
+
+    private void notifyDrop(E e) {
+        DropListener<E> listener = dropListener;
+        if (listener != null)
+            listener.onDrop(e);
+    }
+
+    /**
+     * Consumer side. Returns the oldest element or null when the ring is empty.
+     */
+    public E poll() {
+        for (; ; ) {
+            final long h = head.get();
+            if (h >= tail.get())
+                return null;
+
+            final int i = index(h);
+            final E e = buffer.get(i);
+            // Lost the race against the producer dropping this element, retry with the new head.
+            if (head.compareAndSet(h, h + 1)) {
+                buffer.compareAndSet(i, e, null);
+                return e;
+            }
+        }
+    }
+
+    /**
+     * Consumer side. Drops everything currently queued.
+     */
+    public void clear() {
+        while (poll() != null) ;
+    }
+
+    public int size() {
+        long size = tail.get() - head.get();
+        return size < 0 ? 0 : (int) Math.min(size, capacity);
+    }
+
+    public boolean isEmpty() {
+        return head.get() >= tail.get();
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public long getDroppedCount() {
+        return dropped.get();
+    }
+
+    private int index(long position) {
+        return (int) position & mask;
+    }
+
+    public interface DropListener<E> {
+        void onDrop(E e);
+    }
+}
@@ -0,0 +1,173 @@
+package space.iegrsy.h264player.player;
+
+/**
+ * Maps stream timestamps to codec presentation times and schedules rendering against the
+ * monotonic clock.
+ * <p>
+ * Every frame arrival gives one transit sample: arrival time minus media time. The smallest
+ * transit seen is the base; the delay on top of it follows the interarrival jitter estimate of
+ * RFC 3550, so the target delay grows on a jittery network and shrinks back when it calms down.
+ * A frame is rendered at {@code base + pts + targetDelay}, or right away if that is already past.
+ * In fast play stream time runs {@link #setRate(int) rate} times faster than presentation time.
+ * <p>
+ * {@link #onFrameArrived(long)} is called by the network thread, {@link #renderTimeNs(long)} by the
+ * output stage.
+ */
+public class JitterBuffer {
+    public interface Clock {
+        long nanoTime();
+    }
+
+    public static final Clock SYSTEM_CLOCK = new Clock() {
+        @Override
+        public long nanoTime() {
+            return System.nanoTime();
+        }
+    };
+
+    public static final long DEFAULT_MIN_DELAY_MS = 30;
+    public static final long DEFAULT_MAX_DELAY_MS = 1000;
+
+    // A timestamp going backwards or jumping further than this restarts the mapping (seek, reconnect).
+    private static final long DISCONTINUITY_MS = 5000;
+    private static final long DEFAULT_FRAME_US = 33333;
+    private static final int JITTER_GAIN = 16;
+    private static final int JITTER_MULTIPLIER = 3;
+
+    private final Clock clock;
+    private volatile long minDelayNs = DEFAULT_MIN_DELAY_MS * 1000000L;
+    private volatile long maxDelayNs = DEFAULT_MAX_DELAY_MS * 1000000L;
+    private volatile int rate = 1;
+
+    // Network thread only.
+    private boolean anchored = false;
+    private boolean restartPending = false;
+    private int anchoredRate = 1;
+    private long tsOrigin;
+    private long ptsOriginUs;
+    private long lastTs;
+    private long lastPtsUs;
+    private long lastTransitNs;
+    private volatile long jitterNs;
+
+    private volatile long baseNs;
+    private volatile long targetDelayNs = minDelayNs;
+    private volatile long lastArrivalPtsUs = -1;
+    private volatile long lastRenderedPtsUs = -1;
+
+    public JitterBuffer() {
+        this(SYSTEM_CLOCK);
+    }
+
+    public JitterBuffer(Clock clock) {
+        this.clock = clock;
+    }
+
+    public void setDelayRange(long minDelayMs, long maxDelayMs) {
+        if (minDelayMs < 0 || maxDelayMs < minDelayMs)
+            throw new IllegalArgumentException(String.format("Invalid delay range: %s - %s", minDelayMs, maxDelayMs));
+
+        minDelayNs = minDelayMs * 1000000L;
+        maxDelayNs = maxDelayMs * 1000000L;
+    }
+
+    /**
+     * Records the arrival of the frame with stream timestamp {@code ts} (ms) and returns its codec
+     * presentation time in microseconds.
+     */
+    public long onFrameArrived(long ts) {
+        final long now = clock.nanoTime();
+        final int r = rate;
+        final boolean restart = !anchored || restartPending || r != anchoredRate
+                || ts < lastTs || ts - lastTs > DISCONTINUITY_MS * r;
+        if (restart) {
+            // Presentation times keep increasing across restarts.
+            ptsOriginUs = anchored ? lastPtsUs + DEFAULT_FRAME_US : 0;
+            tsOrigin = ts;
+            anchoredRate = r;
+            restartPending = false;
+        }
+
+        final long ptsUs = ptsOriginUs + (ts - tsOrigin) * 1000 / r;
+        final long transitNs = now - ptsUs * 1000;
+        if (restart) {
+            baseNs = transitNs;
+            jitterNs = 0;
+        } else {
+            jitterNs += (Math.abs(transitNs - lastTransitNs) - jitterNs) / JITTER_GAIN;
+            if (transitNs < baseNs)
+                baseNs = transitNs;
+        }
+
+        anchored = true;
+        lastTs = ts;
+        lastPtsUs = ptsUs;
+        lastTransitNs = transitNs;
+        targetDelayNs = Math.max(minDelayNs, Math.min(maxDelayNs, JITTER_MULTIPLIER * jitterNs));
+        lastArrivalPtsUs = ptsUs;
+        return ptsUs;
+    }
+
+    /**
+     * Monotonic ({@link System#nanoTime()} based) time at which the frame with {@code ptsUs}
+     * should be shown; never earlier than now.
+     */
+    public long renderTimeNs(long ptsUs) {
+        final long now = clock.nanoTime();
+        final long renderNs = baseNs + ptsUs * 1000 + targetDelayNs;
+        lastRenderedPtsUs = ptsUs;
+        return renderNs < now ? now : renderNs;
+    }
+
+    /**
+     * Any thread. Fast play: stream time advances {@code rate} times faster than presentation
+     * time, 1 for normal play. The mapping restarts at the next frame.
+     */
+    public void setRate(int rate) {
+        if (rate < 1)
+            throw new IllegalArgumentException("Invalid rate: " + rate);
+        this.rate = rate;
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    /**
+     * Network thread. The next frame starts a new mapping, as after a seek, however close its
+     * timestamp is to the last one; presentation times keep increasing.
+     */
+    public void restart() {
+        restartPending = true;
+    }
+
+    /**
+     * Must not race with {@link #onFrameArrived(long)}.
+     */
+    public void reset() {
+        anchored = false;
+        jitterNs = 0;
+        targetDelayNs = minDelayNs;
+        lastArrivalPtsUs = -1;
+        lastRenderedPtsUs = -1;
+    }
+
+    /**
+     * Media time between the newest arrived frame and the last frame sent to render.
+     */
+    public long getDepthMs() {
+        long arrived = lastArrivalPtsUs;
+        long rendered = lastRenderedPtsUs;
+        if (arrived < 0 || rendered < 0)
+            return 0;
+        return Math.max(0, (arrived - rendered) / 1000);
+    }
+
+    public long getTargetDelayMs() {
+        return targetDelayNs / 1000000L;
+    }
+
+    public long getJitterMs() {
+        return jitterNs / 1000000L;
+    }
+}
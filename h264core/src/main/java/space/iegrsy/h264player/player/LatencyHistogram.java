@@ -0,0 +1,120 @@
+package space.iegrsy.h264player.player;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free latency histogram with power-of-two microsecond buckets: bucket {@code i} counts
+ * values in {@code [2^i, 2^(i+1))} us, bucket 0 also everything below 1 us. Recording is a few
+ * atomic adds and never allocates; percentiles are read from a {@link Snapshot} and are exact to
+ * within their bucket.
+ */
+public class LatencyHistogram {
+    public static final int BUCKETS = 32;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+    private final AtomicLong count = new AtomicLong();
+    private final AtomicLong sumUs = new AtomicLong();
+    private final AtomicLong maxUs = new AtomicLong();
+
+    public void record(long nanos) {
+        if (nanos < 0)
+            return;
+
+        final long us = nanos / 1000;
+        buckets.incrementAndGet(bucketOf(us));
+        count.incrementAndGet();
+        sumUs.addAndGet(us);
+        long max;
+        while (us > (max = maxUs.get()) && !maxUs.compareAndSet(max, us)) {
+            // Retry against the concurrent maximum.
+        }
+    }
+
+    static int bucketOf(long us) {
+        if (us <= 1)
+            return 0;
+        return Math.min(BUCKETS - 1, 63 - Long.numberOfLeadingZeros(us));
+    }
+
+    /**
+     * Copies the current state into {@code into}, which is returned. Concurrent records may be
+     * partially included.
+     */
+    public Snapshot snapshot(Snapshot into) {
+        for (int i = 0; i < BUCKETS; i++)
+            into.buckets[i] = buckets.get(i);
+        into.count = count.get();
+        into.sumUs = sumUs.get();
+        into.maxUs = maxUs.get();
+        return into;
+    }
+
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++)
+            buckets.set(i, 0);
+        count.set(0);
+        sumUs.set(0);
+        maxUs.set(0);
+    }
+
+    public static final class Snapshot {
+        final long[] buckets = new long[BUCKETS];
+        long count;
+        long sumUs;
+        long maxUs;
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getMeanUs() {
+            return count > 0 ? sumUs / count : 0;
+        }
+
+        public long getSumUs() {
+            return sumUs;
+        }
+
+        public long getMaxUs() {
+            return maxUs;
+        }
+
+        /**
+         * Upper bound of the bucket holding the {@code quantile} (0..1) value, capped at the max.
+         */
+        public long getPercentileUs(double quantile) {
+            long total = 0;
+            for (long bucket : buckets)
+                total += bucket;
+            if (total == 0)
+                return 0;
+
+            final long rank = (long) Math.ceil(quantile * total);
+            long seen = 0;
+            for (int i = 0; i < BUCKETS; i++) {
+                seen += buckets[i];
+                if (seen >= rank && seen > 0)
+                    return Math.min(maxUs, (2L << i) - 1);
+            }
+            return maxUs;
+        }
+
+        /**
+         * Adds the samples of {@code other}, to summarize several streams in one snapshot.
+         */
+        public void merge(Snapshot other) {
+            for (int i = 0; i < BUCKETS; i++)
+                buckets[i] += other.buckets[i];
+            count += other.count;
+            sumUs += other.sumUs;
+            maxUs = Math.max(maxUs, other.maxUs);
+        }
+
+        @Override
+        public String toString() {
+            return String.format("p50 %s / p99 %s / max %s ms",
+                    getPercentileUs(0.5) / 1000.0, getPercentileUs(0.99) / 1000.0, maxUs / 1000.0);
+        }
+    }
+}
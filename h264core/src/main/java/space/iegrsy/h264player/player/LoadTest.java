@@ -0,0 +1,194 @@
+package space.iegrsy.h264player.player;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Headless load test of the decode path on a plain JVM. Every stream runs the same
+ * {@link StreamData} and {@link DecodePipeline} as the player, on a {@link SimulatedVideoCodec};
+ * input stages share a small pool like the grid player, and one feeder thread plays the network
+ * thread, copying {@link SyntheticStream} frames into pooled buffers at the stream frame rate.
+ * Prints totals once per second and latency percentiles at the end.
+ * <p>
+ * Options, with defaults: --streams 16 --seconds 30 --fps 30 --frame-bytes 24576 --gop 30
+ * --decode-us 4000 --inputs 8 --outputs 4 --stall-every 0 --stall-ms 0 --threads 2
+ */
+public final class LoadTest {
+    private final int streams;
+    private final int seconds;
+    private final double fps;
+    private final int frameBytes;
+    private final int gop;
+    private final int threads;
+    private final SimulatedVideoCodec.Factory factory;
+
+    private final BufferPool pool = new BufferPool();
+    private final List<Stream> mStreams = new ArrayList<>();
+
+    private LoadTest(Options options) {
+        streams = options.getInt("streams", 16);
+        seconds = options.getInt("seconds", 30);
+        fps = options.getInt("fps", 30);
+        frameBytes = options.getInt("frame-bytes", 24 * 1024);
+        gop = options.getInt("gop", 30);
+        threads = options.getInt("threads", 2);
+        factory = new SimulatedVideoCodec.Factory(options.getInt("inputs", 8), frameBytes * 8,
+                options.getInt("outputs", 4), options.getInt("decode-us", 4000));
+        factory.setStall(options.getInt("stall-every", 0), options.getInt("stall-ms", 0));
+    }
+
+    public static void main(String[] args) throws Exception {
+        new LoadTest(new Options(args)).run();
+    }
+
+    private void run() throws Exception {
+        ExecutorService inputPool = Executors.newFixedThreadPool(threads);
+        ExecutorService setupPool = Executors.newSingleThreadExecutor();
+        ScheduledExecutorService feeder = Executors.newSingleThreadScheduledExecutor();
+        System.out.println(String.format(Locale.US, "%s streams, %s fps, %s byte frames, %s input threads",
+                streams, fps, frameBytes, threads));
+
+        final long periodNs = (long) (1e9 / fps);
+        for (int i = 0; i < streams; i++) {
+            final Stream stream = new Stream(i);
+            mStreams.add(stream);
+            // Spread over the frame period, as independent cameras are.
+            feeder.scheduleAtFixedRate(new Runnable() {
+                @Override
+                public void run() {
+                    stream.feed();
+                }
+            }, periodNs * i / streams, periodNs, TimeUnit.NANOSECONDS);
+        }
+
+        for (Stream stream : mStreams)
+            stream.start(inputPool, setupPool);
+
+        PipelineMetrics.Snapshot previous = new PipelineMetrics.Snapshot();
+        for (int s = 1; s <= seconds; s++) {
+            Thread.sleep(1000);
+            PipelineMetrics.Snapshot total = sum();
+            System.out.println(String.format(Locale.US,
+                    "%3ss rendered %.1f fps, %.1f MB/s, dropped %s, skipped %s, codec stalls %s, max queue %s",
+                    s, total.getRenderedFps(previous), total.getBytesPerSecond(previous) / 1e6,
+                    total.getFramesDropped(), total.getFramesSkipped(), total.getCodecStalls(), maxQueueDepth()));
+            previous.set(total);
+        }
+
+        feeder.shutdownNow();
+        for (Stream stream : mStreams)
+            stream.stop();
+        inputPool.shutdown();
+        setupPool.shutdown();
+        inputPool.awaitTermination(1, TimeUnit.SECONDS);
+
+        PipelineMetrics.Snapshot total = sum();
+        System.out.println(String.format("frames: received %s, rendered %s, dropped %s, skipped %s",
+                total.getFramesReceived(), total.getFramesRendered(), total.getFramesDropped(), total.getFramesSkipped()));
+        System.out.println("receive->queue " + total.getReceiveToQueue());
+        System.out.println("queue->input   " + total.getQueueToInput());
+        System.out.println("input->output  " + total.getInputToOutput());
+        System.out.println("input->render  " + total.getInputToRender());
+    }
+
+    /**
+     * Totals of all streams, latency histograms merged.
+     */
+    private PipelineMetrics.Snapshot sum() {
+        PipelineMetrics.Snapshot sum = new PipelineMetrics.Snapshot();
+        PipelineMetrics.Snapshot one = new PipelineMetrics.Snapshot();
+        for (Stream stream : mStreams)
+            sum.add(stream.data.getMetrics().snapshot(stream.data, one));
+        return sum;
+    }
+
+    private int maxQueueDepth() {
+        int max = 0;
+        for (Stream stream : mStreams)
+            max = Math.max(max, stream.data.getFrameCount());
+        return max;
+    }
+
+    private final class Stream {
+        final StreamData data = new StreamData();
+        final SyntheticStream source;
+        Executor executor = null;
+        Executor setupExecutor = null;
+        DecodePipeline pipeline = null;
+        SimulatedVideoCodec codec = null;
+        long frames = 0;
+
+        Stream(int id) {
+            source = new SyntheticStream(frameBytes, gop, id);
+        }
+
+        /**
+         * Feeder thread: one frame per period, copied like the network thread does.
+         */
+        void feed() {
+            byte[] frame = source.next();
+            PooledBuffer lease = pool.acquire(frame.length);
+            lease.buffer().put(frame).flip();
+            try {
+                data.useFrameData(lease, (long) (frames++ * 1000 / fps));
+            } catch (Exception e) {
+                e.printStackTrace();
+            }
+
+            // Codec setup as the decoder does it, once the first IDR is queued.
+            synchronized (this) {
+                if (pipeline == null && executor != null && data.isReady())
+                    startPipeline();
+            }
+        }
+
+        synchronized void start(Executor executor, Executor setupExecutor) {
+            this.executor = executor;
+            this.setupExecutor = setupExecutor;
+        }
+
+        private void startPipeline() {
+            VideoFormat format = VideoFormat.of(VideoFormat.MIME_AVC, data.getParameterSets(), 1920, 1080, fps);
+            codec = factory.createDecoder(format);
+            pipeline = new DecodePipeline(codec, data, format.getParameterSets());
+            pipeline.attach(executor, setupExecutor);
+            pipeline.start();
+        }
+
+        synchronized void stop() {
+            if (pipeline == null)
+                return;
+
+            pipeline.stop();
+            pipeline.awaitStopped(1, TimeUnit.SECONDS);
+            codec.stop();
+            codec.release();
+            data.clearAll();
+        }
+    }
+
+    /**
+     * {@code --name value} pairs.
+     */
+    private static final class Options {
+        private final String[] args;
+
+        Options(String[] args) {
+            this.args = args;
+        }
+
+        int getInt(String name, int defaultValue) {
+            for (int i = 0; i + 1 < args.length; i++) {
+                if (args[i].equals("--" + name))
+                    return Integer.parseInt(args[i + 1]);
+            }
+            return defaultValue;
+        }
+    }
+}
@@ -0,0 +1,166 @@
+package space.iegrsy.h264player.player;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * NAL units of one access unit, found by a single scan of the payload.
+ * <p>
+ * Records are packed into one int array: start code offset, length including the start code,
+ * and the NAL header byte together with the start code length. Later stages read types and
+ * ranges from here instead of rescanning the bytes.
+ */
+public final class NalIndex {
+    public static final int TYPE_SLICE = 1;
+    public static final int TYPE_IDR = 5;
+    public static final int TYPE_SEI = 6;
+    public static final int TYPE_SPS = 7;
+    public static final int TYPE_PPS = 8;
+    public static final int TYPE_AUD = 9;
+
+    private static final int STRIDE = 3;
+    private static final int INITIAL_RECORDS = 8;
+
+    private int[] records = new int[INITIAL_RECORDS * STRIDE];
+    private int count = 0;
+
+    public static NalIndex of(byte[] data) {
+        NalIndex index = new NalIndex();
+        index.scan(ByteBuffer.wrap(data), 0, data.length);
+        return index;
+    }
+
+    public static NalIndex of(ByteBuffer buffer, int from, int to) {
+        NalIndex index = new NalIndex();
+        index.scan(buffer, from, to);
+        return index;
+    }
+
+    /**
+     * Replaces the content with the NAL units in {@code [from, to)}. Bytes before the first
+     * start code are ignored.
+     */
+    public void scan(ByteBuffer buffer, int from, int to) {
+        count = 0;
+
+        int start = NalScanner.findStartCode(buffer, from, to);
+        while (start >= 0) {
+            int startCodeLength = NalScanner.startCodeLength(buffer, start, to);
+            int header = start + startCodeLength;
+            int next = header < to ? NalScanner.findStartCode(buffer, header, to) : -1;
+            int end = next < 0 ? to : next;
+
+            if (header < to)
+                add(start, end - start, (buffer.get(header) & 0xff) | (startCodeLength << 8));
+            start = next;
+        }
+    }
+
+    public static NalIndex of(ScatterBuffer data) {
+        NalIndex index = new NalIndex();
+        index.scan(data);
+        return index;
+    }
+
+    /**
+     * As {@link #scan(ByteBuffer, int, int)} over all of {@code data}, with offsets over the whole.
+     */
+    public void scan(ScatterBuffer data) {
+        count = 0;
+
+        final int to = data.size();
+        int start = to > 0 ? data.findStartCode(0, to) : -1;
+        while (start >= 0) {
+            int startCodeLength = data.startCodeLength(start, to);
+            int header = start + startCodeLength;
+            int next = header < to ? data.findStartCode(header, to) : -1;
+            int end = next < 0 ? to : next;
+
+            if (header < to)
+                add(start, end - start, (data.get(header) & 0xff) | (startCodeLength << 8));
+            start = next;
+        }
+    }
+
+    private void add(int offset, int length, int header) {
+        int at = count * STRIDE;
+        if (at + STRIDE > records.length)
+            records = Arrays.copyOf(records, records.length * 2);
+
+        records[at] = offset;
+        records[at + 1] = length;
+        records[at + 2] = header;
+        count++;
+    }
+
+    public int count() {
+        return count;
+    }
+
+    /**
+     * Offset of the start code of the i-th NAL unit.
+     */
+    public int offset(int i) {
+        return records[check(i) * STRIDE];
+    }
+
+    /**
+     * Length of the i-th NAL unit including its start code.
+     */
+    public int length(int i) {
+        return records[check(i) * STRIDE + 1];
+    }
+
+    /**
+     * Offset of the NAL header byte of the i-th NAL unit.
+     */
+    public int headerOffset(int i) {
+        return offset(i) + (records[i * STRIDE + 2] >>> 8);
+    }
+
+    public int type(int i) {
+        return records[check(i) * STRIDE + 2] & 0x1f;
+    }
+
+    public int refIdc(int i) {
+        return (records[check(i) * STRIDE + 2] >>> 5) & 0x03;
+    }
+
+    /**
+     * Returns the position of the first NAL unit of {@code type} or -1.
+     */
+    public int find(int type) {
+        for (int i = 0; i < count; i++)
+            if ((records[i * STRIDE + 2] & 0x1f) == type)
+                return i;
+        return -1;
+    }
+
+    public boolean contains(int type) {
+        return find(type) >= 0;
+    }
+
+    public boolean isKeyFrame() {
+        return contains(TYPE_IDR);
+    }
+
+    /**
+     * True when any slice is used for reference (nal_ref_idc != 0); non reference frames can be
+     * dropped without breaking later frames.
+     */
+    public boolean isReference() {
+        for (int i = 0; i < count; i++) {
+            int header = records[i * STRIDE + 2];
+            int type = header & 0x1f;
+            if ((type == TYPE_SLICE || type == TYPE_IDR) && (header & 0x60) != 0)
+                return true;
+        }
+        return false;
+    }
+
+    private int check(int i) {
+        if (i < 0 || i >= count)
+            throw new IndexOutOfBoundsException("NAL index: " + i + ", count: " + count);
+        return i;
+    }
+}
@@ -0,0 +1,101 @@
+package space.iegrsy.h264player.player;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Annex-B start code scanner.
+ * <p>
+ * Reads eight bytes at a time and skips every word without a zero byte, since no start code can
+ * begin inside such a word. Only words holding a zero are checked byte by byte. All offsets are
+ * absolute and every read stays inside {@code [from, to)}, so heap, direct and sliced buffers
+ * behave the same.
+ */
+public final class NalScanner {
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGHS = 0x8080808080808080L;
+
+    private NalScanner() {
+    }
+
+    /**
+     * Returns the offset of the first start code fully inside {@code [from, to)} or -1.
+     * For a four byte start code the offset of its leading zero is returned.
+     */
+    public static int findStartCode(ByteBuffer buffer, int from, int to) {
+        final int last = to - 3;
+        int i = from;
+        while (i <= last) {
+            if (i + 8 <= to && !hasZeroByte(buffer.getLong(i))) {
+                i += 8;
+                continue;
+            }
+
+            final int end = Math.min(i + 8, last + 1);
+            for (; i < end; i++) {
+                if (buffer.get(i) == 0 && buffer.get(i + 1) == 0 && buffer.get(i + 2) == 1)
+                    return i > from && buffer.get(i - 1) == 0 ? i - 1 : i;
+            }
+        }
+
+        return -1;
+    }
+
+    public static int findStartCode(byte[] data, int from, int to) {
+        return findStartCode(ByteBuffer.wrap(data), from, to);
+    }
+
+    /**
+     * Length of the start code at {@code offset}: 4, 3, or 0 when there is none.
+     */
+    public static int startCodeLength(ByteBuffer buffer, int offset, int to) {
+        if (offset + 3 > to || buffer.get(offset) != 0 || buffer.get(offset + 1) != 0)
+            return 0;
+        if (buffer.get(offset + 2) == 1)
+            return 3;
+        if (offset + 4 <= to && buffer.get(offset + 2) == 0 && buffer.get(offset + 3) == 1)
+            return 4;
+        return 0;
+    }
+
+    /**
+     * Returns the start code offset of the first NAL unit of {@code nalType} in {@code [from, to)} or -1.
+     */
+    public static int findNalUnit(ByteBuffer buffer, int from, int to, int nalType) {
+        int start;
+        while ((start = findStartCode(buffer, from, to)) >= 0) {
+            int header = start + startCodeLength(buffer, start, to);
+            if (header >= to)
+                return -1;
+            if ((buffer.get(header) & 0x1f) == nalType)
+                return start;
+            from = header;
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the end of the NAL unit whose start code is at {@code start}: the next start code or {@code to}.
+     */
+    public static int findNalUnitEnd(ByteBuffer buffer, int start, int to) {
+        int next = findStartCode(buffer, start + startCodeLength(buffer, start, to), to);
+        return next < 0 ? to : next;
+    }
+
+    /**
+     * Copies the first NAL unit of {@code nalType}, start code included, or returns null.
+     */
+    public static byte[] copyNalUnit(byte[] data, int nalType) {
+        ByteBuffer buffer = ByteBuffer.wrap(data);
+        int start = findNalUnit(buffer, 0, data.length, nalType);
+        if (start < 0)
+            return null;
+
+        return Arrays.copyOfRange(data, start, findNalUnitEnd(buffer, start, data.length));
+    }
+
+    private static boolean hasZeroByte(long word) {
+        return ((word - ONES) & ~word & HIGHS) != 0;
+    }
+}
@@ -0,0 +1,415 @@
+package space.iegrsy.h264player.player;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counters and per-stage latency histograms of one stream's decode pipeline. Every update is an
+ * atomic add on a preallocated field, so the hot paths neither lock nor allocate; readers take a
+ * {@link Snapshot}.
+ * <p>
+ * Stages: receive to enqueue (network thread), enqueue to codec input (input stage), codec input
+ * to decoded output (codec callback) and codec input to render (output stage). The last two pair
+ * their ends by presentation time through a small table, so a frame whose entry was overwritten
+ * is just not measured. Render includes the jitter buffer's delay; decode is the codec alone.
+ * Chunked frames add first to last chunk (network thread).
+ */
+public class PipelineMetrics {
+    private static final int IN_FLIGHT_SLOTS = 64;
+
+    private final AtomicLong framesReceived = new AtomicLong();
+    private final AtomicLong bytesReceived = new AtomicLong();
+    private final AtomicLong framesQueued = new AtomicLong();
+    private final AtomicLong framesFed = new AtomicLong();
+    private final AtomicLong framesRendered = new AtomicLong();
+    private final AtomicLong framesDropped = new AtomicLong();
+    private final AtomicLong framesSkipped = new AtomicLong();
+    private final AtomicLong codecStalls = new AtomicLong();
+    private final AtomicLong parameterSetChanges = new AtomicLong();
+    private final AtomicLong checksumFailures = new AtomicLong();
+    private final AtomicLong codecFlushes = new AtomicLong();
+    // Frames queued to the codec and not yet put out decoded, and the most since the last reset.
+    private final AtomicInteger codecInFlight = new AtomicInteger();
+    private final AtomicInteger codecInFlightPeak = new AtomicInteger();
+
+    private final LatencyHistogram reassembly = new LatencyHistogram();
+    private final LatencyHistogram receiveToQueue = new LatencyHistogram();
+    private final LatencyHistogram queueToInput = new LatencyHistogram();
+    private final LatencyHistogram inputToOutput = new LatencyHistogram();
+    private final LatencyHistogram inputToRender = new LatencyHistogram();
+
+    // Presentation time and input time of recently queued frames, keyed by pts.
+    private final AtomicLongArray inFlightPts = new AtomicLongArray(IN_FLIGHT_SLOTS);
+    private final AtomicLongArray inFlightNs = new AtomicLongArray(IN_FLIGHT_SLOTS);
+
+    public PipelineMetrics() {
+        for (int i = 0; i < IN_FLIGHT_SLOTS; i++)
+            inFlightPts.set(i, -1);
+    }
+
+    void onFrameReceived(int bytes) {
+        framesReceived.incrementAndGet();
+        bytesReceived.addAndGet(bytes);
+    }
+
+    void onFrameReassembled(long firstChunkNs, long lastChunkNs) {
+        reassembly.record(lastChunkNs - firstChunkNs);
+    }
+
+    void onChecksumFailed() {
+        checksumFailures.incrementAndGet();
+    }
+
+    void onFrameQueued(long receivedNs, long queuedNs) {
+        framesQueued.incrementAndGet();
+        receiveToQueue.record(queuedNs - receivedNs);
+    }
+
+    void onFrameFed(long queuedNs, long ptsUs, long nowNs) {
+        framesFed.incrementAndGet();
+        queueToInput.record(nowNs - queuedNs);
+        final int inFlight = codecInFlight.incrementAndGet();
+        int peak;
+        while (inFlight > (peak = codecInFlightPeak.get()) && !codecInFlightPeak.compareAndSet(peak, inFlight)) ;
+
+        final int slot = slotOf(ptsUs);
+        // Time first: a reader matching the pts sees the time that belongs to it.
+        inFlightNs.set(slot, nowNs);
+        inFlightPts.set(slot, ptsUs);
+    }
+
+    /**
+     * The codec put out a decoded buffer, to be rendered or not.
+     */
+    void onFrameDecoded(long ptsUs, long nowNs) {
+        // A decoder may drop a broken frame without output; never count below nothing in flight.
+        if (codecInFlight.decrementAndGet() < 0)
+            codecInFlight.set(0);
+
+        // The entry stays for onFrameRendered().
+        final int slot = slotOf(ptsUs);
+        final long inputNs = inFlightNs.get(slot);
+        if (inFlightPts.get(slot) == ptsUs)
+            inputToOutput.record(nowNs - inputNs);
+    }
+
+    void onFrameRendered(long ptsUs, long renderNs) {
+        framesRendered.incrementAndGet();
+
+        final int slot = slotOf(ptsUs);
+        if (inFlightPts.get(slot) != ptsUs)
+            return;
+        final long inputNs = inFlightNs.get(slot);
+        if (inFlightPts.compareAndSet(slot, ptsUs, -1))
+            inputToRender.record(renderNs - inputNs);
+    }
+
+    void onFramesDropped(int count) {
+        framesDropped.addAndGet(count);
+    }
+
+    void onFramesSkipped(int count) {
+        framesSkipped.addAndGet(count);
+    }
+
+    void onCodecStall() {
+        codecStalls.incrementAndGet();
+    }
+
+    void onCodecFlushed() {
+        codecFlushes.incrementAndGet();
+        codecInFlight.set(0);
+    }
+
+    /**
+     * The codec was stopped and started again, dropping what it held.
+     */
+    void onCodecRestarted() {
+        codecInFlight.set(0);
+    }
+
+    void onParameterSetsChanged() {
+        parameterSetChanges.incrementAndGet();
+    }
+
+    private static int slotOf(long ptsUs) {
+        long h = ptsUs * 0x9E3779B97F4A7C15L;
+        return (int) (h >>> 58) & (IN_FLIGHT_SLOTS - 1);
+    }
+
+    /**
+     * Fills {@code into} with the current values and returns it; reuse one snapshot to read
+     * without allocating. Queue depth is sampled from {@code data}.
+     */
+    public Snapshot snapshot(StreamData data, Snapshot into) {
+        into.timeNs = System.nanoTime();
+        into.framesReceived = framesReceived.get();
+        into.bytesReceived = bytesReceived.get();
+        into.framesQueued = framesQueued.get();
+        into.framesFed = framesFed.get();
+        into.framesRendered = framesRendered.get();
+        into.framesDropped = framesDropped.get();
+        into.framesSkipped = framesSkipped.get();
+        into.codecStalls = codecStalls.get();
+        into.parameterSetChanges = parameterSetChanges.get();
+        into.checksumFailures = checksumFailures.get();
+        into.codecFlushes = codecFlushes.get();
+        into.codecInFlight = codecInFlight.get();
+        into.codecInFlightPeak = codecInFlightPeak.get();
+        into.queueDepth = data.getFrameCount();
+        into.jitterDepthMs = data.getJitterBuffer().getDepthMs();
+        into.jitterDelayMs = data.getJitterBuffer().getTargetDelayMs();
+        into.newestFrameTs = data.getNewestFrameTs();
+        reassembly.snapshot(into.reassembly);
+        receiveToQueue.snapshot(into.receiveToQueue);
+        queueToInput.snapshot(into.queueToInput);
+        inputToOutput.snapshot(into.inputToOutput);
+        inputToRender.snapshot(into.inputToRender);
+        return into;
+    }
+
+    public void reset() {
+        framesReceived.set(0);
+        bytesReceived.set(0);
+        framesQueued.set(0);
+        framesFed.set(0);
+        framesRendered.set(0);
+        framesDropped.set(0);
+        framesSkipped.set(0);
+        codecStalls.set(0);
+        parameterSetChanges.set(0);
+        checksumFailures.set(0);
+        codecFlushes.set(0);
+        codecInFlightPeak.set(codecInFlight.get());
+        reassembly.reset();
+        receiveToQueue.reset();
+        queueToInput.reset();
+        inputToOutput.reset();
+        inputToRender.reset();
+    }
+
+    public static final class Snapshot {
+        long timeNs;
+        long framesReceived;
+        long bytesReceived;
+        long framesQueued;
+        long framesFed;
+        long framesRendered;
+        long framesDropped;
+        long framesSkipped;
+        long codecStalls;
+        long parameterSetChanges;
+        long checksumFailures;
+        long codecFlushes;
+        int codecInFlight;
+        int codecInFlightPeak;
+        int queueDepth;
+        long jitterDepthMs;
+        long jitterDelayMs;
+        long newestFrameTs;
+        final LatencyHistogram.Snapshot reassembly = new LatencyHistogram.Snapshot();
+        final LatencyHistogram.Snapshot receiveToQueue = new LatencyHistogram.Snapshot();
+        final LatencyHistogram.Snapshot queueToInput = new LatencyHistogram.Snapshot();
+        final LatencyHistogram.Snapshot inputToOutput = new LatencyHistogram.Snapshot();
+        final LatencyHistogram.Snapshot inputToRender = new LatencyHistogram.Snapshot();
+
+        public long getFramesReceived() {
+            return framesReceived;
+        }
+
+        public long getBytesReceived() {
+            return bytesReceived;
+        }
+
+        public long getFramesQueued() {
+            return framesQueued;
+        }
+
+        public long getFramesFed() {
+            return framesFed;
+        }
+
+        public long getFramesRendered() {
+            return framesRendered;
+        }
+
+        /**
+         * Frames lost to queue overflow, oversize, a missing reference, a missing chunk or a missing
+         * first slice, excluding live skips.
+         */
+        public long getFramesDropped() {
+            return framesDropped;
+        }
+
+        /**
+         * Frames left out on purpose: live skips, fast play filtering and frames from before a
+         * seek.
+         */
+        public long getFramesSkipped() {
+            return framesSkipped;
+        }
+
+        /**
+         * Times the input stage had a frame but the codec had no free input buffer.
+         */
+        public long getCodecStalls() {
+            return codecStalls;
+        }
+
+        public long getParameterSetChanges() {
+            return parameterSetChanges;
+        }
+
+        /**
+         * Payloads whose MD5 did not match the one sent with them; counted after the fact, the
+         * frames were decoded anyway.
+         */
+        public long getChecksumFailures() {
+            return checksumFailures;
+        }
+
+        /**
+         * Codec flushes for seeks.
+         */
+        public long getCodecFlushes() {
+            return codecFlushes;
+        }
+
+        /**
+         * Frames the codec holds: queued as input and not yet put out decoded.
+         */
+        public int getCodecInFlight() {
+            return codecInFlight;
+        }
+
+        /**
+         * Most frames the codec held at once since the metrics were reset; a decoder that keeps
+         * several in flight is not held to one in, one out.
+         */
+        public int getCodecInFlightPeak() {
+            return codecInFlightPeak;
+        }
+
+        public int getQueueDepth() {
+            return queueDepth;
+        }
+
+        public long getJitterDepthMs() {
+            return jitterDepthMs;
+        }
+
+        /**
+         * Render delay the jitter buffer currently adds for network jitter.
+         */
+        public long getJitterDelayMs() {
+            return jitterDelayMs;
+        }
+
+        /**
+         * Stream timestamp of the newest received frame; its progress against the wall clock
+         * tells whether the network keeps up with real time.
+         */
+        public long getNewestFrameTs() {
+            return newestFrameTs;
+        }
+
+        /**
+         * First to last chunk of frames that arrived in chunks.
+         */
+        public LatencyHistogram.Snapshot getReassembly() {
+            return reassembly;
+        }
+
+        public LatencyHistogram.Snapshot getReceiveToQueue() {
+            return receiveToQueue;
+        }
+
+        public LatencyHistogram.Snapshot getQueueToInput() {
+            return queueToInput;
+        }
+
+        /**
+         * Codec input to decoded output: the time the codec takes per frame.
+         */
+        public LatencyHistogram.Snapshot getInputToOutput() {
+            return inputToOutput;
+        }
+
+        /**
+         * Codec input to the render time the frame was scheduled for, jitter delay included.
+         */
+        public LatencyHistogram.Snapshot getInputToRender() {
+            return inputToRender;
+        }
+
+        public double getBytesPerSecond(Snapshot previous) {
+            return rate(bytesReceived - previous.bytesReceived, previous);
+        }
+
+        public double getRenderedFps(Snapshot previous) {
+            return rate(framesRendered - previous.framesRendered, previous);
+        }
+
+        private double rate(long delta, Snapshot previous) {
+            long elapsedNs = timeNs - previous.timeNs;
+            return elapsedNs > 0 && previous.timeNs != 0 ? delta * 1e9 / elapsedNs : 0;
+        }
+
+        /**
+         * Adds another stream's snapshot: counters, queue depth, frames in flight and latencies add
+         * up; the time, jitter gauges, in-flight peak and newest timestamp are the larger of the
+         * two.
+         */
+        public void add(Snapshot other) {
+            timeNs = Math.max(timeNs, other.timeNs);
+            framesReceived += other.framesReceived;
+            bytesReceived += other.bytesReceived;
+            framesQueued += other.framesQueued;
+            framesFed += other.framesFed;
+            framesRendered += other.framesRendered;
+            framesDropped += other.framesDropped;
+            framesSkipped += other.framesSkipped;
+            codecStalls += other.codecStalls;
+            parameterSetChanges += other.parameterSetChanges;
+            checksumFailures += other.checksumFailures;
+            codecFlushes += other.codecFlushes;
+            codecInFlight += other.codecInFlight;
+            codecInFlightPeak = Math.max(codecInFlightPeak, other.codecInFlightPeak);
+            queueDepth += other.queueDepth;
+            jitterDepthMs = Math.max(jitterDepthMs, other.jitterDepthMs);
+            jitterDelayMs = Math.max(jitterDelayMs, other.jitterDelayMs);
+            newestFrameTs = Math.max(newestFrameTs, other.newestFrameTs);
+            reassembly.merge(other.reassembly);
+            receiveToQueue.merge(other.receiveToQueue);
+            queueToInput.merge(other.queueToInput);
+            inputToOutput.merge(other.inputToOutput);
+            inputToRender.merge(other.inputToRender);
+        }
+
+        /**
+         * Copies the counters and gauges of {@code other}, to keep it as the previous snapshot
+         * for the rates.
+         */
+        public void set(Snapshot other) {
+            timeNs = other.timeNs;
+            framesReceived = other.framesReceived;
+            bytesReceived = other.bytesReceived;
+            framesQueued = other.framesQueued;
+            framesFed = other.framesFed;
+            framesRendered = other.framesRendered;
+            framesDropped = other.framesDropped;
+            framesSkipped = other.framesSkipped;
+            codecStalls = other.codecStalls;
+            parameterSetChanges = other.parameterSetChanges;
+            checksumFailures = other.checksumFailures;
+            codecFlushes = other.codecFlushes;
+            codecInFlight = other.codecInFlight;
+            codecInFlightPeak = other.codecInFlightPeak;
+            queueDepth = other.queueDepth;
+            jitterDepthMs = other.jitterDepthMs;
+            jitterDelayMs = other.jitterDelayMs;
+            newestFrameTs = other.newestFrameTs;
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package space.iegrsy.h264player.player;
+
+/**
+ * Fast play policy for one stream. At a given speed it picks the loosest {@link FrameFilter}
+ * whose frames per second, scaled by the speed, fit the decoder's budget: every frame, else
+ * reference frames only, else IDRs only. Frame rate and reference share come from the last GOP
+ * received; until one is known anything faster than normal plays IDRs only.
+ * <p>
+ * A looser filter is only taken with some headroom left, so a GOP of slightly different size
+ * does not flip the filter back and forth; each switch away from IDRs only waits for the next
+ * IDR. Not thread-safe.
+ */
+public class PlaybackController {
+    public static final int MAX_SPEED = 32;
+    // Decode rate assumed when the device reports none: 1080p at 60 fps on most hardware.
+    public static final double DEFAULT_MAX_DECODE_FPS = 60;
+
+    // Share of the decode budget a looser filter may use when switching to it.
+    private static final double LOOSEN_SHARE = 0.8;
+
+    private final double mMaxDecodeFps;
+    private int mSpeed = 1;
+    private FrameFilter mFilter = FrameFilter.ALL;
+
+    /**
+     * @param maxDecodeFps frames per second the decoder keeps up with at the stream's size
+     */
+    public PlaybackController(double maxDecodeFps) {
+        if (maxDecodeFps <= 0)
+            throw new IllegalArgumentException("Invalid decode rate: " + maxDecodeFps);
+        mMaxDecodeFps = maxDecodeFps;
+    }
+
+    public int getSpeed() {
+        return mSpeed;
+    }
+
+    public FrameFilter getFilter() {
+        return mFilter;
+    }
+
+    /**
+     * Plays {@code speed} times faster than real time, 1 for normal play, and returns the filter
+     * to decode with.
+     *
+     * @param gop the last GOP received, or null
+     */
+    public FrameFilter setSpeed(int speed, StreamData.GopInfo gop) {
+        if (speed < 1 || speed > MAX_SPEED)
+            throw new IllegalArgumentException(String.format("Speed %s out of range 1..%s", speed, MAX_SPEED));
+
+        mSpeed = speed;
+        mFilter = selectFilter(gop);
+        return mFilter;
+    }
+
+    /**
+     * Called as GOPs come in, e.g. once a second; returns the filter to decode with from now on.
+     */
+    public FrameFilter onGop(StreamData.GopInfo gop) {
+        mFilter = selectFilter(gop);
+        return mFilter;
+    }
+
+    /**
+     * Frames per second the decoder gets at the current speed under {@code filter}, or -1 if
+     * unknown without a GOP.
+     */
+    public double getDecodeRate(FrameFilter filter, StreamData.GopInfo gop) {
+        if (gop == null || gop.getFrames() == 0)
+            return -1;
+
+        final double rate = gop.getFrameRate() * mSpeed;
+        switch (filter) {
+            case REFERENCE_ONLY:
+                return rate * gop.getReferenceFrames() / gop.getFrames();
+            case KEY_FRAMES_ONLY:
+                return rate / gop.getFrames();
+            default:
+                return rate;
+        }
+    }
+
+    private FrameFilter selectFilter(StreamData.GopInfo gop) {
+        if (mSpeed == 1)
+            return FrameFilter.ALL;
+        if (gop == null)
+            return FrameFilter.KEY_FRAMES_ONLY;
+
+        for (FrameFilter filter : FrameFilter.values()) {
+            // Stricter or the same as now: the whole budget; looser: with headroom.
+            double budget = filter.ordinal() >= mFilter.ordinal() ? mMaxDecodeFps : mMaxDecodeFps * LOOSEN_SHARE;
+            if (getDecodeRate(filter, gop) <= budget)
+                return filter;
+        }
+        // Nothing fits: IDRs only and the decoder falls behind, which the live skip or the
+        // server's own thinning has to make up for.
+        return FrameFilter.KEY_FRAMES_ONLY;
+    }
+}
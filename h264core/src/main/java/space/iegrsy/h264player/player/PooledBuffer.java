@@ -0,0 +1,76 @@
+package space.iegrsy.h264player.player;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Reference counted lease on a {@link BufferPool} buffer. The buffer goes back to its pool when
+ * the last reference is released; lease objects are reused together with their buffers.
+ */
+public final class PooledBuffer {
+    private final BufferPool pool;
+    private final int sizeClass;
+    private final ByteBuffer buffer;
+    private final AtomicInteger refCnt = new AtomicInteger();
+
+    PooledBuffer(BufferPool pool, int sizeClass, ByteBuffer buffer) {
+        this.pool = pool;
+        this.sizeClass = sizeClass;
+        this.buffer = buffer;
+    }
+
+    static PooledBuffer unpooled(ByteBuffer buffer, int size) {
+        return new PooledBuffer(null, -1, buffer).reuse(size);
+    }
+
+    PooledBuffer reuse(int size) {
+        buffer.clear();
+        buffer.limit(size);
+        refCnt.set(1);
+        return this;
+    }
+
+    /**
+     * The leased storage; position and limit belong to the holder of the lease.
+     */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+
+    public int capacity() {
+        return buffer.capacity();
+    }
+
+    int sizeClass() {
+        return sizeClass;
+    }
+
+    public boolean isPooled() {
+        return pool != null;
+    }
+
+    public int refCnt() {
+        return refCnt.get();
+    }
+
+    public PooledBuffer retain() {
+        for (; ; ) {
+            int count = refCnt.get();
+            if (count <= 0)
+                throw new IllegalStateException("Buffer already released");
+            if (refCnt.compareAndSet(count, count + 1))
+                return this;
+        }
+    }
+
+    public void release() {
+        int count = refCnt.decrementAndGet();
+        if (count == 0) {
+            if (pool != null)
+                pool.recycle(this);
+        } else if (count < 0) {
+            refCnt.incrementAndGet();
+            throw new IllegalStateException("Buffer already released");
+        }
+    }
+}
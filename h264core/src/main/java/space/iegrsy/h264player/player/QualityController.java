@@ -0,0 +1,139 @@
+package space.iegrsy.h264player.player;
+
+/**
+ * Adaptive quality for one stream. Fed a {@link PipelineMetrics.Snapshot} about once a second, it
+ * steps down a level when the received stream falls behind real time, the jitter delay climbs,
+ * or the decoder falls behind, and probes one level up after a quiet period that doubles each time
+ * a probe fails soon after it was made.
+ * <p>
+ * Level {@link #LEVEL_BEST} is the best profile, higher levels are cheaper; the caller maps them
+ * to stream profiles. A switch lands on the new stream's first IDR, so samples are ignored for a
+ * while after each one. Not thread-safe.
+ */
+public class QualityController {
+    public static final int LEVEL_BEST = 0;
+    public static final int LEVEL_LOWEST = 4;
+
+    // Media time received per wall time; below this the link can not carry the stream.
+    private static final double MIN_MEDIA_RATE = 0.9;
+    private static final double COLLAPSED_MEDIA_RATE = 0.5;
+    private static final long MAX_JITTER_DELAY_MS = 400;
+    private static final int MAX_QUEUED_FRAMES = 15;
+    private static final long MAX_DECODE_LATENCY_MS = 250;
+    private static final int BAD_SAMPLES_TO_DOWNGRADE = 2;
+    private static final long SETTLE_MS = 3000;
+    private static final long PROBE_HOLD_MS = 10000;
+    private static final long MAX_PROBE_HOLD_MS = 120000;
+
+    private final int mBestLevel;
+    private final int mLowestLevel;
+    private int mLevel;
+    private String mReason = "initial";
+
+    private int mBadSamples = 0;
+    private long mSettleUntilMs = 0;
+    private long mGoodSinceMs = -1;
+    private long mLastProbeMs = -1;
+    private long mProbeHoldMs = PROBE_HOLD_MS;
+
+    public QualityController(int initialLevel) {
+        this(initialLevel, LEVEL_BEST, LEVEL_LOWEST);
+    }
+
+    /**
+     * @param bestLevel   best level the controller may probe up to
+     * @param lowestLevel cheapest level it may fall back to
+     */
+    public QualityController(int initialLevel, int bestLevel, int lowestLevel) {
+        if (bestLevel < LEVEL_BEST || lowestLevel > LEVEL_LOWEST || bestLevel > lowestLevel)
+            throw new IllegalArgumentException(String.format("Level range %s..%s out of range", bestLevel, lowestLevel));
+
+        mBestLevel = bestLevel;
+        mLowestLevel = lowestLevel;
+        mLevel = Math.max(bestLevel, Math.min(lowestLevel, initialLevel));
+    }
+
+    public int getLevel() {
+        return mLevel;
+    }
+
+    /**
+     * Why the last switch was made.
+     */
+    public String getReason() {
+        return mReason;
+    }
+
+    /**
+     * Takes the metrics of the last interval and returns the level to stream at from now on.
+     */
+    public int onSample(PipelineMetrics.Snapshot current, PipelineMetrics.Snapshot previous) {
+        final long nowMs = current.timeNs / 1000000L;
+        final long elapsedMs = (current.timeNs - previous.timeNs) / 1000000L;
+        if (previous.timeNs == 0 || elapsedMs <= 0 || nowMs < mSettleUntilMs)
+            return mLevel;
+
+        String problem = findProblem(current, previous, elapsedMs);
+        if (problem != null) {
+            mGoodSinceMs = -1;
+            if (++mBadSamples < BAD_SAMPLES_TO_DOWNGRADE || mLevel >= mLowestLevel)
+                return mLevel;
+
+            // A probe that failed soon after it was made: wait longer before the next one.
+            if (mLastProbeMs >= 0 && nowMs - mLastProbeMs < mProbeHoldMs + SETTLE_MS)
+                mProbeHoldMs = Math.min(MAX_PROBE_HOLD_MS, mProbeHoldMs * 2);
+            mLastProbeMs = -1;
+
+            int steps = mediaRate(current, previous, elapsedMs) < COLLAPSED_MEDIA_RATE ? 2 : 1;
+            switchTo(Math.min(mLowestLevel, mLevel + steps), nowMs, problem);
+            return mLevel;
+        }
+
+        mBadSamples = 0;
+        if (mGoodSinceMs < 0)
+            mGoodSinceMs = nowMs;
+        if (mLevel > mBestLevel && nowMs - mGoodSinceMs >= mProbeHoldMs) {
+            mLastProbeMs = nowMs;
+            switchTo(mLevel - 1, nowMs, "probe");
+        }
+        return mLevel;
+    }
+
+    private static String findProblem(PipelineMetrics.Snapshot current, PipelineMetrics.Snapshot previous, long elapsedMs) {
+        // Decoder side first: a full queue also stops the network through flow control.
+        if (current.queueDepth > MAX_QUEUED_FRAMES)
+            return "decoder behind, " + current.queueDepth + " frames queued";
+
+        // Codec time alone; render time also holds the jitter delay, checked on its own below.
+        long decoded = current.inputToOutput.getCount() - previous.inputToOutput.getCount();
+        if (decoded > 0) {
+            long decodeMs = (current.inputToOutput.getSumUs() - previous.inputToOutput.getSumUs()) / decoded / 1000;
+            if (decodeMs > MAX_DECODE_LATENCY_MS)
+                return "decode latency " + decodeMs + " ms";
+        }
+
+        if (current.framesSkipped > previous.framesSkipped)
+            return "live skip";
+
+        double rate = mediaRate(current, previous, elapsedMs);
+        if (rate < MIN_MEDIA_RATE)
+            return String.format("received %.0f%% of real time", rate * 100);
+
+        if (current.jitterDelayMs > MAX_JITTER_DELAY_MS)
+            return "jitter delay " + current.jitterDelayMs + " ms";
+
+        return null;
+    }
+
+    private static double mediaRate(PipelineMetrics.Snapshot current, PipelineMetrics.Snapshot previous, long elapsedMs) {
+        return (double) (current.newestFrameTs - previous.newestFrameTs) / elapsedMs;
+    }
+
+    private void switchTo(int level, long nowMs, String reason) {
+        mLevel = level;
+        mReason = reason;
+        mBadSamples = 0;
+        mGoodSinceMs = -1;
+        mSettleUntilMs = nowMs + SETTLE_MS;
+    }
+}
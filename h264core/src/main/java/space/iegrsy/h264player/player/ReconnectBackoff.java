@@ -0,0 +1,58 @@
+package space.iegrsy.h264player.player;
+
+import java.util.Random;
+
+/**
+ * Delays between reconnect attempts of a dropped stream: {@code initialMs} first, doubling up to
+ * {@code maxMs}, each spread by up to a fifth either way so streams that dropped together do not
+ * reconnect together. {@link #reset()} once a connection delivers again.
+ */
+public class ReconnectBackoff {
+    public static final long DEFAULT_INITIAL_MS = 250;
+    public static final long DEFAULT_MAX_MS = 15000;
+
+    private static final int MULTIPLIER = 2;
+    private static final double JITTER = 0.2;
+
+    private final long initialMs;
+    private final long maxMs;
+    private final Random random;
+    private long nextMs;
+    private int attempts = 0;
+
+    public ReconnectBackoff() {
+        this(DEFAULT_INITIAL_MS, DEFAULT_MAX_MS, new Random());
+    }
+
+    public ReconnectBackoff(long initialMs, long maxMs, Random random) {
+        if (initialMs <= 0 || maxMs < initialMs)
+            throw new IllegalArgumentException(String.format("Invalid backoff: %s..%s ms", initialMs, maxMs));
+
+        this.initialMs = initialMs;
+        this.maxMs = maxMs;
+        this.random = random;
+        this.nextMs = initialMs;
+    }
+
+    /**
+     * Delay before the next attempt, and counts it.
+     */
+    public synchronized long nextDelayMs() {
+        final long base = nextMs;
+        nextMs = Math.min(maxMs, nextMs * MULTIPLIER);
+        attempts++;
+        return base + Math.round(base * JITTER * (2 * random.nextDouble() - 1));
+    }
+
+    /**
+     * Attempts since the last reset.
+     */
+    public synchronized int getAttempts() {
+        return attempts;
+    }
+
+    public synchronized void reset() {
+        nextMs = initialMs;
+        attempts = 0;
+    }
+}
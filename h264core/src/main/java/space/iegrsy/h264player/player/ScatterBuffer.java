@@ -0,0 +1,221 @@
+package space.iegrsy.h264player.player;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Stream data kept in the buffers it arrived in, in order, without joining them: the chunks of
+ * one message, or the messages an {@link AccessUnitAssembler} put together. Offsets are over the
+ * whole, as if the parts were one buffer; the decoder gathers the parts straight into the codec
+ * input buffer, so a frame is copied once however it arrived. Holds one reference to every
+ * pooled part until {@link #release()}.
+ */
+public final class ScatterBuffer {
+    private final ByteBuffer[] parts;
+    private final PooledBuffer[] leases;
+    // End offset of every part over the whole.
+    private final int[] ends;
+
+    /**
+     * Takes over one reference to each lease; each part is its buffer between position and limit.
+     */
+    ScatterBuffer(List<PooledBuffer> leases) {
+        this(views(leases), leases.toArray(new PooledBuffer[leases.size()]));
+    }
+
+    private ScatterBuffer(ByteBuffer[] parts, PooledBuffer[] leases) {
+        this.parts = parts;
+        this.leases = leases;
+        this.ends = new int[parts.length];
+        setEnds();
+    }
+
+    private static ByteBuffer[] views(List<PooledBuffer> leases) {
+        ByteBuffer[] views = new ByteBuffer[leases.size()];
+        for (int i = 0; i < views.length; i++)
+            views[i] = leases.get(i).buffer().duplicate().slice();
+        return views;
+    }
+
+    /**
+     * One part: {@code data} between position and limit, held by {@code lease} if not null.
+     * Takes over the caller's reference to the lease.
+     */
+    static ScatterBuffer wrap(ByteBuffer data, PooledBuffer lease) {
+        return new ScatterBuffer(new ByteBuffer[]{data.duplicate().slice()}, new PooledBuffer[]{lease});
+    }
+
+    /**
+     * Joins {@code buffers} in order, taking over their references.
+     */
+    static ScatterBuffer join(List<ScatterBuffer> buffers) {
+        if (buffers.size() == 1)
+            return buffers.get(0);
+
+        int n = 0;
+        for (ScatterBuffer buffer : buffers)
+            n += buffer.parts.length;
+
+        ByteBuffer[] parts = new ByteBuffer[n];
+        PooledBuffer[] leases = new PooledBuffer[n];
+        int i = 0;
+        for (ScatterBuffer buffer : buffers) {
+            System.arraycopy(buffer.parts, 0, parts, i, buffer.parts.length);
+            System.arraycopy(buffer.leases, 0, leases, i, buffer.leases.length);
+            i += buffer.parts.length;
+        }
+        return new ScatterBuffer(parts, leases);
+    }
+
+    private void setEnds() {
+        int end = 0;
+        for (int i = 0; i < parts.length; i++) {
+            end += parts[i].remaining();
+            ends[i] = end;
+        }
+    }
+
+    /**
+     * {@code [from, to)} as a buffer of its own, viewing the same parts, with a reference of its
+     * own to each pooled one it covers.
+     */
+    ScatterBuffer range(int from, int to) {
+        if (from < 0 || to > size() || from > to)
+            throw new IndexOutOfBoundsException(String.format("Range %s..%s, size %s", from, to, size()));
+        if (from == to)
+            return new ScatterBuffer(new ByteBuffer[0], new PooledBuffer[0]);
+
+        final int first = partOf(from);
+        final int last = partOf(to - 1);
+        ByteBuffer[] views = new ByteBuffer[last - first + 1];
+        PooledBuffer[] held = new PooledBuffer[views.length];
+        for (int p = first; p <= last; p++) {
+            ByteBuffer view = parts[p].duplicate();
+            view.limit(Math.min(ends[p], to) - start(p));
+            view.position(Math.max(from, start(p)) - start(p));
+            views[p - first] = view.slice();
+            held[p - first] = leases[p] != null ? leases[p].retain() : null;
+        }
+        return new ScatterBuffer(views, held);
+    }
+
+    public int size() {
+        return ends.length == 0 ? 0 : ends[ends.length - 1];
+    }
+
+    public int partCount() {
+        return parts.length;
+    }
+
+    public byte get(int index) {
+        final int p = partOf(index);
+        return parts[p].get(index - start(p));
+    }
+
+    /**
+     * Returns the offset of the first start code fully inside {@code [from, to)} or -1, like
+     * {@link NalScanner#findStartCode(ByteBuffer, int, int)}, including codes split between parts.
+     */
+    public int findStartCode(int from, int to) {
+        for (int p = partOf(from); p < parts.length; p++) {
+            final int start = start(p);
+            if (start >= to)
+                break;
+
+            final int end = Math.min(ends[p], to);
+            int i = NalScanner.findStartCode(parts[p], Math.max(from, start) - start, end - start);
+            if (i >= 0) {
+                i += start;
+                // Leading zero of a four byte start code at the end of the previous part.
+                return i == start && i > from && get(i - 1) == 0 ? i - 1 : i;
+            }
+
+            // The part alone can not show a code starting in its last two bytes.
+            for (int k = Math.max(from, end - 2); k < end && k + 2 < to; k++) {
+                if (get(k) == 0 && get(k + 1) == 0 && get(k + 2) == 1)
+                    return k > from && get(k - 1) == 0 ? k - 1 : k;
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Length of the start code at {@code offset}: 4, 3, or 0 when there is none.
+     */
+    public int startCodeLength(int offset, int to) {
+        if (offset + 3 > to || get(offset) != 0 || get(offset + 1) != 0)
+            return 0;
+        if (get(offset + 2) == 1)
+            return 3;
+        if (offset + 4 <= to && get(offset + 2) == 0 && get(offset + 3) == 1)
+            return 4;
+        return 0;
+    }
+
+    /**
+     * {@code [offset, offset + length)} as a buffer between position and limit: a view of the part
+     * when the range lies in one, a copy when it spans parts.
+     */
+    public ByteBuffer slice(int offset, int length) {
+        final int p = partOf(offset);
+        final int start = start(p);
+        if (offset + length <= ends[p]) {
+            ByteBuffer view = parts[p].duplicate();
+            view.position(offset - start);
+            view.limit(offset - start + length);
+            return view;
+        }
+
+        byte[] copy = new byte[length];
+        for (int k = 0; k < length; k++)
+            copy[k] = get(offset + k);
+        return ByteBuffer.wrap(copy);
+    }
+
+    /**
+     * Gathers all parts into {@code dst} at its position. Decode thread only, once queued.
+     */
+    public void copyTo(ByteBuffer dst) {
+        for (ByteBuffer part : parts) {
+            dst.put(part);
+            part.rewind();
+        }
+    }
+
+    /**
+     * Copies {@code [offset, offset + length)} to {@code dst} at its position.
+     */
+    public void copyTo(int offset, int length, ByteBuffer dst) {
+        final int to = offset + length;
+        for (int p = length > 0 ? partOf(offset) : parts.length; p < parts.length && start(p) < to; p++) {
+            ByteBuffer view = parts[p].duplicate();
+            view.limit(Math.min(ends[p], to) - start(p));
+            view.position(Math.max(offset, start(p)) - start(p));
+            dst.put(view);
+        }
+    }
+
+    public void release() {
+        for (int i = 0; i < leases.length; i++) {
+            if (leases[i] != null) {
+                leases[i].release();
+                leases[i] = null;
+            }
+        }
+    }
+
+    private int start(int p) {
+        return p == 0 ? 0 : ends[p - 1];
+    }
+
+    private int partOf(int index) {
+        if (index < 0 || index >= size())
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+
+        int p = 0;
+        while (ends[p] <= index)
+            p++;
+        return p;
+    }
+}
@@ -0,0 +1,85 @@
+package space.iegrsy.h264player.player;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Spots SEI NAL units repeated byte for byte from the access unit before, e.g. the same
+ * buffering period or user data sent with every frame, so they can be left out of the copy to the
+ * codec. A changed SEI, or a new one, is kept. Network thread only.
+ */
+class SeiFilter {
+    // NAL units of an access unit a mask has room for; later ones are always kept.
+    static final int MAX_NALS = 64;
+    private static final int INITIAL_BYTES = 256;
+    private static final int INITIAL_UNITS = 4;
+
+    // SEI NAL units of the previous access unit back to back, and where each ends.
+    private byte[] previous = new byte[INITIAL_BYTES];
+    private int[] previousEnds = new int[INITIAL_UNITS];
+    private int previousCount = 0;
+    private byte[] current = new byte[INITIAL_BYTES];
+    private int[] currentEnds = new int[INITIAL_UNITS];
+
+    /**
+     * Bit i is set for the i-th NAL unit of {@code nals} if it is an SEI the access unit before
+     * had as well. Remembers this access unit's SEI for the next call.
+     */
+    long repeated(ScatterBuffer data, NalIndex nals) {
+        long mask = 0;
+        int count = 0;
+        int end = 0;
+        final int units = Math.min(nals.count(), MAX_NALS);
+        for (int i = 0; i < units; i++) {
+            if (nals.type(i) != NalIndex.TYPE_SEI)
+                continue;
+
+            final int length = nals.length(i);
+            if (current.length < end + length) {
+                byte[] grown = new byte[Math.max(current.length * 2, end + length)];
+                System.arraycopy(current, 0, grown, 0, end);
+                current = grown;
+            }
+            if (currentEnds.length == count) {
+                int[] grown = new int[count * 2];
+                System.arraycopy(currentEnds, 0, grown, 0, count);
+                currentEnds = grown;
+            }
+            data.copyTo(nals.offset(i), length, ByteBuffer.wrap(current, end, length));
+            if (hadBefore(end, length))
+                mask |= 1L << i;
+            end += length;
+            currentEnds[count++] = end;
+        }
+
+        byte[] bytes = previous;
+        previous = current;
+        current = bytes;
+        int[] ends = previousEnds;
+        previousEnds = currentEnds;
+        currentEnds = ends;
+        previousCount = count;
+        return mask;
+    }
+
+    /**
+     * Forgets the previous access unit; the next one keeps all its SEI.
+     */
+    void reset() {
+        previousCount = 0;
+    }
+
+    private boolean hadBefore(int from, int length) {
+        int start = 0;
+        for (int j = 0; j < previousCount; start = previousEnds[j++]) {
+            if (previousEnds[j] - start != length)
+                continue;
+
+            int k = 0;
+            while (k < length && previous[start + k] == current[from + k])
+                k++;
+            if (k == length)
+                return true;
+        }
+        return false;
+    }
+}
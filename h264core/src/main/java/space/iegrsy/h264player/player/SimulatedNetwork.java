@@ -0,0 +1,58 @@
+package space.iegrsy.h264player.player;
+
+import java.util.Random;
+
+/**
+ * Bottleneck link for tests: messages queue behind each other at the link rate, then arrive after
+ * a fixed latency plus random jitter, in order as over TCP. Time is virtual and in milliseconds,
+ * so minutes of traffic run in milliseconds of test time. Not thread-safe.
+ */
+public class SimulatedNetwork {
+    private final Random random;
+    private long bandwidthBps;
+    private long latencyMs;
+    private int jitterMs;
+
+    private long linkFreeAtUs = 0;
+    private long lastArrivalMs = 0;
+
+    /**
+     * @param bandwidthBps link rate in bits per second
+     */
+    public SimulatedNetwork(long bandwidthBps, long latencyMs, int jitterMs, long seed) {
+        random = new Random(seed);
+        setBandwidth(bandwidthBps);
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+    }
+
+    public void setBandwidth(long bandwidthBps) {
+        if (bandwidthBps <= 0)
+            throw new IllegalArgumentException("Bandwidth must be positive: " + bandwidthBps);
+        this.bandwidthBps = bandwidthBps;
+    }
+
+    public void setLatency(long latencyMs, int jitterMs) {
+        this.latencyMs = latencyMs;
+        this.jitterMs = jitterMs;
+    }
+
+    /**
+     * Sends {@code bytes} at {@code nowMs}; returns when they arrive.
+     */
+    public long send(long nowMs, int bytes) {
+        long startUs = Math.max(nowMs * 1000, linkFreeAtUs);
+        linkFreeAtUs = startUs + bytes * 8L * 1000000L / bandwidthBps;
+
+        long arrivalMs = linkFreeAtUs / 1000 + latencyMs + (jitterMs > 0 ? random.nextInt(jitterMs + 1) : 0);
+        lastArrivalMs = Math.max(lastArrivalMs, arrivalMs);
+        return lastArrivalMs;
+    }
+
+    /**
+     * Milliseconds of data waiting in the link queue at {@code nowMs}.
+     */
+    public long getQueuedMs(long nowMs) {
+        return Math.max(0, linkFreeAtUs / 1000 - nowMs);
+    }
+}
@@ -0,0 +1,355 @@
+package space.iegrsy.h264player.player;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * {@link VideoCodec} that decodes nothing but behaves like a hardware decoder under load: a fixed
+ * number of input and output buffers, a per frame decode cost paid on a decoder thread of its own,
+ * and optional periodic stalls. Callbacks run on another thread, as on a MediaCodec handler thread.
+ * <p>
+ * An input buffer is handed back once the decoder thread takes its frame. An output buffer stays
+ * taken until released, so a consumer that falls behind backs up the decoder and then the input
+ * side, the way a real codec does. State changes follow MediaCodec: configure, start, then stop
+ * or flush; {@link #stop()} needs a new {@link #configure(VideoFormat)}.
+ */
+public class SimulatedVideoCodec implements VideoCodec {
+    private static final String TAG = SimulatedVideoCodec.class.getSimpleName();
+    private static final long OUTPUT_POLL_MS = 10;
+
+    private final ByteBuffer[] mInputs;
+    private final int mOutputCount;
+    private final long mDecodeCostNs;
+    private volatile int mStallEvery = 0;
+    private volatile long mStallNs = 0;
+
+    private final BlockingQueue<Job> mJobs = new LinkedBlockingQueue<>();
+    private final BlockingQueue<Integer> mFreeOutputs = new LinkedBlockingQueue<>();
+    private final boolean[] mOutputTaken;
+    private final Thread mDecodeThread;
+    private final ExecutorService mCallbackThread;
+    private volatile Callback mCallback = null;
+
+    // Guarded by this. The generation is bumped by stop(), flush() and release(); work queued
+    // under an older one is dropped and its callbacks are not delivered.
+    private final AtomicInteger mGeneration = new AtomicInteger();
+    private VideoFormat mFormat = null;
+    private boolean isRunning = false;
+    private boolean isReleased = false;
+    private volatile boolean isFormatPending = false;
+
+    private final AtomicLong mDecoded = new AtomicLong();
+    private final AtomicLong mRendered = new AtomicLong();
+    private final AtomicLong mStalls = new AtomicLong();
+
+    /**
+     * @param decodeCostUs time the decoder thread spends on every frame
+     */
+    public SimulatedVideoCodec(int inputCount, int inputSize, int outputCount, long decodeCostUs) {
+        if (inputCount <= 0 || outputCount <= 0)
+            throw new IllegalArgumentException(String.format("Buffer counts out of range: %s in, %s out", inputCount, outputCount));
+
+        mInputs = new ByteBuffer[inputCount];
+        for (int i = 0; i < inputCount; i++)
+            mInputs[i] = ByteBuffer.allocate(inputSize);
+        mOutputCount = outputCount;
+        mOutputTaken = new boolean[outputCount];
+        mDecodeCostNs = TimeUnit.MICROSECONDS.toNanos(decodeCostUs);
+
+        mCallbackThread = Executors.newSingleThreadExecutor(new NamedThreadFactory(TAG + "-callback"));
+        mDecodeThread = new NamedThreadFactory(TAG + "-decode").newThread(decodeRunnable);
+        mDecodeThread.start();
+    }
+
+    /**
+     * Makes every {@code everyFrames}th frame take an extra {@code stallMs}, as a decoder does
+     * when it waits on memory or another session. Zero disables.
+     */
+    public void setStall(int everyFrames, long stallMs) {
+        mStallEvery = everyFrames;
+        mStallNs = TimeUnit.MILLISECONDS.toNanos(stallMs);
+    }
+
+    @Override
+    public synchronized void configure(VideoFormat format) {
+        if (isReleased || isRunning)
+            throw new IllegalStateException("Configure in state " + (isReleased ? "released" : "running"));
+
+        mFormat = format;
+        isFormatPending = true;
+    }
+
+    @Override
+    public void setCallback(Callback callback) {
+        mCallback = callback;
+    }
+
+    @Override
+    public synchronized void start() {
+        if (mFormat == null || isRunning || isReleased)
+            throw new IllegalStateException("Start without configure");
+
+        isRunning = true;
+        final int generation = mGeneration.incrementAndGet();
+        resetOutputs();
+        for (int i = 0; i < mInputs.length; i++)
+            postInputAvailable(i, generation);
+    }
+
+    /**
+     * Drops queued and decoded frames; {@link #start()} resumes with all buffers handed out again.
+     */
+    @Override
+    public synchronized void flush() {
+        if (!isRunning)
+            throw new IllegalStateException("Flush while not running");
+
+        isRunning = false;
+        mGeneration.incrementAndGet();
+        mJobs.clear();
+    }
+
+    @Override
+    public synchronized void stop() {
+        isRunning = false;
+        mFormat = null;
+        mGeneration.incrementAndGet();
+        mJobs.clear();
+    }
+
+    @Override
+    public synchronized void release() {
+        stop();
+        isReleased = true;
+        mDecodeThread.interrupt();
+        mCallbackThread.shutdownNow();
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        return mInputs[index];
+    }
+
+    @Override
+    public synchronized void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags) {
+        if (!isRunning)
+            throw new IllegalStateException("Queue input while not running");
+        if (size > mInputs[index].capacity())
+            throw new IllegalArgumentException(String.format("Input size %s over capacity %s", size, mInputs[index].capacity()));
+
+        mJobs.offer(new Job(index, presentationTimeUs, flags, mGeneration.get()));
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, boolean render) {
+        synchronized (this) {
+            if (!isRunning || index < 0 || index >= mOutputCount || !mOutputTaken[index])
+                throw new IllegalStateException("Output buffer not dequeued: " + index);
+
+            mOutputTaken[index] = false;
+            mFreeOutputs.offer(index);
+        }
+        if (render)
+            mRendered.incrementAndGet();
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, long renderTimestampNs) {
+        releaseOutputBuffer(index, true);
+    }
+
+    /**
+     * Frames that went through the decoder thread.
+     */
+    public long getDecodedCount() {
+        return mDecoded.get();
+    }
+
+    public long getRenderedCount() {
+        return mRendered.get();
+    }
+
+    public long getStallCount() {
+        return mStalls.get();
+    }
+
+    // Called with the lock held.
+    private void resetOutputs() {
+        mFreeOutputs.clear();
+        for (int i = 0; i < mOutputCount; i++) {
+            mOutputTaken[i] = false;
+            mFreeOutputs.offer(i);
+        }
+    }
+
+    private final Runnable decodeRunnable = new Runnable() {
+        @Override
+        public void run() {
+            try {
+                while (!Thread.currentThread().isInterrupted())
+                    decode(mJobs.take());
+            } catch (InterruptedException e) {
+                // Released.
+            }
+        }
+    };
+
+    private void decode(Job job) throws InterruptedException {
+        if (job.generation != mGeneration.get())
+            return;
+
+        // The frame is consumed; its buffer can be refilled while it decodes.
+        postInputAvailable(job.index, job.generation);
+        if ((job.flags & BUFFER_FLAG_CODEC_CONFIG) != 0)
+            return;
+
+        final long decoded = mDecoded.incrementAndGet();
+        final int stallEvery = mStallEvery;
+        long costNs = mDecodeCostNs;
+        if (stallEvery > 0 && decoded % stallEvery == 0) {
+            mStalls.incrementAndGet();
+            costNs += mStallNs;
+        }
+        if (costNs > 0)
+            LockSupport.parkNanos(this, costNs);
+
+        // Waits for the consumer to give an output buffer back.
+        Integer output = null;
+        while (output == null) {
+            if (job.generation != mGeneration.get())
+                return;
+            output = mFreeOutputs.poll(OUTPUT_POLL_MS, TimeUnit.MILLISECONDS);
+        }
+
+        VideoFormat format;
+        synchronized (this) {
+            if (job.generation != mGeneration.get()) {
+                mFreeOutputs.offer(output);
+                return;
+            }
+            mOutputTaken[output] = true;
+            format = mFormat;
+        }
+
+        if (isFormatPending && format != null) {
+            isFormatPending = false;
+            postOutputFormatChanged(format.getWidth(), format.getHeight(), job.generation);
+        }
+        postOutputAvailable(output, job.presentationTimeUs, job.flags, job.generation);
+    }
+
+    private void postInputAvailable(final int index, final int generation) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                Callback callback = mCallback;
+                if (callback != null && generation == mGeneration.get())
+                    callback.onInputBufferAvailable(index);
+            }
+        });
+    }
+
+    private void postOutputAvailable(final int index, final long presentationTimeUs, final int flags, final int generation) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                Callback callback = mCallback;
+                if (callback != null && generation == mGeneration.get())
+                    callback.onOutputBufferAvailable(index, presentationTimeUs, flags);
+            }
+        });
+    }
+
+    private void postOutputFormatChanged(final int width, final int height, final int generation) {
+        post(new Runnable() {
+            @Override
+            public void run() {
+                Callback callback = mCallback;
+                if (callback != null && generation == mGeneration.get())
+                    callback.onOutputFormatChanged(width, height);
+            }
+        });
+    }
+
+    private void post(Runnable callback) {
+        try {
+            mCallbackThread.execute(callback);
+        } catch (RejectedExecutionException e) {
+            // Released.
+        }
+    }
+
+    private static final class Job {
+        final int index;
+        final long presentationTimeUs;
+        final int flags;
+        final int generation;
+
+        Job(int index, long presentationTimeUs, int flags, int generation) {
+            this.index = index;
+            this.presentationTimeUs = presentationTimeUs;
+            this.flags = flags;
+            this.generation = generation;
+        }
+    }
+
+    private static final class NamedThreadFactory implements ThreadFactory {
+        private final String name;
+
+        NamedThreadFactory(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, name);
+            // A forgotten release must not keep a load test JVM alive.
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+
+    /**
+     * Hands out simulated codecs with the same buffer counts, decode cost and stalls.
+     */
+    public static class Factory implements VideoCodecFactory {
+        private final int inputCount;
+        private final int inputSize;
+        private final int outputCount;
+        private final long decodeCostUs;
+        private volatile int stallEvery = 0;
+        private volatile long stallMs = 0;
+
+        public Factory(int inputCount, int inputSize, int outputCount, long decodeCostUs) {
+            this.inputCount = inputCount;
+            this.inputSize = inputSize;
+            this.outputCount = outputCount;
+            this.decodeCostUs = decodeCostUs;
+        }
+
+        /**
+         * See {@link SimulatedVideoCodec#setStall(int, long)}; applies to codecs created afterwards.
+         */
+        public void setStall(int everyFrames, long stallMs) {
+            this.stallEvery = everyFrames;
+            this.stallMs = stallMs;
+        }
+
+        @Override
+        public SimulatedVideoCodec createDecoder(VideoFormat format) {
+            SimulatedVideoCodec codec = new SimulatedVideoCodec(inputCount, inputSize, outputCount, decodeCostUs);
+            codec.setStall(stallEvery, stallMs);
+            codec.configure(format);
+            return codec;
+        }
+    }
+}
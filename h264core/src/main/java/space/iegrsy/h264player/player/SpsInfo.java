@@ -0,0 +1,74 @@
+package space.iegrsy.h264player.player;
+
+/**
+ * Fields of an H.264 sequence parameter set needed to configure a decoder. Filled in place by
+ * {@link SpsParser}.
+ */
+public final class SpsInfo {
+    public static final int UNKNOWN = -1;
+
+    public int profileIdc;
+    public int constraintFlags;
+    public int levelIdc;
+    public int spsId;
+    public int chromaFormatIdc;
+    public int bitDepthLuma;
+    public int maxNumRefFrames;
+    public boolean frameMbsOnly;
+
+    /**
+     * Decoded size before cropping, a multiple of the macroblock size.
+     */
+    public int codedWidth;
+    public int codedHeight;
+
+    /**
+     * Display size after frame cropping.
+     */
+    public int width;
+    public int height;
+
+    /**
+     * Frame rate from VUI timing info, or 0 when the stream does not carry it.
+     */
+    public double frameRate;
+    public boolean fixedFrameRate;
+
+    /**
+     * From VUI bitstream restrictions, or {@link #UNKNOWN}. Zero reorder frames means output
+     * order equals decode order, so the decoder may release every frame right away.
+     */
+    public int maxNumReorderFrames;
+    public int maxDecFrameBuffering;
+
+    void clear() {
+        profileIdc = 0;
+        constraintFlags = 0;
+        levelIdc = 0;
+        spsId = 0;
+        chromaFormatIdc = 1;
+        bitDepthLuma = 8;
+        maxNumRefFrames = 0;
+        frameMbsOnly = true;
+        codedWidth = 0;
+        codedHeight = 0;
+        width = 0;
+        height = 0;
+        frameRate = 0;
+        fixedFrameRate = false;
+        maxNumReorderFrames = UNKNOWN;
+        maxDecFrameBuffering = UNKNOWN;
+    }
+
+    public boolean isSameFormat(SpsInfo other) {
+        return other != null && profileIdc == other.profileIdc && levelIdc == other.levelIdc
+                && chromaFormatIdc == other.chromaFormatIdc && bitDepthLuma == other.bitDepthLuma
+                && width == other.width && height == other.height;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("SPS profile: %s, level: %s, size: %sx%s, fps: %s, reorder: %s",
+                profileIdc, levelIdc, width, height, frameRate, maxNumReorderFrames);
+    }
+}
@@ -0,0 +1,188 @@
+package space.iegrsy.h264player.player;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Parses the sequence parameter set (ITU-T H.264 7.3.2.1.1 and Annex E VUI) into {@link SpsInfo}.
+ * Reuses one {@link BitReader}, so parsing allocates nothing; not thread safe.
+ */
+public final class SpsParser {
+    private static final int EXTENDED_SAR = 255;
+
+    private final BitReader reader = new BitReader();
+
+    /**
+     * Parses the SPS NAL unit in {@code [from, to)}; a leading start code is skipped. Returns
+     * false if the range is not a complete SPS.
+     */
+    public boolean parse(ByteBuffer buffer, int from, int to, SpsInfo sps) {
+        int startCode = NalScanner.startCodeLength(buffer, from, to);
+        int header = from + startCode;
+        if (header >= to || (buffer.get(header) & 0x1f) != NalIndex.TYPE_SPS)
+            return false;
+
+        sps.clear();
+        BitReader r = reader.reset(buffer, header + 1, to);
+
+        sps.profileIdc = r.readInt(8);
+        sps.constraintFlags = r.readInt(8);
+        sps.levelIdc = r.readInt(8);
+        sps.spsId = r.readUE();
+
+        boolean separateColourPlane = false;
+        if (hasChromaInfo(sps.profileIdc)) {
+            sps.chromaFormatIdc = r.readUE();
+            if (sps.chromaFormatIdc == 3)
+                separateColourPlane = r.readFlag();
+            sps.bitDepthLuma = r.readUE() + 8;
+            r.readUE(); // bit_depth_chroma_minus8
+            r.readBit(); // qpprime_y_zero_transform_bypass_flag
+            if (r.readFlag()) { // seq_scaling_matrix_present_flag
+                int lists = sps.chromaFormatIdc != 3 ? 8 : 12;
+                for (int i = 0; i < lists; i++)
+                    if (r.readFlag())
+                        skipScalingList(r, i < 6 ? 16 : 64);
+            }
+        }
+
+        r.readUE(); // log2_max_frame_num_minus4
+        int picOrderCntType = r.readUE();
+        if (picOrderCntType == 0) {
+            r.readUE(); // log2_max_pic_order_cnt_lsb_minus4
+        } else if (picOrderCntType == 1) {
+            r.readBit(); // delta_pic_order_always_zero_flag
+            r.readSE(); // offset_for_non_ref_pic
+            r.readSE(); // offset_for_top_to_bottom_field
+            int cycle = r.readUE();
+            for (int i = 0; i < cycle && !r.isOverrun(); i++)
+                r.readSE();
+        }
+
+        sps.maxNumRefFrames = r.readUE();
+        r.readBit(); // gaps_in_frame_num_value_allowed_flag
+        int widthInMbs = r.readUE() + 1;
+        int heightInMapUnits = r.readUE() + 1;
+        sps.frameMbsOnly = r.readFlag();
+        if (!sps.frameMbsOnly)
+            r.readBit(); // mb_adaptive_frame_field_flag
+        r.readBit(); // direct_8x8_inference_flag
+
+        int frameHeightFactor = sps.frameMbsOnly ? 1 : 2;
+        sps.codedWidth = widthInMbs * 16;
+        sps.codedHeight = heightInMapUnits * 16 * frameHeightFactor;
+        sps.width = sps.codedWidth;
+        sps.height = sps.codedHeight;
+
+        if (r.readFlag()) { // frame_cropping_flag
+            int chromaArrayType = separateColourPlane ? 0 : sps.chromaFormatIdc;
+            int cropUnitX = 1;
+            int cropUnitY = frameHeightFactor;
+            if (chromaArrayType != 0) {
+                cropUnitX = chromaArrayType == 3 ? 1 : 2;
+                cropUnitY *= chromaArrayType == 1 ? 2 : 1;
+            }
+            int left = r.readUE();
+            int right = r.readUE();
+            int top = r.readUE();
+            int bottom = r.readUE();
+            sps.width -= (left + right) * cropUnitX;
+            sps.height -= (top + bottom) * cropUnitY;
+        }
+
+        if (r.readFlag()) // vui_parameters_present_flag
+            parseVui(r, sps);
+
+        return !r.isOverrun() && sps.width > 0 && sps.height > 0;
+    }
+
+    public boolean parse(byte[] data, SpsInfo sps) {
+        return parse(ByteBuffer.wrap(data), 0, data.length, sps);
+    }
+
+    private static void parseVui(BitReader r, SpsInfo sps) {
+        if (r.readFlag()) { // aspect_ratio_info_present_flag
+            if (r.readInt(8) == EXTENDED_SAR)
+                r.skipBits(32); // sar_width, sar_height
+        }
+        if (r.readFlag()) // overscan_info_present_flag
+            r.readBit();
+        if (r.readFlag()) { // video_signal_type_present_flag
+            r.skipBits(4); // video_format, video_full_range_flag
+            if (r.readFlag()) // colour_description_present_flag
+                r.skipBits(24);
+        }
+        if (r.readFlag()) { // chroma_loc_info_present_flag
+            r.readUE();
+            r.readUE();
+        }
+        if (r.readFlag()) { // timing_info_present_flag
+            long numUnitsInTick = r.readBits(32);
+            long timeScale = r.readBits(32);
+            sps.fixedFrameRate = r.readFlag();
+            if (numUnitsInTick > 0)
+                sps.frameRate = timeScale / (2.0 * numUnitsInTick);
+        }
+
+        boolean nalHrd = r.readFlag();
+        if (nalHrd)
+            skipHrd(r);
+        boolean vclHrd = r.readFlag();
+        if (vclHrd)
+            skipHrd(r);
+        if (nalHrd || vclHrd)
+            r.readBit(); // low_delay_hrd_flag
+        r.readBit(); // pic_struct_present_flag
+
+        if (r.readFlag()) { // bitstream_restriction_flag
+            r.readBit(); // motion_vectors_over_pic_boundaries_flag
+            r.readUE(); // max_bytes_per_pic_denom
+            r.readUE(); // max_bits_per_mb_denom
+            r.readUE(); // log2_max_mv_length_horizontal
+            r.readUE(); // log2_max_mv_length_vertical
+            sps.maxNumReorderFrames = r.readUE();
+            sps.maxDecFrameBuffering = r.readUE();
+        }
+    }
+
+    private static void skipHrd(BitReader r) {
+        int cpbCount = r.readUE() + 1;
+        r.skipBits(8); // bit_rate_scale, cpb_size_scale
+        for (int i = 0; i < cpbCount && !r.isOverrun(); i++) {
+            r.readUE(); // bit_rate_value_minus1
+            r.readUE(); // cpb_size_value_minus1
+            r.readBit(); // cbr_flag
+        }
+        r.skipBits(20); // delay and length fields
+    }
+
+    private static void skipScalingList(BitReader r, int size) {
+        int last = 8;
+        int next = 8;
+        for (int i = 0; i < size; i++) {
+            if (next != 0)
+                next = (last + r.readSE() + 256) % 256;
+            last = next == 0 ? last : next;
+        }
+    }
+
+    private static boolean hasChromaInfo(int profileIdc) {
+        switch (profileIdc) {
+            case 100:
+            case 110:
+            case 122:
+            case 244:
+            case 44:
+            case 83:
+            case 86:
+            case 118:
+            case 128:
+            case 138:
+            case 139:
+            case 134:
+            case 135:
+                return true;
+            default:
+                return false;
+        }
+    }
+}
@@ -0,0 +1,456 @@
+package space.iegrsy.h264player.player;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * On-device cache of one camera's recent stream: a memory-mapped ring file of Annex-B access
+ * units with an in-memory index of its IDR frames by timestamp. Once the file is full the oldest
+ * records are overwritten. Replays read the mapped file in place; a {@link Replay} pins the
+ * records around its position, and an append that would overwrite them is dropped instead, with
+ * recording going on from the next IDR.
+ * <p>
+ * Every IDR record carries its SPS and PPS, taken from earlier frames if the access unit has none,
+ * so a replay can start at any IDR. A timestamp going back, as after a seek on the server, starts
+ * the cache over. The file lives as long as the cache. Appends come from one thread, replays from
+ * any.
+ */
+public class StreamCache implements Closeable {
+    public static final long DEFAULT_CAPACITY = 64L * 1024 * 1024;
+
+    // Record: payload length, flags, timestamp and sequence number, then the payload; 8 byte aligned.
+    private static final int HEADER_SIZE = 24;
+    // In the length field where the writer went back to the start of the file.
+    private static final int WRAP = -1;
+    private static final int FLAG_KEY = 1;
+    // Records behind a replay's position kept pinned: handed out, maybe not decoded yet.
+    private static final int PIN_LAG = 64;
+
+    private final File file;
+    private final RandomAccessFile raf;
+    private final MappedByteBuffer map;
+    private final ByteBuffer writer;
+    private final int capacity;
+    private final KeyIndex keys = new KeyIndex();
+    private final List<Replay> replays = new ArrayList<>();
+
+    // Guarded by this. Records from tail to head in file order, sequence numbers tailSeq until nextSeq.
+    private int head = 0;
+    private int tail = 0;
+    private long tailSeq = 0;
+    private long nextSeq = 0;
+    private long newestTs = -1;
+    private boolean awaitKeyFrame = true;
+    private long droppedFrames = 0;
+
+    // Appending thread only.
+    private final NalIndex nals = new NalIndex();
+    private byte[] sps = null;
+    private byte[] pps = null;
+
+    private StreamCache(File file, RandomAccessFile raf, MappedByteBuffer map, int capacity) {
+        this.file = file;
+        this.raf = raf;
+        this.map = map;
+        this.writer = map.duplicate();
+        this.capacity = capacity;
+    }
+
+    /**
+     * Creates or truncates {@code file} to {@code capacity} bytes and maps it.
+     */
+    public static StreamCache open(File file, long capacity) throws IOException {
+        if (capacity < 4096 || capacity > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("Capacity out of range: " + capacity);
+
+        final int size = (int) (capacity & ~7L);
+        RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        try {
+            raf.setLength(0);
+            raf.setLength(size);
+            MappedByteBuffer map = raf.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+            return new StreamCache(file, raf, map, size);
+        } catch (IOException e) {
+            raf.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Records the access unit between the buffer's position and limit; the buffer is only read.
+     * Returns true if it is an IDR, where a replay can start.
+     */
+    public boolean append(ByteBuffer data, long ts) {
+        nals.scan(data, data.position(), data.limit());
+        updateParameterSets(data, null);
+        write(data, null, data.remaining(), ts);
+        return nals.isKeyFrame();
+    }
+
+    /**
+     * As above for an access unit that arrived in chunks. Call it before the frame is queued: the
+     * parts are read in place.
+     */
+    public boolean append(ScatterBuffer data, long ts) {
+        nals.scan(data);
+        updateParameterSets(null, data);
+        write(null, data, data.size(), ts);
+        return nals.isKeyFrame();
+    }
+
+    private void updateParameterSets(ByteBuffer data, ScatterBuffer scatter) {
+        int i = nals.find(NalIndex.TYPE_SPS);
+        if (i >= 0)
+            sps = copy(data, scatter, nals.offset(i), nals.length(i));
+        i = nals.find(NalIndex.TYPE_PPS);
+        if (i >= 0)
+            pps = copy(data, scatter, nals.offset(i), nals.length(i));
+    }
+
+    private static byte[] copy(ByteBuffer data, ScatterBuffer scatter, int offset, int length) {
+        ByteBuffer nal = scatter != null ? scatter.slice(offset, length) : data.duplicate();
+        if (scatter == null) {
+            nal.limit(offset + length);
+            nal.position(offset);
+        }
+        byte[] bytes = new byte[length];
+        nal.get(bytes);
+        return bytes;
+    }
+
+    private synchronized void write(ByteBuffer data, ScatterBuffer scatter, int length, long ts) {
+        final boolean key = nals.isKeyFrame();
+        if (ts < newestTs)
+            clear();
+        if (awaitKeyFrame && !key) {
+            droppedFrames++;
+            return;
+        }
+
+        // Parameter sets in front of an IDR that does not carry them.
+        final boolean prefix = key && (!nals.contains(NalIndex.TYPE_SPS) || !nals.contains(NalIndex.TYPE_PPS));
+        if (prefix && (sps == null || pps == null)) {
+            awaitKeyFrame = true;
+            droppedFrames++;
+            return;
+        }
+
+        final int payload = length + (prefix ? sps.length + pps.length : 0);
+        final int size = align(HEADER_SIZE + payload);
+        if (!reserve(size)) {
+            awaitKeyFrame = true;
+            droppedFrames++;
+            return;
+        }
+
+        if (nextSeq == tailSeq)
+            tail = head;
+        writer.clear();
+        writer.position(head);
+        writer.putInt(payload).putInt(key ? FLAG_KEY : 0).putLong(ts).putLong(nextSeq);
+        if (prefix)
+            writer.put(sps).put(pps);
+        if (scatter != null) {
+            scatter.copyTo(writer);
+        } else {
+            writer.put(data.duplicate());
+        }
+
+        if (key)
+            keys.add(ts, nextSeq, head);
+        head += size;
+        nextSeq++;
+        newestTs = ts;
+        awaitKeyFrame = false;
+    }
+
+    /**
+     * Makes room for {@code size} bytes at the head, going back to the start of the file if they
+     * do not fit before its end. False when pinned records are in the way.
+     */
+    private boolean reserve(int size) {
+        if (size > capacity)
+            return false;
+
+        if (capacity - head < size) {
+            if (!evict(head, capacity))
+                return false;
+            if (head < capacity)
+                writer.putInt(head, WRAP);
+            head = 0;
+        }
+        return evict(head, head + size);
+    }
+
+    private boolean evict(int from, int to) {
+        final long pinned = minPinnedSeq();
+        while (tailSeq < nextSeq && tail >= from && tail < to) {
+            if (tailSeq >= pinned)
+                return false;
+            final int end = tail + align(HEADER_SIZE + writer.getInt(tail));
+            tailSeq++;
+            tail = tailSeq < nextSeq ? resolve(end) : head;
+        }
+        if (tailSeq == nextSeq)
+            tail = head;
+        keys.evictBefore(tailSeq);
+        return true;
+    }
+
+    /**
+     * Where the record written at {@code offset}, the end of the one before it, really starts.
+     * Only valid once that record exists: the writer puts it or a wrap marker there first.
+     */
+    private int resolve(int offset) {
+        return capacity - offset < HEADER_SIZE || map.getInt(offset) == WRAP ? 0 : offset;
+    }
+
+    private long minPinnedSeq() {
+        long min = Long.MAX_VALUE;
+        for (Replay replay : replays)
+            min = Math.min(min, replay.pinnedSeq);
+        return min;
+    }
+
+    private static int align(int size) {
+        return (size + 7) & ~7;
+    }
+
+    /**
+     * True if a replay from {@code ts} can be served from the cache.
+     */
+    public synchronized boolean contains(long ts) {
+        return keys.size() > 0 && ts >= keys.ts(0) && ts <= newestTs;
+    }
+
+    /**
+     * Opens a replay at the newest IDR at or before {@code ts}, or returns null when that is not
+     * cached. Close it when done, it pins records until then.
+     */
+    public synchronized Replay replay(long ts) {
+        if (!contains(ts))
+            return null;
+
+        int i = keys.floor(ts);
+        Replay replay = new Replay(keys.offset(i), keys.seq(i));
+        replays.add(replay);
+        return replay;
+    }
+
+    /**
+     * Forgets every record. Open replays end.
+     */
+    public synchronized void clear() {
+        for (Replay replay : replays)
+            replay.closed = true;
+        replays.clear();
+        tailSeq = nextSeq;
+        tail = head;
+        keys.evictBefore(nextSeq);
+        newestTs = -1;
+        awaitKeyFrame = true;
+    }
+
+    /**
+     * Closes and deletes the file; views handed out by replays must not be used afterwards.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        clear();
+        raf.close();
+        if (!file.delete())
+            throw new IOException("Could not delete " + file);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public synchronized int getRecordCount() {
+        return (int) (nextSeq - tailSeq);
+    }
+
+    public synchronized int getKeyFrameCount() {
+        return keys.size();
+    }
+
+    /**
+     * Timestamp of the oldest IDR, where the oldest possible replay starts, or -1 when empty.
+     */
+    public synchronized long getOldestTs() {
+        return keys.size() > 0 ? keys.ts(0) : -1;
+    }
+
+    public synchronized long getNewestTs() {
+        return newestTs;
+    }
+
+    /**
+     * Access units not recorded: before the first IDR, after a drop, or blocked by a replay.
+     */
+    public synchronized long getDroppedFrameCount() {
+        return droppedFrames;
+    }
+
+    /**
+     * Reads records in order from an IDR on, up to the newest one recorded.
+     */
+    public final class Replay implements Closeable {
+        // End of the record read last, resolved once the next one is recorded.
+        private int offset;
+        private long seq;
+        // Guarded by the cache.
+        private long pinnedSeq;
+        private boolean closed = false;
+
+        private ByteBuffer data = null;
+        private long ts = 0;
+        private boolean key = false;
+
+        private Replay(int offset, long seq) {
+            this.offset = offset;
+            this.seq = seq;
+            this.pinnedSeq = seq;
+        }
+
+        /**
+         * Moves to the next record; false when every recorded one has been read, for now, or the
+         * replay was closed.
+         */
+        public boolean next() {
+            synchronized (StreamCache.this) {
+                if (closed || seq >= nextSeq)
+                    return false;
+
+                offset = resolve(offset);
+                final int payload = map.getInt(offset);
+                key = (map.getInt(offset + 4) & FLAG_KEY) != 0;
+                ts = map.getLong(offset + 8);
+
+                data = map.asReadOnlyBuffer();
+                data.limit(offset + HEADER_SIZE + payload);
+                data.position(offset + HEADER_SIZE);
+
+                offset += align(HEADER_SIZE + payload);
+                seq++;
+                pinnedSeq = Math.max(pinnedSeq, seq - PIN_LAG);
+                return true;
+            }
+        }
+
+        /**
+         * The current access unit, a read-only view of the file between position and limit. It
+         * stays valid until {@link #PIN_LAG} more records have been read or the replay is closed.
+         */
+        public ByteBuffer getData() {
+            return data;
+        }
+
+        public long getTs() {
+            return ts;
+        }
+
+        public boolean isKeyFrame() {
+            return key;
+        }
+
+        /**
+         * Records recorded but not read yet.
+         */
+        public long getRemaining() {
+            synchronized (StreamCache.this) {
+                return closed ? 0 : nextSeq - seq;
+            }
+        }
+
+        @Override
+        public void close() {
+            synchronized (StreamCache.this) {
+                closed = true;
+                replays.remove(this);
+            }
+        }
+    }
+
+    /**
+     * IDR records by timestamp, oldest first, in a ring of parallel arrays.
+     */
+    private static final class KeyIndex {
+        private long[] ts = new long[64];
+        private long[] seq = new long[64];
+        private int[] offset = new int[64];
+        private int first = 0;
+        private int size = 0;
+
+        void add(long keyTs, long keySeq, int keyOffset) {
+            if (size == ts.length)
+                grow();
+            int i = (first + size) % ts.length;
+            ts[i] = keyTs;
+            seq[i] = keySeq;
+            offset[i] = keyOffset;
+            size++;
+        }
+
+        void evictBefore(long oldestSeq) {
+            while (size > 0 && seq[first] < oldestSeq) {
+                first = (first + 1) % ts.length;
+                size--;
+            }
+        }
+
+        /**
+         * Position of the newest key at or before {@code keyTs}; the oldest if all are newer.
+         */
+        int floor(long keyTs) {
+            int low = 0;
+            int high = size - 1;
+            while (low < high) {
+                int mid = (low + high + 1) >>> 1;
+                if (ts(mid) <= keyTs)
+                    low = mid;
+                else
+                    high = mid - 1;
+            }
+            return low;
+        }
+
+        int size() {
+            return size;
+        }
+
+        long ts(int i) {
+            return ts[(first + i) % ts.length];
+        }
+
+        long seq(int i) {
+            return seq[(first + i) % seq.length];
+        }
+
+        int offset(int i) {
+            return offset[(first + i) % offset.length];
+        }
+
+        private void grow() {
+            long[] newTs = new long[ts.length * 2];
+            long[] newSeq = new long[ts.length * 2];
+            int[] newOffset = new int[ts.length * 2];
+            for (int i = 0; i < size; i++) {
+                newTs[i] = ts(i);
+                newSeq[i] = seq(i);
+                newOffset[i] = offset(i);
+            }
+            ts = newTs;
+            seq = newSeq;
+            offset = newOffset;
+            first = 0;
+        }
+    }
+}
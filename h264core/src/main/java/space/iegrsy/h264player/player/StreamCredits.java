@@ -0,0 +1,86 @@
+package space.iegrsy.h264player.player;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Credit based flow control for a network stream feeding a {@link StreamData} queue.
+ * <p>
+ * The receiver asks the sender for at most {@code window} messages at a time and stops asking
+ * while the decoder has {@code maxQueued} frames waiting, so a slow decoder holds the sender off
+ * through the transport instead of growing the queue. Credits are topped up in batches of at
+ * least half the window to keep request calls rare; an empty window is always refilled.
+ */
+public class StreamCredits {
+    public static final int DEFAULT_WINDOW = 8;
+    public static final int DEFAULT_MAX_QUEUED = 30;
+
+    private final int window;
+    private final int maxQueued;
+    // Requested from the sender and not received yet.
+    private final AtomicInteger outstanding = new AtomicInteger();
+    private final AtomicInteger paused = new AtomicInteger();
+
+    public StreamCredits() {
+        this(DEFAULT_WINDOW, DEFAULT_MAX_QUEUED);
+    }
+
+    public StreamCredits(int window, int maxQueued) {
+        if (window <= 0 || maxQueued <= 0)
+            throw new IllegalArgumentException(String.format("Window %s / max queued %s out of range", window, maxQueued));
+
+        this.window = window;
+        this.maxQueued = maxQueued;
+    }
+
+    /**
+     * Called for every message received.
+     */
+    public void onMessage() {
+        for (; ; ) {
+            int out = outstanding.get();
+            // The sender may push a message granted before a reset.
+            if (out <= 0 || outstanding.compareAndSet(out, out - 1))
+                return;
+        }
+    }
+
+    /**
+     * Number of messages to request now with {@code queued} frames waiting for the decoder, and
+     * counts them as outstanding; 0 when nothing should be requested.
+     */
+    public int grant(int queued) {
+        for (; ; ) {
+            int out = outstanding.get();
+            int credits = Math.min(window, maxQueued - queued) - out;
+            if (credits <= 0 || (out > 0 && credits < (window + 1) / 2)) {
+                if (out == 0)
+                    paused.incrementAndGet();
+                return 0;
+            }
+            if (outstanding.compareAndSet(out, out + credits))
+                return credits;
+        }
+    }
+
+    /**
+     * Forgets outstanding credits, for a new call.
+     */
+    public void reset() {
+        outstanding.set(0);
+    }
+
+    public int getOutstanding() {
+        return outstanding.get();
+    }
+
+    /**
+     * Grants refused with nothing outstanding, i.e. times the sender was held off.
+     */
+    public int getPausedCount() {
+        return paused.get();
+    }
+
+    public int getWindow() {
+        return window;
+    }
+}
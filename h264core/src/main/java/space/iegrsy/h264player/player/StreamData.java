@@ -0,0 +1,804 @@
+package space.iegrsy.h264player.player;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+public class StreamData {
+    private static final int MAX_FRAMES_SIZE = 20000;
+    public static final long DEFAULT_LATENCY_BUDGET_MS = 300;
+    // After a seek the first IDR this close to the target is where decoding resumes; IDRs further
+    // off are frames of the old position still in flight.
+    public static final long SEEK_WINDOW_MS = 10000;
+    // Seek target taking any IDR.
+    public static final long ANY_TS = Long.MIN_VALUE;
+
+    // Written by the network thread only, read by the decode thread.
+    private volatile int frameID = 0;
+    private final FrameRing<RAWFrame> frames = new FrameRing<>(MAX_FRAMES_SIZE);
+    private final JitterBuffer jitterBuffer = new JitterBuffer();
+    private final PipelineMetrics metrics = new PipelineMetrics();
+    // Network thread; locked only so clearAll() can reset it.
+    private final AccessUnitAssembler assembler = new AccessUnitAssembler(new AccessUnitAssembler.Listener() {
+        @Override
+        public void onAccessUnit(ScatterBuffer data, NalIndex nals, long ts, long receivedNs) {
+            addAccessUnit(data, nals, ts, receivedNs);
+        }
+    }, metrics);
+
+    // Decode thread parked in takeFrame(), unparked by the network thread on every new frame.
+    private volatile Thread waiter = null;
+    // Consumer driven by a shared scheduler instead of a parked thread.
+    private volatile FrameListener frameListener = null;
+    // Set once the first IDR is queued with its parameter sets; frames before it are not queued.
+    private volatile boolean ready = false;
+
+    // Live mode: 0 disables. Newest frame and newest IDR are published by the network thread.
+    private volatile long latencyBudgetMs = 0;
+    private volatile long newestFrameTs = 0;
+    private volatile int newestKeyFrameID = -1;
+    // Written by the decode thread only.
+    private volatile long skippedFrames = 0;
+    private volatile long skippedTimeMs = 0;
+
+    // Seeks and fast play. A flush bumps the generation: frames queued under an older one are
+    // dropped by the decode thread, and the network thread queues nothing until an IDR near the
+    // target.
+    private volatile int seekGeneration = 0;
+    private volatile long seekTs = ANY_TS;
+    private volatile FrameFilter frameFilter = FrameFilter.ALL;
+    private volatile GopInfo gopInfo = null;
+    // Network thread only.
+    private int queuedGeneration = 0;
+    private FrameFilter queuedFilter = FrameFilter.ALL;
+    private boolean awaitSeekTarget = false;
+    private boolean awaitKeyFrame = false;
+    private int gopFrames = 0;
+    private int gopReferenceFrames = 0;
+    private long gopStartTs = ANY_TS;
+    // Parameter sets of the last frame queued.
+    private ParameterSets queuedParams = null;
+    private final SeiFilter seiFilter = new SeiFilter();
+
+    private volatile byte[] header_sps = null;
+    private volatile byte[] header_pps = null;
+    // Complete SPS/PPS pair every queued frame refers to; replaced, never modified, on a change.
+    private volatile ParameterSets parameterSets = null;
+    private int parameterSetsVersion = 0;
+
+    StreamData() {
+        frames.setDropListener(new FrameRing.DropListener<RAWFrame>() {
+            @Override
+            public void onDrop(RAWFrame frame) {
+                metrics.onFramesDropped(1);
+                frame.release();
+            }
+        });
+    }
+
+    private void incrementFrameID() {
+        frameID++;
+    }
+
+    public int getFrameID() {
+        return frameID;
+    }
+
+    void addFrame(RAWFrame frame) {
+        if (frame == null)
+            return;
+
+        newestFrameTs = frame.ts;
+        if (frame.isKeyFrame())
+            newestKeyFrameID = frame.id;
+        if (frames.offer(frame)) {
+            Thread w = waiter;
+            if (w != null)
+                LockSupport.unpark(w);
+            FrameListener listener = frameListener;
+            if (listener != null)
+                listener.onFrameAvailable();
+        }
+    }
+
+    /**
+     * Called on the network thread after every queued frame; must not block.
+     */
+    public void setFrameListener(FrameListener listener) {
+        frameListener = listener;
+    }
+
+    public boolean hasFrame() {
+        return !frames.isEmpty();
+    }
+
+    /**
+     * True once decoding can start: an IDR with its SPS and PPS has been queued, and no frame
+     * before it.
+     */
+    public boolean isReady() {
+        return ready;
+    }
+
+    /**
+     * Called from the decode thread only. Parks until {@link #isReady()}, the timeout elapses
+     * (returns false) or the thread is interrupted.
+     */
+    public boolean awaitReady(long timeout, TimeUnit unit) throws InterruptedException {
+        if (ready)
+            return true;
+
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        waiter = Thread.currentThread();
+        try {
+            while (!ready) {
+                if (Thread.interrupted())
+                    throw new InterruptedException("Wait ready interrupted");
+
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    return false;
+                LockSupport.parkNanos(this, remaining);
+            }
+        } finally {
+            waiter = null;
+        }
+
+        return true;
+    }
+
+    /**
+     * Called from the decode thread only. Returns null when no frame is queued.
+     */
+    public RAWFrame pollFrame() {
+        return nextFrame();
+    }
+
+    /**
+     * Called from the decode thread only. Parks until a frame is queued, the timeout elapses
+     * (returns null) or the thread is interrupted.
+     */
+    public RAWFrame takeFrame(long timeout, TimeUnit unit) throws InterruptedException {
+        RAWFrame frame = nextFrame();
+        if (frame != null)
+            return frame;
+
+        final long deadline = System.nanoTime() + unit.toNanos(timeout);
+        waiter = Thread.currentThread();
+        try {
+            // Re-check after publishing the waiter so a frame offered in between is not missed.
+            while ((frame = nextFrame()) == null) {
+                if (Thread.interrupted())
+                    throw new InterruptedException("Wait frame interrupted");
+
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    break;
+                LockSupport.parkNanos(this, remaining);
+            }
+        } finally {
+            waiter = null;
+        }
+
+        return frame;
+    }
+
+    /**
+     * In live mode a head frame older than the budget, measured against the newest received
+     * frame, makes the whole stale backlog go at once: everything before the newest IDR is
+     * dropped, so no P-frame is ever decoded without its reference. Without a newer IDR the
+     * backlog is kept and decoded.
+     */
+    private RAWFrame nextFrame() {
+        RAWFrame frame = frames.poll();
+        int stale = 0;
+        while (frame != null && frame.generation != seekGeneration) {
+            frame.release();
+            stale++;
+            frame = frames.poll();
+        }
+        if (stale > 0)
+            metrics.onFramesSkipped(stale);
+
+        // In stream time, which passes faster in fast play.
+        final long budget = latencyBudgetMs * jitterBuffer.getRate();
+        if (frame == null || budget <= 0)
+            return frame;
+
+        final int keyFrameID = newestKeyFrameID;
+        if (keyFrameID <= frame.id || newestFrameTs - frame.ts <= budget)
+            return frame;
+
+        final long fromTs = frame.ts;
+        int skipped = 0;
+        while (frame != null && frame.id < keyFrameID) {
+            frame.release();
+            skipped++;
+            frame = frames.poll();
+        }
+
+        long skippedMs = frame != null ? frame.ts - fromTs : newestFrameTs - fromTs;
+        skippedFrames += skipped;
+        skippedTimeMs += skippedMs;
+        metrics.onFramesSkipped(skipped);
+        return frame;
+    }
+
+    /**
+     * Enables live mode with the given latency budget, or disables it with 0.
+     */
+    public void setLatencyBudgetMs(long budgetMs) {
+        latencyBudgetMs = Math.max(0, budgetMs);
+    }
+
+    public long getLatencyBudgetMs() {
+        return latencyBudgetMs;
+    }
+
+    public long getSkippedFrameCount() {
+        return skippedFrames;
+    }
+
+    public long getSkippedTimeMs() {
+        return skippedTimeMs;
+    }
+
+    public int getFrameCount() {
+        return frames.size();
+    }
+
+    /**
+     * Stream timestamp of the newest received frame.
+     */
+    public long getNewestFrameTs() {
+        return newestFrameTs;
+    }
+
+    public long getDroppedFrameCount() {
+        return frames.getDroppedCount();
+    }
+
+    public JitterBuffer getJitterBuffer() {
+        return jitterBuffer;
+    }
+
+    public PipelineMetrics getMetrics() {
+        return metrics;
+    }
+
+    public void setOverflowPolicy(FrameRing.OverflowPolicy policy) {
+        frames.setOverflowPolicy(policy);
+    }
+
+    /**
+     * Any thread. Drops every frame queued so far and those still arriving from before the
+     * seek; queuing goes on from the first IDR within {@link #SEEK_WINDOW_MS} of {@code ts}, or
+     * the first IDR at all with {@link #ANY_TS}. The decoder sees the new generation on that
+     * frame and flushes the codec.
+     */
+    public synchronized void flush(long ts) {
+        seekTs = ts;
+        seekGeneration++;
+    }
+
+    /**
+     * Any thread. Frames the filter rejects are skipped on arrival; going back from
+     * {@link FrameFilter#KEY_FRAMES_ONLY} waits for the next IDR.
+     */
+    public void setFrameFilter(FrameFilter filter) {
+        frameFilter = filter;
+    }
+
+    public FrameFilter getFrameFilter() {
+        return frameFilter;
+    }
+
+    /**
+     * The last complete GOP received, or null before the second IDR.
+     */
+    public GopInfo getGopInfo() {
+        return gopInfo;
+    }
+
+    public void useFrameData(byte[] readInData, long ts) throws Exception {
+        useFrameData(ByteBuffer.wrap(readInData), ts);
+    }
+
+    /**
+     * The buffer is kept as is, without copying, until the decoder copies it into a codec input
+     * buffer. Callers must not modify its content afterwards; a read-only view is fine.
+     */
+    public void useFrameData(ByteBuffer readInData, long ts) throws Exception {
+        addFrameData(ScatterBuffer.wrap(readInData, null), ts, System.nanoTime());
+    }
+
+    /**
+     * Takes over the caller's reference; the lease is released once the codec has consumed the
+     * frame, or right away if the frame is not queued.
+     */
+    public void useFrameData(PooledBuffer readInData, long ts) throws Exception {
+        useFrameData(readInData, ts, System.nanoTime());
+    }
+
+    /**
+     * @param receivedNs {@link System#nanoTime()} the frame came off the network, for the
+     *                   receive to enqueue latency
+     */
+    public void useFrameData(PooledBuffer readInData, long ts, long receivedNs) throws Exception {
+        addFrameData(ScatterBuffer.wrap(readInData.buffer(), readInData), ts, receivedNs);
+    }
+
+    /**
+     * A message that arrived in chunks; takes over the caller's reference like a single pooled
+     * buffer.
+     */
+    public void useFrameData(ScatterBuffer readInData, long ts, long receivedNs) throws Exception {
+        addFrameData(readInData, ts, receivedNs);
+    }
+
+    /**
+     * One message of NAL units, a whole access unit or part of one; the assembler holds on to
+     * what it needs and the caller's reference goes.
+     */
+    private void addFrameData(ScatterBuffer readInData, long ts, long receivedNs) throws Exception {
+        try {
+            final int size = readInData.size();
+            if (size < 4 || readInData.startCodeLength(0, size) == 0)
+                throw new Exception("Decode condition error.");
+
+            synchronized (assembler) {
+                assembler.add(readInData, ts, receivedNs);
+            }
+        } finally {
+            readInData.release();
+        }
+    }
+
+    /**
+     * Network thread, from the assembler: queues a complete access unit or releases it.
+     */
+    private void addAccessUnit(ScatterBuffer data, NalIndex nals, long ts, long receivedNs) {
+        metrics.onFrameReceived(data.size());
+        updateParameterSets(nalUnit(data, nals, NalIndex.TYPE_SPS), nalUnit(data, nals, NalIndex.TYPE_PPS));
+
+        StreamData.RAWFrame frame = createFrame(nals, ts);
+        if (frame == null) {
+            data.release();
+            return;
+        }
+
+        frame.scatter = data;
+        // Parameter sets go in-band only with the first frame using them; the decoder hands later
+        // changes to the codec itself, and keeps them on the first frame after a restart.
+        long stripped = seiFilter.repeated(data, nals);
+        if (frame.params == queuedParams)
+            stripped |= parameterSetNals(nals);
+        frame.strip(stripped);
+        queuedParams = frame.params;
+        queueFrame(frame, receivedNs);
+    }
+
+    /**
+     * Bit i is set for the i-th NAL unit if it is an SPS or PPS.
+     */
+    private static long parameterSetNals(NalIndex nals) {
+        long mask = 0;
+        final int units = Math.min(nals.count(), SeiFilter.MAX_NALS);
+        for (int i = 0; i < units; i++) {
+            final int type = nals.type(i);
+            if (type == NalIndex.TYPE_SPS || type == NalIndex.TYPE_PPS)
+                mask |= 1L << i;
+        }
+        return mask;
+    }
+
+    /**
+     * Returns the frame to queue for an access unit, or null when it is not queued.
+     */
+    private StreamData.RAWFrame createFrame(NalIndex nals, long ts) {
+        final ParameterSets params = parameterSets;
+
+        // Nothing before the first IDR can be decoded.
+        if (!ready && (params == null || !nals.isKeyFrame())) {
+            metrics.onFramesDropped(1);
+            return null;
+        }
+
+        if (params == null)
+            return null;
+
+        countGop(nals, ts);
+        if (!accepts(nals, ts)) {
+            metrics.onFramesSkipped(1);
+            return null;
+        }
+
+        StreamData.RAWFrame frame = new StreamData.RAWFrame(frameID);
+        frame.generation = queuedGeneration;
+        frame.ts = ts;
+        frame.pts = jitterBuffer.onFrameArrived(ts);
+        frame.nals = nals;
+        frame.params = params;
+        return frame;
+    }
+
+    /**
+     * Network thread. Picks up a new seek or filter, then decides whether the frame is queued.
+     */
+    private boolean accepts(NalIndex nals, long ts) {
+        final int generation = seekGeneration;
+        if (generation != queuedGeneration) {
+            queuedGeneration = generation;
+            awaitSeekTarget = true;
+        }
+
+        final FrameFilter filter = frameFilter;
+        if (filter != queuedFilter) {
+            // Frames after the IDRs may reference any of the skipped ones.
+            if (queuedFilter == FrameFilter.KEY_FRAMES_ONLY)
+                awaitKeyFrame = true;
+            queuedFilter = filter;
+        }
+
+        if (awaitSeekTarget) {
+            final long target = seekTs;
+            if (!nals.isKeyFrame() || (target != ANY_TS && Math.abs(ts - target) > SEEK_WINDOW_MS))
+                return false;
+
+            awaitSeekTarget = false;
+            awaitKeyFrame = false;
+            gopStartTs = ANY_TS;
+            jitterBuffer.restart();
+        }
+
+        if (awaitKeyFrame) {
+            if (!nals.isKeyFrame())
+                return false;
+            awaitKeyFrame = false;
+        }
+        return filter.accepts(nals);
+    }
+
+    /**
+     * Network thread. Publishes the GOP ended by an IDR, counted before any filtering.
+     */
+    private void countGop(NalIndex nals, long ts) {
+        if (nals.isKeyFrame()) {
+            if (gopStartTs != ANY_TS && ts > gopStartTs)
+                gopInfo = new GopInfo(gopFrames, gopReferenceFrames, ts - gopStartTs);
+            gopStartTs = ts;
+            gopFrames = 0;
+            gopReferenceFrames = 0;
+        }
+        gopFrames++;
+        if (nals.isReference())
+            gopReferenceFrames++;
+    }
+
+    private void queueFrame(StreamData.RAWFrame frame, long receivedNs) {
+        frame.queuedNs = System.nanoTime();
+        metrics.onFrameQueued(receivedNs, frame.queuedNs);
+
+        // Published before the frame, so a waiter woken by it sees the flag.
+        ready = true;
+        addFrame(frame);
+        incrementFrameID();
+    }
+
+    /**
+     * Picks up SPS/PPS carried by the access unit, each null or between position and limit. A
+     * parameter set differing from the current one makes a new {@link ParameterSets} version,
+     * which the decoder sees on the next queued frame.
+     */
+    private void updateParameterSets(ByteBuffer spsNal, ByteBuffer ppsNal) {
+        byte[] sps = header_sps;
+        byte[] pps = header_pps;
+
+        if (spsNal != null && !isSameNalUnit(spsNal, sps))
+            sps = toArray(spsNal);
+        if (ppsNal != null && !isSameNalUnit(ppsNal, pps))
+            pps = toArray(ppsNal);
+
+        if (sps != header_sps || pps != header_pps)
+            setParameterSets(sps, pps);
+    }
+
+    private synchronized void setParameterSets(byte[] sps, byte[] pps) {
+        header_sps = sps;
+        header_pps = pps;
+        if (sps == null || pps == null)
+            return;
+
+        parameterSetsVersion++;
+        parameterSets = new ParameterSets(sps, pps, parameterSetsVersion);
+        metrics.onParameterSetsChanged();
+    }
+
+    /**
+     * The first NAL unit of {@code type} as a view of {@code data}, or null.
+     */
+    private static ByteBuffer nalUnit(ScatterBuffer data, NalIndex nals, int type) {
+        int i = nals.find(type);
+        return i < 0 ? null : data.slice(nals.offset(i), nals.length(i));
+    }
+
+    private static boolean isSameNalUnit(ByteBuffer nal, byte[] current) {
+        if (current == null || current.length != nal.remaining())
+            return false;
+
+        final int offset = nal.position();
+        for (int k = 0; k < current.length; k++)
+            if (nal.get(offset + k) != current[k])
+                return false;
+        return true;
+    }
+
+    private static byte[] toArray(ByteBuffer nal) {
+        byte[] bytes = new byte[nal.remaining()];
+        nal.duplicate().get(bytes);
+        return bytes;
+    }
+
+    public void setHeader_sps(byte[] header_sps) {
+        setParameterSets(header_sps, this.header_pps);
+    }
+
+    public void setHeader_pps(byte[] header_pps) {
+        setParameterSets(this.header_sps, header_pps);
+    }
+
+    /**
+     * The newest complete SPS/PPS pair, or null until both have been received.
+     */
+    public ParameterSets getParameterSets() {
+        return parameterSets;
+    }
+
+    public byte[] getHeader_sps() {
+        return header_sps;
+    }
+
+    public byte[] getHeader_pps() {
+        return header_pps;
+    }
+
+    /**
+     * Must not race with {@link #pollFrame()}; call it once the decode thread is stopped.
+     */
+    public void clearAll() {
+        ready = false;
+        frameID = 0;
+        newestKeyFrameID = -1;
+        newestFrameTs = 0;
+        RAWFrame frame;
+        while ((frame = frames.poll()) != null)
+            frame.release();
+        jitterBuffer.reset();
+        synchronized (assembler) {
+            assembler.reset();
+            seiFilter.reset();
+        }
+        queuedParams = null;
+        synchronized (this) {
+            header_sps = null;
+            header_pps = null;
+            parameterSets = null;
+        }
+    }
+
+    public interface FrameListener {
+        void onFrameAvailable();
+    }
+
+    /**
+     * Frame counts of one GOP, IDR to IDR, as received.
+     */
+    public static final class GopInfo {
+        private final int frames;
+        private final int referenceFrames;
+        private final long durationMs;
+
+        GopInfo(int frames, int referenceFrames, long durationMs) {
+            this.frames = frames;
+            this.referenceFrames = referenceFrames;
+            this.durationMs = durationMs;
+        }
+
+        public int getFrames() {
+            return frames;
+        }
+
+        /**
+         * Frames with nal_ref_idc set, the IDR included.
+         */
+        public int getReferenceFrames() {
+            return referenceFrames;
+        }
+
+        /**
+         * Stream time from the IDR to the next one.
+         */
+        public long getDurationMs() {
+            return durationMs;
+        }
+
+        /**
+         * Frames per second of stream time.
+         */
+        public double getFrameRate() {
+            return frames * 1000.0 / durationMs;
+        }
+    }
+
+    /**
+     * One version of the stream's SPS and PPS, each with its start code.
+     */
+    public static final class ParameterSets {
+        private final byte[] sps;
+        private final byte[] pps;
+        private final int version;
+
+        ParameterSets(byte[] sps, byte[] pps, int version) {
+            this.sps = sps;
+            this.pps = pps;
+            this.version = version;
+        }
+
+        public byte[] getSps() {
+            return sps;
+        }
+
+        public byte[] getPps() {
+            return pps;
+        }
+
+        public int getVersion() {
+            return version;
+        }
+
+        /**
+         * SPS followed by PPS, as fed in-band to a codec in a codec config buffer.
+         */
+        public int size() {
+            return sps.length + pps.length;
+        }
+    }
+
+    public static class RAWFrame {
+        int id;
+        // Seek generation the frame was queued under, see flush().
+        int generation;
+        // Payload between position and limit; read with absolute gets, never consumed.
+        ByteBuffer frameData;
+        long ts;
+        // Codec presentation time in microseconds, mapped from ts by the jitter buffer.
+        long pts;
+        NalIndex nals;
+        PooledBuffer lease;
+        // Set instead of frameData and lease for an access unit put together by the assembler.
+        ScatterBuffer scatter;
+        // NAL units left out of the copy to the codec, bit i for the i-th: SEI repeated from the
+        // frame before, and parameter sets the codec already has.
+        long strippedNals;
+        int strippedBytes;
+        // System.nanoTime() when queued, for the stage latencies.
+        long queuedNs;
+        // Parameter sets in effect when the frame arrived.
+        ParameterSets params;
+
+        RAWFrame(int id) {
+            this.id = id;
+        }
+
+        /**
+         * Returns the payload buffer to its pool, if it has one. Called once the frame is dropped
+         * or copied into the codec.
+         */
+        public void release() {
+            if (lease != null) {
+                lease.release();
+                lease = null;
+            }
+            if (scatter != null) {
+                scatter.release();
+                scatter = null;
+            }
+        }
+
+        /**
+         * Leaves the NAL units of {@code nalMask}, bit i for the i-th, out of the copy to the codec.
+         */
+        void strip(long nalMask) {
+            strippedNals = nalMask;
+            strippedBytes = 0;
+            final int units = Math.min(nals.count(), SeiFilter.MAX_NALS);
+            for (int i = 0; i < units; i++)
+                if ((nalMask & 1L << i) != 0)
+                    strippedBytes += nals.length(i);
+        }
+
+        /**
+         * Sends every NAL unit to the codec, e.g. for the first frame after it was flushed or
+         * reconfigured, which may have lost what earlier frames carried.
+         */
+        void keepAll() {
+            strippedNals = 0;
+            strippedBytes = 0;
+        }
+
+        /**
+         * Copies the payload to {@code dst} at its position; the frame's own buffers are left
+         * as they were.
+         */
+        void copyTo(ByteBuffer dst) {
+            if (strippedBytes > 0) {
+                copyKept(dst);
+                return;
+            }
+            if (scatter != null) {
+                scatter.copyTo(dst);
+                return;
+            }
+
+            final int position = frameData.position();
+            dst.put(frameData);
+            frameData.position(position);
+        }
+
+        /**
+         * Copies the NAL units that are not stripped, each run of them in one go.
+         */
+        private void copyKept(ByteBuffer dst) {
+            int from = -1;
+            int to = -1;
+            for (int i = 0; i < nals.count(); i++) {
+                if (i < SeiFilter.MAX_NALS && (strippedNals & 1L << i) != 0) {
+                    if (from >= 0)
+                        copyRange(from, to - from, dst);
+                    from = -1;
+                    continue;
+                }
+                if (from < 0)
+                    from = nals.offset(i);
+                to = nals.offset(i) + nals.length(i);
+            }
+            if (from >= 0)
+                copyRange(from, to - from, dst);
+        }
+
+        private void copyRange(int offset, int length, ByteBuffer dst) {
+            if (scatter != null) {
+                scatter.copyTo(offset, length, dst);
+                return;
+            }
+
+            ByteBuffer view = frameData.duplicate();
+            view.limit(offset + length);
+            view.position(offset);
+            dst.put(view);
+        }
+
+        public NalIndex getNals() {
+            return nals;
+        }
+
+        public int getGeneration() {
+            return generation;
+        }
+
+        /**
+         * Bytes sent to the codec.
+         */
+        public int size() {
+            return (scatter != null ? scatter.size() : frameData.remaining()) - strippedBytes;
+        }
+
+        public ParameterSets getParameterSets() {
+            return params;
+        }
+
+        public boolean isKeyFrame() {
+            return nals != null && nals.isKeyFrame();
+        }
+    }
+}
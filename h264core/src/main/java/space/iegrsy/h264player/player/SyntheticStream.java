@@ -0,0 +1,95 @@
+package space.iegrsy.h264player.player;
+
+import java.io.ByteArrayOutputStream;
+import java.util.Random;
+
+/**
+ * Annex-B access units shaped like a 1080p high profile stream, for load tests and benchmarks.
+ * Slice payloads are random bytes with the emulation prevention a real encoder applies, so the
+ * zero byte density and start code scanning cost are close to real streams. Nothing decodes them.
+ * <p>
+ * {@link #next()} cycles through a few pregenerated frames, an IDR carrying SPS and PPS every
+ * {@code gop} frames; the returned arrays are shared and must not be modified.
+ */
+public final class SyntheticStream {
+    public static final int SIZE_1080P = 96 * 1024;
+    public static final int SIZE_4K = 384 * 1024;
+
+    private static final int FRAME_VARIANTS = 8;
+    private static final byte[] START_CODE = {0, 0, 0, 1};
+    // High profile 1920x1080, level 4.0, start code included.
+    private static final byte[] SPS = {
+            0, 0, 0, 1, 0x67, 0x64, 0x00, 0x28, (byte) 0xad, (byte) 0x84, 0x3f, (byte) 0xff, (byte) 0x80,
+            (byte) 0xca, 0x50, 0x1e, 0x00, (byte) 0x89, (byte) 0xf9, 0x7f, (byte) 0xf0, 0x00, 0x10, 0x00,
+            0x16, (byte) 0xa0, 0x20, 0x20, 0x28, 0x00, 0x00, 0x03, 0x00, 0x08, 0x00, 0x00, 0x03, 0x01,
+            (byte) 0x97, 0x00, (byte) 0xc0, 0x00, 0x00, 0x3c, 0x22, 0x11, (byte) 0xa8
+    };
+
+    private final byte[] keyFrame;
+    private final byte[][] frames = new byte[FRAME_VARIANTS][];
+    private final int gop;
+    private long count = 0;
+
+    /**
+     * @param frameSize approximate size of a non-IDR frame; IDR frames are four times as large
+     */
+    public SyntheticStream(int frameSize, int gop, long seed) {
+        if (gop <= 0)
+            throw new IllegalArgumentException("GOP must be positive: " + gop);
+
+        this.gop = gop;
+        keyFrame = keyFrame(frameSize * 4, seed);
+        for (int i = 0; i < FRAME_VARIANTS; i++)
+            frames[i] = frame(frameSize, seed + i + 1);
+    }
+
+    /**
+     * The next access unit, starting with an IDR.
+     */
+    public byte[] next() {
+        long n = count++;
+        return n % gop == 0 ? keyFrame : frames[(int) (n % FRAME_VARIANTS)];
+    }
+
+    /**
+     * SPS, PPS and one IDR slice of about {@code size} bytes.
+     */
+    public static byte[] keyFrame(int size, long seed) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size + 64);
+        out.write(SPS, 0, SPS.length);
+        writeNalUnit(out, 0x68, 4, seed + 1);
+        writeNalUnit(out, 0x65, size - out.size() - 5, seed);
+        return out.toByteArray();
+    }
+
+    /**
+     * One non-IDR slice of about {@code size} bytes.
+     */
+    public static byte[] frame(int size, long seed) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(size + 16);
+        writeNalUnit(out, 0x41, size - 5, seed);
+        return out.toByteArray();
+    }
+
+    private static void writeNalUnit(ByteArrayOutputStream out, int header, int payload, long seed) {
+        Random random = new Random(seed);
+        out.write(START_CODE, 0, 4);
+        out.write(header);
+
+        // Leading one bit: a slice starts at first_mb_in_slice 0, one slice per picture.
+        out.write(random.nextInt(128) | 0x80);
+        int zeros = 0;
+        for (int i = 1; i < payload; i++) {
+            // Roughly one zero byte in sixteen, as in CABAC coded slice data.
+            int b = random.nextInt(16) == 0 ? 0 : random.nextInt(256);
+            if (zeros >= 2 && b <= 3) {
+                out.write(3);
+                zeros = 0;
+            }
+            out.write(b);
+            zeros = b == 0 ? zeros + 1 : 0;
+        }
+        // rbsp_stop_one_bit, so the unit never ends in a zero byte.
+        out.write(0x80);
+    }
+}
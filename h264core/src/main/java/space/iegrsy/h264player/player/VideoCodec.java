@@ -0,0 +1,54 @@
+package space.iegrsy.h264player.player;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The part of an asynchronous video decoder the decode pipeline talks to. On Android this is
+ * AndroidVideoCodec wrapping a MediaCodec in callback mode; on a plain JVM a
+ * {@link SimulatedVideoCodec} stands in for it. Instances come from a {@link VideoCodecFactory}.
+ */
+public interface VideoCodec {
+    /**
+     * Input buffer flag marking codec specific data (SPS/PPS), same value as MediaCodec's.
+     */
+    int BUFFER_FLAG_CODEC_CONFIG = 2;
+
+    /**
+     * Configures a stopped codec for {@code format}; required again after {@link #stop()}.
+     */
+    void configure(VideoFormat format);
+
+    /**
+     * Must be set before {@link #start()}. Callbacks arrive on a codec owned thread.
+     */
+    void setCallback(Callback callback);
+
+    void start();
+
+    void flush();
+
+    void stop();
+
+    void release();
+
+    ByteBuffer getInputBuffer(int index);
+
+    void queueInputBuffer(int index, int offset, int size, long presentationTimeUs, int flags);
+
+    void releaseOutputBuffer(int index, boolean render);
+
+    /**
+     * Renders the buffer at {@code renderTimestampNs} on the {@link System#nanoTime()} clock.
+     */
+    void releaseOutputBuffer(int index, long renderTimestampNs);
+
+    interface Callback {
+        void onInputBufferAvailable(int index);
+
+        void onOutputBufferAvailable(int index, long presentationTimeUs, int flags);
+
+        void onOutputFormatChanged(int width, int height);
+
+        void onError(Exception e);
+    }
+}
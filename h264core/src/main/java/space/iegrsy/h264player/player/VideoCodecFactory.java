@@ -0,0 +1,14 @@
+package space.iegrsy.h264player.player;
+
+import java.io.IOException;
+
+/**
+ * Creates the {@link VideoCodec} a decoder runs on: a MediaCodec on Android, a
+ * {@link SimulatedVideoCodec} for load tests on a plain JVM.
+ */
+public interface VideoCodecFactory {
+    /**
+     * Returns a codec configured for {@code format}, not yet started.
+     */
+    VideoCodec createDecoder(VideoFormat format) throws IOException;
+}
@@ -0,0 +1,87 @@
+package space.iegrsy.h264player.player;
+
+/**
+ * Platform independent decoder configuration derived from the stream's parameter sets. Codec
+ * implementations translate it into their own format, e.g. a MediaFormat on Android.
+ */
+public final class VideoFormat {
+    public static final String MIME_AVC = "video/avc";
+
+    private final String mime;
+    private final int width;
+    private final int height;
+    private final double frameRate;
+    private final StreamData.ParameterSets params;
+    private final SpsInfo info;
+
+    private VideoFormat(String mime, int width, int height, double frameRate, StreamData.ParameterSets params, SpsInfo info) {
+        this.mime = mime;
+        this.width = width;
+        this.height = height;
+        this.frameRate = frameRate;
+        this.params = params;
+        this.info = info;
+    }
+
+    /**
+     * Sizes the format from the parsed SPS; the defaults are only used when it can not be parsed
+     * or does not carry a frame rate.
+     */
+    public static VideoFormat of(String mime, StreamData.ParameterSets params, int defaultWidth, int defaultHeight, double defaultFrameRate) {
+        SpsInfo info = new SpsInfo();
+        if (!new SpsParser().parse(params.getSps(), info))
+            return new VideoFormat(mime, defaultWidth, defaultHeight, defaultFrameRate, params, null);
+
+        double frameRate = info.frameRate > 0 && info.frameRate <= 120 ? info.frameRate : defaultFrameRate;
+        return new VideoFormat(mime, info.width, info.height, frameRate, params, info);
+    }
+
+    public String getMime() {
+        return mime;
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getHeight() {
+        return height;
+    }
+
+    public double getFrameRate() {
+        return frameRate;
+    }
+
+    /**
+     * Parameter sets the format was made from, passed to the codec as its codec specific data.
+     */
+    public StreamData.ParameterSets getParameterSets() {
+        return params;
+    }
+
+    /**
+     * The parsed SPS, or null when only the defaults are known.
+     */
+    public SpsInfo getSpsInfo() {
+        return info;
+    }
+
+    /**
+     * Worst case of an uncompressed 4:2:0 picture of the coded size.
+     */
+    public int getMaxInputSize() {
+        return info != null ? info.codedWidth * info.codedHeight * 3 / 2 : width * height * 3 / 2;
+    }
+
+    /**
+     * True when the stream does not reorder, so frames may be output as soon as they are decoded.
+     */
+    public boolean isLowLatency() {
+        return info != null && info.maxNumReorderFrames == 0;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%s %sx%s@%.2f", mime, width, height, frameRate);
+    }
+}
@@ -0,0 +1,162 @@
+package space.iegrsy.h264player.player;
+
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class AccessUnitAssemblerTest {
+    private static final byte[] AUD = {0, 0, 0, 1, 0x09, (byte) 0xf0};
+    private static final byte[] SEI = {0, 0, 0, 1, 0x06, 0x05, 0x01, 0x00, (byte) 0x80};
+    private static final byte[] PPS = {0, 0, 0, 1, 0x68, (byte) 0xce};
+
+    private final BufferPool pool = new BufferPool(1024 * 1024, false);
+    private final PipelineMetrics metrics = new PipelineMetrics();
+    private final List<byte[]> units = new ArrayList<>();
+    private final List<Long> times = new ArrayList<>();
+    private final AccessUnitAssembler assembler = new AccessUnitAssembler(new AccessUnitAssembler.Listener() {
+        @Override
+        public void onAccessUnit(ScatterBuffer data, NalIndex nals, long ts, long receivedNs) {
+            ByteBuffer bytes = ByteBuffer.allocate(data.size());
+            data.copyTo(0, data.size(), bytes);
+            units.add(bytes.array());
+            times.add(ts);
+            assertEquals(NalIndex.of(bytes.array()).count(), nals.count());
+            data.release();
+        }
+    }, metrics);
+
+    @Test
+    public void handsOnWholeAccessUnitsRightAway() {
+        byte[] au = bytes(AUD, SpsParserTest.BASELINE_VGA, PPS, SEI, slice(0x65, 0));
+        add(au, 0);
+        assertEquals(1, units.size());
+        assertArrayEquals(au, units.get(0));
+
+        add(bytes(AUD, slice(0x41, 0)), 40);
+        assertEquals(2, units.size());
+        assertTrue(assembler.isAligned());
+    }
+
+    @Test
+    public void groupsNalUnitsSentOneByOne() {
+        add(SpsParserTest.BASELINE_VGA, 0);
+        add(PPS, 0);
+        assertEquals(0, units.size());
+        add(slice(0x65, 0), 0);
+        assertEquals(1, units.size());
+        assertEquals(3, NalIndex.of(units.get(0)).count());
+
+        // The second slice of the picture shows messages are not whole access units.
+        add(slice(0x65, 60), 0);
+        assertFalse(assembler.isAligned());
+        add(slice(0x41, 0), 40);
+        add(slice(0x41, 60), 40);
+        assertEquals(1, units.size());
+        add(slice(0x41, 0), 80);
+        assertEquals(2, units.size());
+        assertEquals(2, NalIndex.of(units.get(1)).count());
+        assertEquals(40L, (long) times.get(1));
+        assertEquals(1, metrics.snapshot(new StreamData(), new PipelineMetrics.Snapshot()).getFramesDropped());
+    }
+
+    @Test
+    public void splitsAccessUnitsInOneMessage() {
+        byte[] first = bytes(AUD, slice(0x65, 0), slice(0x65, 60));
+        byte[] second = bytes(AUD, slice(0x41, 0));
+        add(bytes(first, second), 0);
+
+        assertEquals(2, units.size());
+        assertArrayEquals(first, units.get(0));
+        assertArrayEquals(second, units.get(1));
+    }
+
+    @Test
+    public void acceptsThreeByteStartCodes() {
+        byte[] slice = slice(0x65, 0);
+        byte[] au = bytes(new byte[]{0, 0, 1, 0x09, (byte) 0xf0}, new byte[]{0, 0, 1, 0x68, (byte) 0xce},
+                ByteBuffer.allocate(slice.length - 1).put(slice, 1, slice.length - 1).array());
+        add(au, 0);
+
+        assertEquals(1, units.size());
+        NalIndex nals = NalIndex.of(units.get(0));
+        assertEquals(3, nals.count());
+        assertTrue(nals.isKeyFrame());
+    }
+
+    @Test
+    public void keepsOwnReferences() {
+        PooledBuffer lease = pool.acquire(16);
+        lease.buffer().put(SpsParserTest.BASELINE_VGA).flip();
+        ScatterBuffer data = ScatterBuffer.wrap(lease.buffer(), lease);
+        assembler.add(data, 0, 0);
+        data.release();
+        assertEquals(1, lease.refCnt());
+
+        assembler.reset();
+        assertEquals(0, lease.refCnt());
+    }
+
+    private void add(byte[] message, long ts) {
+        ScatterBuffer data = ScatterBuffer.wrap(ByteBuffer.wrap(message), null);
+        assembler.add(data, ts, 0);
+        data.release();
+    }
+
+    /**
+     * A slice of 64 bytes starting at macroblock {@code firstMb}, below 127.
+     */
+    private static byte[] slice(int header, int firstMb) {
+        BitWriter bits = new BitWriter();
+        bits.writeUE(firstMb);
+        bits.writeUE(firstMb == 0 ? 7 : 5);
+        ByteBuffer slice = ByteBuffer.allocate(64);
+        slice.put(new byte[]{0, 0, 0, 1, (byte) header}).put(bits.toByteArray());
+        while (slice.hasRemaining())
+            slice.put((byte) 0x55);
+        return slice.array();
+    }
+
+    private static byte[] bytes(byte[]... parts) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] part : parts)
+            out.write(part, 0, part.length);
+        return out.toByteArray();
+    }
+
+    private static final class BitWriter {
+        private final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        private int current;
+        private int bits;
+
+        void writeUE(int value) {
+            int code = value + 1;
+            int length = 32 - Integer.numberOfLeadingZeros(code);
+            for (int i = 0; i < length - 1; i++)
+                writeBit(0);
+            for (int i = length - 1; i >= 0; i--)
+                writeBit((code >> i) & 1);
+        }
+
+        private void writeBit(int bit) {
+            current = current << 1 | bit;
+            if (++bits == 8) {
+                out.write(current);
+                current = 0;
+                bits = 0;
+            }
+        }
+
+        byte[] toByteArray() {
+            // Stop bit and padding.
+            writeBit(1);
+            while (bits != 0)
+                writeBit(0);
+            return out.toByteArray();
+        }
+    }
+}
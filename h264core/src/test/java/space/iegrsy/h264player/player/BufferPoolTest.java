@@ -0,0 +1,64 @@
+package space.iegrsy.h264player.player;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolTest {
+    @Test
+    public void reusesReleasedBuffers() {
+        BufferPool pool = new BufferPool(1024 * 1024, true);
+
+        PooledBuffer first = pool.acquire(5000);
+        assertEquals(5000, first.buffer().limit());
+        assertEquals(8192, first.capacity());
+        assertTrue(first.buffer().isDirect());
+        first.release();
+
+        PooledBuffer second = pool.acquire(6000);
+        assertSame(first, second);
+        assertEquals(6000, second.buffer().limit());
+        assertEquals(1, pool.getHits());
+        assertEquals(1, pool.getMisses());
+    }
+
+    @Test
+    public void returnsToPoolOnLastRelease() {
+        BufferPool pool = new BufferPool(1024 * 1024, false);
+        PooledBuffer lease = pool.acquire(100);
+        lease.retain();
+
+        lease.release();
+        assertEquals(0, pool.getIdleBytes());
+        lease.release();
+        assertEquals(BufferPool.MIN_CLASS_SIZE, pool.getIdleBytes());
+
+        try {
+            lease.release();
+            fail("Double release must fail");
+        } catch (IllegalStateException expected) {
+        }
+    }
+
+    @Test
+    public void staysUnderMemoryCeiling() {
+        BufferPool pool = new BufferPool(16 * 1024, false);
+
+        PooledBuffer a = pool.acquire(8 * 1024);
+        PooledBuffer b = pool.acquire(8 * 1024);
+        PooledBuffer c = pool.acquire(8 * 1024);
+        assertTrue(a.isPooled());
+        assertTrue(b.isPooled());
+        assertFalse(c.isPooled());
+        assertEquals(1, pool.getOverflows());
+        assertEquals(16 * 1024, pool.getAllocatedBytes());
+
+        // Idle buffers of another class are trimmed to make room.
+        a.release();
+        b.release();
+        PooledBuffer d = pool.acquire(16 * 1024);
+        assertTrue(d.isPooled());
+        assertTrue(pool.getAllocatedBytes() <= pool.getMaxBytes());
+        c.release();
+    }
+}
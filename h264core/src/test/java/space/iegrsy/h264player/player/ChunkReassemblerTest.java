@@ -0,0 +1,176 @@
+package space.iegrsy.h264player.player;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+import static org.junit.Assert.*;
+
+public class ChunkReassemblerTest {
+    private final BufferPool pool = new BufferPool(1024 * 1024, false);
+
+    @Test
+    public void scansAcrossEverySplit() {
+        byte[] au = accessUnit();
+        NalIndex expected = NalIndex.of(au);
+        for (int a = 1; a < 40; a++) {
+            for (int b = a; b < 48; b += 3) {
+                ScatterBuffer data = scatter(au, a, b);
+                NalIndex nals = NalIndex.of(data);
+                assertEquals("split " + a + "/" + b, expected.count(), nals.count());
+                for (int i = 0; i < nals.count(); i++) {
+                    assertEquals(expected.offset(i), nals.offset(i));
+                    assertEquals(expected.length(i), nals.length(i));
+                    assertEquals(expected.type(i), nals.type(i));
+                }
+                data.release();
+            }
+        }
+    }
+
+    @Test
+    public void queuesChunksAsOneFrame() throws Exception {
+        StreamData data = new StreamData();
+        ChunkReassembler reassembler = new ChunkReassembler(data.getMetrics());
+        byte[] au = accessUnit();
+
+        List<PooledBuffer> chunks = chunks(au, 7, 30);
+        assertNull(reassembler.add(chunks.get(0), true, 40, 1000));
+        assertNull(reassembler.add(chunks.get(1), true, 40, 2000));
+        assertTrue(reassembler.hasPending());
+        ScatterBuffer frame = reassembler.add(chunks.get(2), false, 40, 5000);
+        assertFalse(reassembler.hasPending());
+        assertEquals(3, frame.partCount());
+
+        data.useFrameData(frame, 40, 5000);
+        StreamData.RAWFrame queued = data.pollFrame();
+        assertTrue(queued.isKeyFrame());
+        assertArrayEquals(SpsParserTest.BASELINE_VGA, data.getParameterSets().getSps());
+
+        ByteBuffer input = ByteBuffer.allocate(queued.size());
+        queued.copyTo(input);
+        assertArrayEquals(au, input.array());
+
+        queued.release();
+        for (PooledBuffer chunk : chunks)
+            assertEquals(0, chunk.refCnt());
+
+        PipelineMetrics.Snapshot snapshot = data.getMetrics().snapshot(data, new PipelineMetrics.Snapshot());
+        assertEquals(1, snapshot.getReassembly().getCount());
+        assertEquals(0, snapshot.getFramesDropped());
+    }
+
+    @Test
+    public void dropsFrameWithMissingChunk() {
+        StreamData data = new StreamData();
+        ChunkReassembler reassembler = new ChunkReassembler(data.getMetrics());
+        List<PooledBuffer> first = chunks(accessUnit(), 100);
+        List<PooledBuffer> second = chunks(accessUnit(), 100);
+
+        assertNull(reassembler.add(first.get(0), true, 40, 0));
+        // The next frame starts before the last chunk of this one came.
+        assertNull(reassembler.add(second.get(0), true, 80, 0));
+        assertEquals(0, first.get(0).refCnt());
+        assertEquals(1, reassembler.getIncompleteFrameCount());
+
+        ScatterBuffer frame = reassembler.add(second.get(1), false, 80, 0);
+        assertEquals(accessUnit().length, frame.size());
+        frame.release();
+
+        PipelineMetrics.Snapshot snapshot = data.getMetrics().snapshot(data, new PipelineMetrics.Snapshot());
+        assertEquals(1, snapshot.getFramesDropped());
+    }
+
+    @Test
+    public void verifiesChecksumsOnExecutor() throws Exception {
+        final List<Runnable> tasks = new ArrayList<>();
+        ChecksumVerifier verifier = new ChecksumVerifier(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                tasks.add(command);
+            }
+        });
+        PipelineMetrics metrics = new PipelineMetrics();
+        byte[] au = accessUnit();
+        PooledBuffer good = chunks(au).get(0);
+        PooledBuffer bad = chunks(au).get(0);
+
+        verifier.verify(good, md5(au), metrics);
+        verifier.verify(bad, md5(new byte[]{1}), metrics);
+        verifier.verify(bad, "", metrics);
+        // Held by the verifier until checked, and the payload's position is its holder's.
+        assertEquals(2, good.refCnt());
+        good.buffer().position(good.buffer().limit());
+
+        for (Runnable task : tasks)
+            task.run();
+        assertEquals(1, verifier.getVerifiedCount());
+        assertEquals(1, verifier.getFailedCount());
+        assertEquals(1, good.refCnt());
+        assertEquals(1, bad.refCnt());
+
+        StreamData data = new StreamData();
+        assertEquals(1, metrics.snapshot(data, new PipelineMetrics.Snapshot()).getChecksumFailures());
+    }
+
+    @Test
+    public void boundsPendingChecks() {
+        ChecksumVerifier verifier = new ChecksumVerifier(new Executor() {
+            @Override
+            public void execute(Runnable command) {
+                // Never runs.
+            }
+        });
+        PooledBuffer payload = chunks(accessUnit()).get(0);
+        for (int i = 0; i < ChecksumVerifier.MAX_PENDING + 5; i++)
+            verifier.verify(payload, md5(accessUnit()), new PipelineMetrics());
+
+        assertEquals(5, verifier.getSkippedCount());
+        assertEquals(1 + ChecksumVerifier.MAX_PENDING, payload.refCnt());
+    }
+
+    /**
+     * SPS, PPS and an IDR slice; the PPS has a three byte start code.
+     */
+    private static byte[] accessUnit() {
+        ByteBuffer au = ByteBuffer.allocate(SpsParserTest.BASELINE_VGA.length + 5 + 400);
+        au.put(SpsParserTest.BASELINE_VGA);
+        au.put(new byte[]{0, 0, 1, 0x68, (byte) 0xce});
+        au.put(new byte[]{0, 0, 0, 1, 0x65, (byte) 0x88});
+        while (au.hasRemaining())
+            au.put((byte) 0x55);
+        return au.array();
+    }
+
+    private List<PooledBuffer> chunks(byte[] data, int... splits) {
+        List<PooledBuffer> chunks = new ArrayList<>();
+        int from = 0;
+        for (int i = 0; i <= splits.length; i++) {
+            int to = i < splits.length ? splits[i] : data.length;
+            PooledBuffer chunk = pool.acquire(to - from);
+            chunk.buffer().put(data, from, to - from).flip();
+            chunks.add(chunk);
+            from = to;
+        }
+        return chunks;
+    }
+
+    private ScatterBuffer scatter(byte[] data, int... splits) {
+        return new ScatterBuffer(chunks(data, splits));
+    }
+
+    private static String md5(byte[] data) {
+        try {
+            StringBuilder hex = new StringBuilder();
+            for (byte b : MessageDigest.getInstance("MD5").digest(data))
+                hex.append(String.format("%02X", b));
+            return hex.toString();
+        } catch (Exception e) {
+            throw new AssertionError(e);
+        }
+    }
+}
@@ -0,0 +1,345 @@
+package space.iegrsy.h264player.player;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class DecodePipelineTest {
+    private StreamData data;
+    private FakeVideoCodec codec;
+    private DecodePipeline pipeline;
+    private Thread inputThread;
+
+    @Before
+    public void setUp() {
+        data = new StreamData();
+        codec = new FakeVideoCodec(4, 64);
+        pipeline = new DecodePipeline(codec, data);
+        pipeline.start();
+        inputThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pipeline.runInputStage();
+            }
+        });
+        inputThread.start();
+    }
+
+    @After
+    public void tearDown() throws InterruptedException {
+        pipeline.stop();
+        inputThread.join(1000);
+        codec.shutdown();
+    }
+
+    @Test
+    public void rendersEveryFrameInOrder() throws InterruptedException {
+        final int count = 100;
+        for (int i = 0; i < count; i++)
+            data.addFrame(frame(i, 32));
+
+        assertTrue(codec.awaitRendered(count, 2000));
+        for (int i = 0; i < count; i++)
+            assertEquals(Long.valueOf(i), codec.rendered.get(i));
+    }
+
+    @Test
+    public void wakesUpForFramesArrivingLater() throws InterruptedException {
+        Thread.sleep(50);
+        data.addFrame(frame(7, 32));
+
+        assertTrue(codec.awaitRendered(1, 2000));
+        assertEquals(Long.valueOf(7), codec.rendered.get(0));
+    }
+
+    @Test
+    public void skipsFramesLargerThanInputBuffer() throws InterruptedException {
+        data.addFrame(frame(1, 32));
+        data.addFrame(frame(2, 128));
+        data.addFrame(frame(3, 32));
+
+        assertTrue(codec.awaitRendered(2, 2000));
+        assertEquals(Long.valueOf(1), codec.rendered.get(0));
+        assertEquals(Long.valueOf(3), codec.rendered.get(1));
+    }
+
+    @Test
+    public void keepsInputBuffersOfDroppedFrames() throws InterruptedException {
+        // Every other frame is too large and dropped while the callback thread returns buffers.
+        final int count = 10000;
+        for (int i = 0; i < count; i++) {
+            while (data.getFrameCount() > 64)
+                Thread.yield();
+            data.addFrame(frame(i, i % 2 == 0 ? 128 : 32));
+        }
+
+        assertTrue(codec.awaitRendered(count / 2, 5000));
+        assertEquals(count / 2, data.getMetrics().snapshot(data, new PipelineMetrics.Snapshot()).getFramesDropped());
+    }
+
+    @Test
+    public void flushesCodecOnSeek() throws InterruptedException {
+        data.addFrame(frame(1, 32));
+        assertTrue(codec.awaitRendered(1, 2000));
+        assertEquals(0, codec.flushCount);
+
+        data.flush(StreamData.ANY_TS);
+        StreamData.RAWFrame frame = frame(2, 32);
+        frame.generation = 1;
+        data.addFrame(frame);
+
+        assertTrue(codec.awaitRendered(2, 2000));
+        assertEquals(Long.valueOf(2), codec.rendered.get(1));
+        assertEquals(1, codec.flushCount);
+        assertEquals(1, data.getMetrics().snapshot(data, new PipelineMetrics.Snapshot()).getCodecFlushes());
+    }
+
+    @Test
+    public void keepsStrippedNalUnitsAfterFlush() throws InterruptedException {
+        data.addFrame(stripped(1, 0));
+        assertTrue(codec.awaitRendered(1, 2000));
+
+        data.flush(StreamData.ANY_TS);
+        data.addFrame(stripped(2, 1));
+        data.addFrame(stripped(3, 1));
+
+        assertTrue(codec.awaitRendered(3, 2000));
+        assertEquals(Arrays.asList(16, 48, 16), codec.inputSizes);
+    }
+
+    @Test
+    public void drainsOutputBurstOnRenderThread() throws InterruptedException {
+        Thread outputThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pipeline.runOutputStage();
+            }
+        }, "render");
+        outputThread.start();
+        codec.holdOutputs = true;
+        for (int i = 0; i < 4; i++)
+            data.addFrame(frame(i, 32));
+
+        PipelineMetrics.Snapshot snapshot = new PipelineMetrics.Snapshot();
+        long deadline = System.currentTimeMillis() + 2000;
+        while (data.getMetrics().snapshot(data, snapshot).getFramesFed() < 4 && System.currentTimeMillis() < deadline)
+            Thread.sleep(1);
+        assertEquals(4, snapshot.getCodecInFlight());
+
+        codec.releaseHeldOutputs();
+        assertTrue(codec.awaitRendered(4, 2000));
+        assertEquals(Arrays.asList("render", "render", "render", "render"), codec.renderThreads);
+        data.getMetrics().snapshot(data, snapshot);
+        assertEquals(0, snapshot.getCodecInFlight());
+        assertEquals(4, snapshot.getCodecInFlightPeak());
+
+        pipeline.stop();
+        outputThread.join(1000);
+        assertFalse(outputThread.isAlive());
+    }
+
+    @Test
+    public void stopEndsInputStage() throws InterruptedException {
+        pipeline.stop();
+        inputThread.join(1000);
+        assertFalse(inputThread.isAlive());
+    }
+
+    @Test
+    public void feedsChangedParameterSetsInBand() throws InterruptedException {
+        StreamData.ParameterSets first = params(SpsParserTest.BASELINE_VGA, 1);
+        StreamData.ParameterSets second = params(SpsParserTest.BASELINE_VGA, 2);
+        data.addFrame(frame(1, 32, first, true));
+        data.addFrame(frame(2, 32, second, false));
+
+        assertTrue(codec.awaitRendered(2, 2000));
+        assertEquals(1, codec.configSizes.size());
+        assertEquals(Integer.valueOf(second.size()), codec.configSizes.get(0));
+        assertEquals(0, codec.stopCount);
+    }
+
+    @Test
+    public void reconfiguresOnFormatChangeAndResumesAtKeyFrame() throws InterruptedException {
+        final List<StreamData.ParameterSets> configured = new CopyOnWriteArrayList<>();
+        pipeline.setListener(new DecodePipeline.Listener() {
+            @Override
+            public void onOutputFormatChanged(int width, int height) {
+            }
+
+            @Override
+            public void onFirstFrameRendered() {
+            }
+
+            @Override
+            public boolean onReconfigure(StreamData.ParameterSets params) {
+                configured.add(params);
+                return true;
+            }
+
+            @Override
+            public void onError(Exception e) {
+            }
+        });
+
+        StreamData.ParameterSets vga = params(SpsParserTest.BASELINE_VGA, 1);
+        StreamData.ParameterSets hd = params(SpsParserTest.HIGH_1080, 2);
+        data.addFrame(frame(1, 32, vga, true));
+        data.addFrame(frame(2, 32, vga, false));
+        data.addFrame(frame(3, 32, hd, false));
+        data.addFrame(frame(4, 32, hd, true));
+        data.addFrame(frame(5, 32, hd, false));
+
+        assertTrue(codec.awaitRendered(4, 2000));
+        assertEquals(Arrays.asList(1L, 2L, 4L, 5L), new ArrayList<>(codec.rendered));
+        assertEquals(1, codec.stopCount);
+        assertEquals(Collections.singletonList(hd), configured);
+        assertTrue(codec.configSizes.isEmpty());
+    }
+
+    @Test
+    public void scheduledPipelinesShareOneThread() throws InterruptedException {
+        ExecutorService scheduler = Executors.newSingleThreadExecutor();
+        ExecutorService setup = Executors.newSingleThreadExecutor();
+        StreamData[] streams = new StreamData[3];
+        FakeVideoCodec[] codecs = new FakeVideoCodec[streams.length];
+        DecodePipeline[] pipelines = new DecodePipeline[streams.length];
+        for (int i = 0; i < streams.length; i++) {
+            streams[i] = new StreamData();
+            codecs[i] = new FakeVideoCodec(2, 64);
+            pipelines[i] = new DecodePipeline(codecs[i], streams[i]);
+            pipelines[i].attach(scheduler, setup);
+            pipelines[i].start();
+        }
+
+        final int count = 50;
+        for (int n = 0; n < count; n++)
+            for (StreamData stream : streams)
+                stream.addFrame(frame(n, 32));
+
+        try {
+            for (int i = 0; i < streams.length; i++) {
+                assertTrue(codecs[i].awaitRendered(count, 2000));
+                for (int n = 0; n < count; n++)
+                    assertEquals(Long.valueOf(n), codecs[i].rendered.get(n));
+                assertTrue(pipelines[i].getRenderedFrameCount() > 0);
+
+                pipelines[i].stop();
+                assertTrue(pipelines[i].awaitStopped(1, TimeUnit.SECONDS));
+            }
+        } finally {
+            for (FakeVideoCodec c : codecs)
+                c.shutdown();
+            scheduler.shutdown();
+            setup.shutdown();
+        }
+    }
+
+    @Test
+    public void scheduledPipelineRestartsCodecOnSetupExecutor() throws InterruptedException {
+        ExecutorService scheduler = Executors.newSingleThreadExecutor(named("input"));
+        ExecutorService setup = Executors.newSingleThreadExecutor(named("setup"));
+        StreamData stream = new StreamData();
+        FakeVideoCodec scheduledCodec = new FakeVideoCodec(2, 64);
+        DecodePipeline scheduled = new DecodePipeline(scheduledCodec, stream, params(SpsParserTest.BASELINE_VGA, 1));
+        final List<String> configured = new CopyOnWriteArrayList<>();
+        scheduled.setListener(new DecodePipeline.Listener() {
+            @Override
+            public void onOutputFormatChanged(int width, int height) {
+            }
+
+            @Override
+            public void onFirstFrameRendered() {
+            }
+
+            @Override
+            public boolean onReconfigure(StreamData.ParameterSets params) {
+                configured.add(Thread.currentThread().getName());
+                return true;
+            }
+
+            @Override
+            public void onError(Exception e) {
+            }
+        });
+        scheduled.attach(scheduler, setup);
+        scheduled.start();
+
+        try {
+            stream.addFrame(frame(1, 32));
+            assertTrue(scheduledCodec.awaitRendered(1, 2000));
+            stream.flush(StreamData.ANY_TS);
+            StreamData.RAWFrame frame = frame(2, 32, params(SpsParserTest.HIGH_1080, 2), true);
+            frame.generation = 1;
+            stream.addFrame(frame);
+
+            assertTrue(scheduledCodec.awaitRendered(2, 2000));
+            assertEquals(Arrays.asList(1L, 2L), new ArrayList<>(scheduledCodec.rendered));
+            assertEquals(Arrays.asList("setup", "setup"), scheduledCodec.restartThreads);
+            assertEquals(Collections.singletonList("setup"), configured);
+
+            scheduled.stop();
+            assertTrue(scheduled.awaitStopped(1, TimeUnit.SECONDS));
+        } finally {
+            scheduledCodec.shutdown();
+            scheduler.shutdown();
+            setup.shutdown();
+        }
+    }
+
+    private static ThreadFactory named(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable r) {
+                return new Thread(r, name);
+            }
+        };
+    }
+
+    private static StreamData.ParameterSets params(byte[] sps, int version) {
+        return new StreamData.ParameterSets(sps, new byte[]{0, 0, 0, 1, 0x68, (byte) version}, version);
+    }
+
+    private static StreamData.RAWFrame frame(int id, int size, StreamData.ParameterSets params, boolean keyFrame) {
+        StreamData.RAWFrame frame = frame(id, size);
+        frame.params = params;
+        frame.nals = NalIndex.of(new byte[]{0, 0, 0, 1, (byte) (keyFrame ? 0x65 : 0x41), 1});
+        return frame;
+    }
+
+    /**
+     * Two SEI and a slice of 16 bytes each, the SEI stripped.
+     */
+    private static StreamData.RAWFrame stripped(int id, int generation) {
+        byte[] payload = new byte[48];
+        Arrays.fill(payload, (byte) 0x55);
+        for (int i = 0; i < 3; i++)
+            System.arraycopy(new byte[]{0, 0, 0, 1, (byte) (i < 2 ? 0x06 : 0x41)}, 0, payload, i * 16, 5);
+        StreamData.RAWFrame frame = new StreamData.RAWFrame(id);
+        frame.frameData = ByteBuffer.wrap(payload);
+        frame.nals = NalIndex.of(payload);
+        frame.generation = generation;
+        frame.strip(0x3);
+        return frame;
+    }
+
+    private static StreamData.RAWFrame frame(int id, int size) {
+        StreamData.RAWFrame frame = new StreamData.RAWFrame(id);
+        byte[] payload = new byte[size];
+        payload[0] = (byte) id;
+        frame.frameData = ByteBuffer.wrap(payload);
+        return frame;
+    }
+}
@@ -0,0 +1,159 @@
+package space.iegrsy.h264player.player;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * In-memory {@link VideoCodec}. Every queued input comes back as one output buffer; rendering an
+ * output records the first payload byte of its input. Codec config inputs are only recorded.
+ * Callbacks run on a single thread like a MediaCodec handler thread. With {@link #holdOutputs}
+ * set, outputs are kept back until {@link #releaseHeldOutputs()} puts them out in one burst.
+ */
+class FakeVideoCodec implements VideoCodec {
+    private final ByteBuffer[] inputs;
+    private final ExecutorService callbackThread = Executors.newSingleThreadExecutor();
+    private final Map<Integer, Long> outputs = new ConcurrentHashMap<>();
+    private int nextOutput = 0;
+    private volatile Callback callback;
+
+    final List<Long> rendered = Collections.synchronizedList(new ArrayList<Long>());
+    final List<Integer> configSizes = Collections.synchronizedList(new ArrayList<Integer>());
+    final List<Integer> inputSizes = Collections.synchronizedList(new ArrayList<Integer>());
+    volatile int stopCount = 0;
+    volatile int flushCount = 0;
+    volatile boolean holdOutputs = false;
+    final List<String> renderThreads = Collections.synchronizedList(new ArrayList<String>());
+    // Threads that stopped or flushed the codec.
+    final List<String> restartThreads = Collections.synchronizedList(new ArrayList<String>());
+    private final List<Runnable> heldOutputs = new ArrayList<>();
+
+    FakeVideoCodec(int inputCount, int inputSize) {
+        inputs = new ByteBuffer[inputCount];
+        for (int i = 0; i < inputCount; i++)
+            inputs[i] = ByteBuffer.allocate(inputSize);
+    }
+
+    @Override
+    public void configure(VideoFormat format) {
+    }
+
+    @Override
+    public void setCallback(Callback callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public void start() {
+        for (int i = 0; i < inputs.length; i++)
+            postInputAvailable(i);
+    }
+
+    @Override
+    public void flush() {
+        flushCount++;
+        restartThreads.add(Thread.currentThread().getName());
+    }
+
+    @Override
+    public void stop() {
+        stopCount++;
+        restartThreads.add(Thread.currentThread().getName());
+    }
+
+    @Override
+    public void release() {
+        callbackThread.shutdownNow();
+    }
+
+    @Override
+    public ByteBuffer getInputBuffer(int index) {
+        return inputs[index];
+    }
+
+    @Override
+    public void queueInputBuffer(final int index, int offset, int size, final long presentationTimeUs, final int flags) {
+        if ((flags & BUFFER_FLAG_CODEC_CONFIG) != 0) {
+            configSizes.add(size);
+            postInputAvailable(index);
+            return;
+        }
+
+        inputSizes.add(size);
+        final int output = nextOutput++;
+        outputs.put(output, inputs[index].get(offset) & 0xffL);
+        Runnable available = new Runnable() {
+            @Override
+            public void run() {
+                callback.onOutputBufferAvailable(output, presentationTimeUs, flags);
+            }
+        };
+        synchronized (heldOutputs) {
+            if (holdOutputs)
+                heldOutputs.add(available);
+            else
+                callbackThread.execute(available);
+        }
+        postInputAvailable(index);
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, boolean render) {
+        Long value = outputs.remove(index);
+        if (render && value != null) {
+            rendered.add(value);
+            renderThreads.add(Thread.currentThread().getName());
+        }
+    }
+
+    void releaseHeldOutputs() {
+        final List<Runnable> burst;
+        synchronized (heldOutputs) {
+            holdOutputs = false;
+            burst = new ArrayList<>(heldOutputs);
+            heldOutputs.clear();
+        }
+        callbackThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                for (Runnable available : burst)
+                    available.run();
+            }
+        });
+    }
+
+    @Override
+    public void releaseOutputBuffer(int index, long renderTimestampNs) {
+        releaseOutputBuffer(index, true);
+    }
+
+    boolean awaitRendered(int count, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (rendered.size() < count) {
+            if (System.currentTimeMillis() > deadline)
+                return false;
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    void shutdown() throws InterruptedException {
+        callbackThread.shutdown();
+        callbackThread.awaitTermination(1, TimeUnit.SECONDS);
+    }
+
+    private void postInputAvailable(final int index) {
+        callbackThread.execute(new Runnable() {
+            @Override
+            public void run() {
+                callback.onInputBufferAvailable(index);
+            }
+        });
+    }
+}
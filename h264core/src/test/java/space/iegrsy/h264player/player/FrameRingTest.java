@@ -0,0 +1,76 @@
+package space.iegrsy.h264player.player;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class FrameRingTest {
+    @Test
+    public void pollReturnsInOfferOrder() {
+        FrameRing<Integer> ring = new FrameRing<>(4);
+        assertNull(ring.poll());
+
+        for (int i = 0; i < 3; i++)
+            assertTrue(ring.offer(i));
+
+        assertEquals(3, ring.size());
+        for (int i = 0; i < 3; i++)
+            assertEquals(Integer.valueOf(i), ring.poll());
+        assertNull(ring.poll());
+        assertTrue(ring.isEmpty());
+    }
+
+    @Test
+    public void dropNewestRejectsWhenFull() {
+        FrameRing<Integer> ring = new FrameRing<>(3, FrameRing.OverflowPolicy.DROP_NEWEST);
+        for (int i = 0; i < 3; i++)
+            assertTrue(ring.offer(i));
+
+        assertFalse(ring.offer(3));
+        assertEquals(1, ring.getDroppedCount());
+        assertEquals(Integer.valueOf(0), ring.poll());
+    }
+
+    @Test
+    public void dropOldestEvictsHead() {
+        FrameRing<Integer> ring = new FrameRing<>(3, FrameRing.OverflowPolicy.DROP_OLDEST);
+        for (int i = 0; i < 5; i++)
+            assertTrue(ring.offer(i));
+
+        assertEquals(3, ring.size());
+        assertEquals(2, ring.getDroppedCount());
+        assertEquals(Integer.valueOf(2), ring.poll());
+        assertEquals(Integer.valueOf(3), ring.poll());
+        assertEquals(Integer.valueOf(4), ring.poll());
+        assertNull(ring.poll());
+    }
+
+    @Test
+    public void concurrentHandoffKeepsOrder() throws InterruptedException {
+        final int count = 200000;
+        final FrameRing<Integer> ring = new FrameRing<>(64, FrameRing.OverflowPolicy.DROP_OLDEST);
+
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                for (int i = 0; i < count; i++)
+                    ring.offer(i);
+            }
+        });
+        producer.start();
+
+        int last = -1;
+        int received = 0;
+        while (producer.isAlive() || !ring.isEmpty()) {
+            Integer value = ring.poll();
+            if (value == null)
+                continue;
+            assertTrue(value > last);
+            last = value;
+            received++;
+        }
+        producer.join();
+
+        assertEquals(count, received + ring.getDroppedCount());
+    }
+}
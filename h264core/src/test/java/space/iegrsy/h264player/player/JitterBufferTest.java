@@ -0,0 +1,80 @@
+package space.iegrsy.h264player.player;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class JitterBufferTest {
+    private static final long MS = 1000000L;
+
+    private long now = 1000 * MS;
+    private final JitterBuffer jitter = new JitterBuffer(new JitterBuffer.Clock() {
+        @Override
+        public long nanoTime() {
+            return now;
+        }
+    });
+
+    @Test
+    public void mapsTimestampsToIncreasingPts() {
+        assertEquals(0, jitter.onFrameArrived(5000));
+        assertEquals(40000, jitter.onFrameArrived(5040));
+
+        // Going back in time restarts the mapping without going back in pts.
+        long pts = jitter.onFrameArrived(1000);
+        assertTrue(pts > 40000);
+        assertEquals(pts + 40000, jitter.onFrameArrived(1040));
+    }
+
+    @Test
+    public void rendersSteadyStreamAtMinimumDelay() {
+        for (int i = 0; i < 50; i++) {
+            long pts = jitter.onFrameArrived(i * 40);
+            assertEquals(now + JitterBuffer.DEFAULT_MIN_DELAY_MS * MS, jitter.renderTimeNs(pts));
+            now += 40 * MS;
+        }
+        assertEquals(JitterBuffer.DEFAULT_MIN_DELAY_MS, jitter.getTargetDelayMs());
+    }
+
+    @Test
+    public void delayGrowsWithJitter() {
+        for (int i = 0; i < 100; i++) {
+            jitter.onFrameArrived(i * 40);
+            now += (i % 2 == 0 ? 10 : 70) * MS;
+        }
+        assertTrue(jitter.getJitterMs() > 10);
+        assertTrue(jitter.getTargetDelayMs() > JitterBuffer.DEFAULT_MIN_DELAY_MS);
+        assertTrue(jitter.getTargetDelayMs() <= JitterBuffer.DEFAULT_MAX_DELAY_MS);
+    }
+
+    @Test
+    public void fastPlayCompressesStreamTime() {
+        jitter.setRate(8);
+        for (int i = 0; i < 50; i++) {
+            long pts = jitter.onFrameArrived(i * 320);
+            assertEquals(i * 40000, pts);
+            assertEquals(now + JitterBuffer.DEFAULT_MIN_DELAY_MS * MS, jitter.renderTimeNs(pts));
+            now += 40 * MS;
+        }
+    }
+
+    @Test
+    public void restartsMappingAfterSeek() {
+        jitter.onFrameArrived(1000);
+        long pts = jitter.onFrameArrived(1040);
+        now += 40 * MS;
+
+        // A short seek forward, arriving right away.
+        jitter.restart();
+        long seeked = jitter.onFrameArrived(3000);
+        assertTrue(seeked > pts);
+        assertEquals(now + JitterBuffer.DEFAULT_MIN_DELAY_MS * MS, jitter.renderTimeNs(seeked));
+    }
+
+    @Test
+    public void lateFramesRenderImmediately() {
+        long pts = jitter.onFrameArrived(0);
+        now += 500 * MS;
+        assertEquals(now, jitter.renderTimeNs(pts));
+    }
+}
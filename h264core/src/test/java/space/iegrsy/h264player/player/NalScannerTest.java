@@ -0,0 +1,83 @@
+package space.iegrsy.h264player.player;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class NalScannerTest {
+    @Test
+    public void findsThreeAndFourByteStartCodes() {
+        byte[] data = {9, 9, 0, 0, 1, 0x65, 9, 0, 0, 0, 1, 0x41, 9};
+        assertEquals(2, NalScanner.findStartCode(data, 0, data.length));
+        assertEquals(7, NalScanner.findStartCode(data, 3, data.length));
+        assertEquals(3, NalScanner.startCodeLength(ByteBuffer.wrap(data), 2, data.length));
+        assertEquals(4, NalScanner.startCodeLength(ByteBuffer.wrap(data), 7, data.length));
+    }
+
+    @Test
+    public void neverReadsPastRange() {
+        byte[] data = {1, 1, 1, 1, 1, 1, 1, 1, 1, 0, 0};
+        assertEquals(-1, NalScanner.findStartCode(data, 0, data.length));
+        assertEquals(-1, NalScanner.findStartCode(data, 0, 0));
+        assertEquals(-1, NalScanner.findStartCode(new byte[]{0, 0, 1}, 0, 2));
+        assertEquals(0, NalScanner.findStartCode(new byte[]{0, 0, 1}, 0, 3));
+        assertEquals(-1, NalScanner.findStartCode(new byte[]{0, 0}, 0, 2));
+    }
+
+    @Test
+    public void findsParameterSets() {
+        byte[] data = {0, 0, 0, 1, 0x67, 1, 2, 0, 0, 1, 0x68, 3, 0, 0, 0, 1, 0x65, 4, 5};
+        assertArrayEquals(new byte[]{0, 0, 0, 1, 0x67, 1, 2}, NalScanner.copyNalUnit(data, NalIndex.TYPE_SPS));
+        assertArrayEquals(new byte[]{0, 0, 1, 0x68, 3}, NalScanner.copyNalUnit(data, NalIndex.TYPE_PPS));
+        assertNull(NalScanner.copyNalUnit(data, NalIndex.TYPE_SEI));
+    }
+
+    @Test
+    public void matchesNaiveScanOnHeapAndDirectBuffers() {
+        Random random = new Random(42);
+        for (int round = 0; round < 500; round++) {
+            byte[] data = new byte[random.nextInt(200)];
+            for (int i = 0; i < data.length; i++)
+                data[i] = (byte) (random.nextInt(4) == 0 ? random.nextInt(2) : random.nextInt(256));
+
+            ByteBuffer direct = ByteBuffer.allocateDirect(data.length);
+            direct.put(data);
+            int from = data.length == 0 ? 0 : random.nextInt(data.length);
+
+            int expected = naive(data, from);
+            assertEquals(expected, NalScanner.findStartCode(data, from, data.length));
+            assertEquals(expected, NalScanner.findStartCode(direct, from, data.length));
+        }
+    }
+
+    private static int naive(byte[] data, int from) {
+        for (int i = from; i + 2 < data.length; i++)
+            if (data[i] == 0 && data[i + 1] == 0 && data[i + 2] == 1)
+                return i > from && data[i - 1] == 0 ? i - 1 : i;
+        return -1;
+    }
+
+    @Test
+    public void indexesEveryNalUnitOnce() {
+        byte[] data = {0, 0, 0, 1, 0x67, 1, 2, 0, 0, 1, 0x68, 3, 0, 0, 0, 1, 0x65, 4, 5, 0, 0, 1, 0x01, 6};
+        NalIndex nals = NalIndex.of(data);
+
+        assertEquals(4, nals.count());
+        assertEquals(NalIndex.TYPE_SPS, nals.type(0));
+        assertEquals(0, nals.offset(0));
+        assertEquals(7, nals.length(0));
+        assertEquals(4, nals.headerOffset(0));
+        assertEquals(NalIndex.TYPE_PPS, nals.type(1));
+        assertEquals(10, nals.headerOffset(1));
+        assertEquals(NalIndex.TYPE_IDR, nals.type(2));
+        assertEquals(3, nals.refIdc(2));
+        assertEquals(0, nals.refIdc(3));
+        assertEquals(data.length - 19, nals.length(3));
+        assertTrue(nals.isKeyFrame());
+        assertTrue(nals.isReference());
+        assertEquals(-1, nals.find(NalIndex.TYPE_SEI));
+    }
+}
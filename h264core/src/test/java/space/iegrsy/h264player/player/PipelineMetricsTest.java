@@ -0,0 +1,66 @@
+package space.iegrsy.h264player.player;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PipelineMetricsTest {
+    @Test
+    public void histogramPercentilesStayWithinBucket() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 1; i <= 100; i++)
+            histogram.record(i * 1000000L); // 1..100 ms
+
+        LatencyHistogram.Snapshot snapshot = histogram.snapshot(new LatencyHistogram.Snapshot());
+        assertEquals(100, snapshot.getCount());
+        assertEquals(100000, snapshot.getMaxUs());
+        assertEquals(50500, snapshot.getMeanUs());
+
+        long p50 = snapshot.getPercentileUs(0.5);
+        assertTrue(p50 >= 50000 && p50 < 2 * 50000);
+        assertEquals(100000, snapshot.getPercentileUs(1.0));
+        assertEquals(0, new LatencyHistogram.Snapshot().getPercentileUs(0.5));
+    }
+
+    @Test
+    public void bucketsArePowersOfTwo() {
+        assertEquals(0, LatencyHistogram.bucketOf(0));
+        assertEquals(0, LatencyHistogram.bucketOf(1));
+        assertEquals(1, LatencyHistogram.bucketOf(2));
+        assertEquals(1, LatencyHistogram.bucketOf(3));
+        assertEquals(10, LatencyHistogram.bucketOf(1024));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketOf(Long.MAX_VALUE));
+    }
+
+    @Test
+    public void pairsCodecInputWithRenderByPresentationTime() {
+        PipelineMetrics metrics = new PipelineMetrics();
+        metrics.onFrameFed(0, 33333, 1000000);
+        metrics.onFrameFed(0, 66666, 2000000);
+        metrics.onFrameDecoded(66666, 7000000);
+        metrics.onFrameRendered(66666, 12000000);
+        metrics.onFrameRendered(33333, 21000000);
+        metrics.onFrameRendered(99999, 30000000); // never fed
+
+        PipelineMetrics.Snapshot snapshot = metrics.snapshot(new StreamData(), new PipelineMetrics.Snapshot());
+        assertEquals(2, snapshot.getFramesFed());
+        assertEquals(3, snapshot.getFramesRendered());
+        assertEquals(2, snapshot.getInputToRender().getCount());
+        assertEquals(20000, snapshot.getInputToRender().getMaxUs());
+        assertEquals(1, snapshot.getInputToOutput().getCount());
+        assertEquals(5000, snapshot.getInputToOutput().getSumUs());
+    }
+
+    @Test
+    public void countsFramesDroppedBeforeFirstKeyFrame() throws Exception {
+        StreamData data = new StreamData();
+        data.useFrameData(new byte[]{0, 0, 0, 1, 0x41, 1}, 0); // before any IDR
+
+        PipelineMetrics.Snapshot snapshot = data.getMetrics().snapshot(data, new PipelineMetrics.Snapshot());
+        assertEquals(1, snapshot.getFramesReceived());
+        assertEquals(6, snapshot.getBytesReceived());
+        assertEquals(0, snapshot.getFramesQueued());
+        assertEquals(1, snapshot.getFramesDropped());
+        assertEquals(0, snapshot.getQueueDepth());
+    }
+}
@@ -0,0 +1,48 @@
+package space.iegrsy.h264player.player;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class PlaybackControllerTest {
+    // 30 fps, one second GOPs.
+    private static final StreamData.GopInfo HALF_REFERENCE = new StreamData.GopInfo(30, 15, 1000);
+    private static final StreamData.GopInfo THIRD_REFERENCE = new StreamData.GopInfo(30, 10, 1000);
+
+    private final PlaybackController controller = new PlaybackController(120);
+
+    @Test
+    public void normalSpeedDecodesEveryFrame() {
+        assertEquals(FrameFilter.ALL, controller.setSpeed(1, null));
+        assertEquals(FrameFilter.ALL, controller.onGop(HALF_REFERENCE));
+    }
+
+    @Test
+    public void picksLoosestFilterWithinBudget() {
+        assertEquals(FrameFilter.ALL, controller.setSpeed(4, HALF_REFERENCE));
+        assertEquals(FrameFilter.REFERENCE_ONLY, controller.setSpeed(8, HALF_REFERENCE));
+        assertEquals(FrameFilter.KEY_FRAMES_ONLY, controller.setSpeed(32, HALF_REFERENCE));
+        assertEquals(32.0, controller.getDecodeRate(FrameFilter.KEY_FRAMES_ONLY, HALF_REFERENCE), 1e-9);
+    }
+
+    @Test
+    public void playsKeyFramesOnlyUntilGopKnown() {
+        assertEquals(FrameFilter.KEY_FRAMES_ONLY, controller.setSpeed(2, null));
+        assertEquals(FrameFilter.ALL, controller.onGop(HALF_REFERENCE));
+    }
+
+    @Test
+    public void loosensOnlyWithHeadroom() {
+        assertEquals(FrameFilter.KEY_FRAMES_ONLY, controller.setSpeed(8, null));
+        // Reference frames would take the whole budget.
+        assertEquals(FrameFilter.KEY_FRAMES_ONLY, controller.onGop(HALF_REFERENCE));
+        assertEquals(FrameFilter.REFERENCE_ONLY, controller.onGop(THIRD_REFERENCE));
+        // Staying costs the whole budget.
+        assertEquals(FrameFilter.REFERENCE_ONLY, controller.onGop(HALF_REFERENCE));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsSpeedOutOfRange() {
+        controller.setSpeed(PlaybackController.MAX_SPEED + 1, HALF_REFERENCE);
+    }
+}
@@ -0,0 +1,184 @@
+package space.iegrsy.h264player.player;
+
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+
+import static org.junit.Assert.*;
+
+public class QualityControllerTest {
+    // Bits per second of the stream at each level.
+    private static final long[] BITRATES = {4000000, 2000000, 1000000, 500000, 250000};
+    private static final int FPS = 25;
+
+    @Test
+    public void staysAtBestOnFastLink() {
+        Simulation sim = new Simulation(0);
+        sim.run(60000, 8000000);
+        assertEquals(0, sim.controller.getLevel());
+        assertEquals(0, sim.maxLevel);
+    }
+
+    @Test
+    public void stepsDownOnSlowLinkAndProbesBackUp() {
+        Simulation sim = new Simulation(0);
+        sim.run(30000, 8000000);
+        assertEquals(0, sim.controller.getLevel());
+
+        // 1.5 Mbit/s carries level 2 but not level 1.
+        sim.run(120000, 1500000);
+        assertEquals(2, sim.controller.getLevel());
+        assertTrue(sim.maxLevel <= 3);
+
+        sim.run(400000, 8000000);
+        assertEquals(0, sim.controller.getLevel());
+    }
+
+    @Test
+    public void backsOffFailedProbes() {
+        Simulation sim = new Simulation(2);
+        sim.run(600000, 1500000);
+        assertEquals(2, sim.controller.getLevel());
+        // Probe holds double from 10 s up to two minutes: far fewer than one probe per 10 s.
+        assertTrue("probes " + sim.probes, sim.probes > 0 && sim.probes <= 12);
+    }
+
+    @Test
+    public void stepsDownWhenDecoderFallsBehind() {
+        QualityController controller = new QualityController(0);
+        PipelineMetrics.Snapshot previous = snapshot(1000, 1000);
+        PipelineMetrics.Snapshot current = snapshot(2000, 2000);
+        current.queueDepth = 40;
+        assertEquals(0, controller.onSample(current, previous));
+
+        previous = current;
+        current = snapshot(3000, 3000);
+        current.queueDepth = 60;
+        assertEquals(1, controller.onSample(current, previous));
+        assertTrue(controller.getReason().startsWith("decoder behind"));
+    }
+
+    @Test
+    public void tellsJitterDelayFromDecodeLatency() {
+        // A fast codec behind 300 ms of jitter delay, under its own limit, is no decode problem.
+        QualityController controller = new QualityController(0);
+        PipelineMetrics metrics = new PipelineMetrics();
+        PipelineMetrics.Snapshot previous = sample(metrics, 1, 5, 300);
+        for (int s = 2; s <= 10; s++) {
+            PipelineMetrics.Snapshot current = sample(metrics, s, 5, 300);
+            assertEquals(0, controller.onSample(current, previous));
+            previous = current;
+        }
+
+        // A codec taking 300 ms a frame is.
+        previous = sample(metrics, 11, 300, 300);
+        PipelineMetrics.Snapshot current = sample(metrics, 12, 300, 300);
+        controller.onSample(current, previous);
+        assertEquals(1, controller.onSample(sample(metrics, 13, 300, 300), current));
+        assertTrue(controller.getReason(), controller.getReason().startsWith("decode latency"));
+    }
+
+    @Test
+    public void keepsToLevelRange() {
+        QualityController controller = new QualityController(4, 1, 3);
+        assertEquals(3, controller.getLevel());
+
+        Simulation sim = new Simulation(controller);
+        sim.run(300000, 8000000);
+        assertEquals(1, controller.getLevel());
+    }
+
+    /**
+     * Second {@code s} of real-time play: a second of frames through {@code metrics}, each
+     * decoded {@code decodeMs} after input and rendered {@code jitterMs} later.
+     */
+    private static PipelineMetrics.Snapshot sample(PipelineMetrics metrics, int s, long decodeMs, long jitterMs) {
+        for (int i = 0; i < FPS; i++) {
+            final long ptsUs = (s * FPS + i) * 1000000L / FPS;
+            final long inputNs = ptsUs * 1000;
+            metrics.onFrameFed(inputNs, ptsUs, inputNs);
+            metrics.onFrameDecoded(ptsUs, inputNs + decodeMs * 1000000L);
+            metrics.onFrameRendered(ptsUs, inputNs + (decodeMs + jitterMs) * 1000000L);
+        }
+
+        PipelineMetrics.Snapshot snapshot = metrics.snapshot(new StreamData(), new PipelineMetrics.Snapshot());
+        snapshot.timeNs = s * 1000000000L;
+        snapshot.newestFrameTs = s * 1000L;
+        snapshot.jitterDelayMs = jitterMs;
+        return snapshot;
+    }
+
+    private static PipelineMetrics.Snapshot snapshot(long nowMs, long newestTs) {
+        PipelineMetrics.Snapshot snapshot = new PipelineMetrics.Snapshot();
+        snapshot.timeNs = nowMs * 1000000L;
+        snapshot.newestFrameTs = newestTs;
+        return snapshot;
+    }
+
+    /**
+     * A sender streaming at the controller's level over a {@link SimulatedNetwork}, and a
+     * receiver sampling metrics once a second, on a virtual clock.
+     */
+    private static final class Simulation {
+        final QualityController controller;
+        final SimulatedNetwork network = new SimulatedNetwork(8000000, 40, 10, 1);
+        final ArrayDeque<long[]> inFlight = new ArrayDeque<>();
+        final long[] clockNs = new long[1];
+        final JitterBuffer jitterBuffer = new JitterBuffer(new JitterBuffer.Clock() {
+            @Override
+            public long nanoTime() {
+                return clockNs[0];
+            }
+        });
+        PipelineMetrics.Snapshot previous = new PipelineMetrics.Snapshot();
+        long nowMs = 0;
+        long frames = 0;
+        long received = 0;
+        long newestTs = 0;
+        int maxLevel = 0;
+        int probes = 0;
+
+        Simulation(int initialLevel) {
+            this(new QualityController(initialLevel));
+        }
+
+        Simulation(QualityController controller) {
+            this.controller = controller;
+        }
+
+        void run(long untilMs, long bandwidthBps) {
+            network.setBandwidth(bandwidthBps);
+            for (; nowMs < untilMs; nowMs++) {
+                if (nowMs % (1000 / FPS) == 0) {
+                    long ts = frames++ * 1000 / FPS;
+                    int bytes = (int) (BITRATES[controller.getLevel()] / 8 / FPS);
+                    inFlight.add(new long[]{network.send(nowMs, bytes), ts});
+                }
+
+                while (!inFlight.isEmpty() && inFlight.peek()[0] <= nowMs) {
+                    long[] frame = inFlight.poll();
+                    clockNs[0] = frame[0] * 1000000L;
+                    jitterBuffer.onFrameArrived(frame[1]);
+                    newestTs = frame[1];
+                    received++;
+                }
+
+                if (nowMs % 1000 == 0 && nowMs > 0)
+                    sample();
+            }
+        }
+
+        private void sample() {
+            PipelineMetrics.Snapshot current = snapshot(nowMs, newestTs);
+            current.framesReceived = received;
+            current.jitterDelayMs = jitterBuffer.getTargetDelayMs();
+
+            int before = controller.getLevel();
+            int level = controller.onSample(current, previous);
+            if (level < before)
+                probes++;
+            maxLevel = Math.max(maxLevel, level);
+            previous = current;
+        }
+    }
+}
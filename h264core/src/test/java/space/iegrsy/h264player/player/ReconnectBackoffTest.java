@@ -0,0 +1,46 @@
+package space.iegrsy.h264player.player;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class ReconnectBackoffTest {
+    @Test
+    public void doublesUpToMax() {
+        ReconnectBackoff backoff = new ReconnectBackoff(100, 1000, new Random(1));
+        long[] bases = {100, 200, 400, 800, 1000, 1000};
+        for (long base : bases) {
+            long delay = backoff.nextDelayMs();
+            assertTrue(delay + " around " + base, delay >= base * 0.8 && delay <= base * 1.2);
+        }
+        assertEquals(bases.length, backoff.getAttempts());
+    }
+
+    @Test
+    public void resetStartsOver() {
+        ReconnectBackoff backoff = new ReconnectBackoff(100, 1000, new Random(2));
+        for (int i = 0; i < 5; i++)
+            backoff.nextDelayMs();
+
+        backoff.reset();
+        assertEquals(0, backoff.getAttempts());
+        assertTrue(backoff.nextDelayMs() <= 120);
+    }
+
+    @Test
+    public void spreadsDelays() {
+        ReconnectBackoff first = new ReconnectBackoff(1000, 1000, new Random(3));
+        ReconnectBackoff second = new ReconnectBackoff(1000, 1000, new Random(4));
+        boolean differ = false;
+        for (int i = 0; i < 10; i++)
+            differ |= first.nextDelayMs() != second.nextDelayMs();
+        assertTrue(differ);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMaxBelowInitial() {
+        new ReconnectBackoff(1000, 100, new Random());
+    }
+}
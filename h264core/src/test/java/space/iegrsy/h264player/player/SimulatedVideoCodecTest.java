@@ -0,0 +1,199 @@
+package space.iegrsy.h264player.player;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class SimulatedVideoCodecTest {
+    private static final int FRAME_SIZE = 2048;
+
+    private SimulatedVideoCodec.Factory factory;
+    private SimulatedVideoCodec codec;
+
+    @Before
+    public void setUp() {
+        factory = new SimulatedVideoCodec.Factory(4, FRAME_SIZE * 8, 2, 100);
+    }
+
+    @After
+    public void tearDown() {
+        if (codec != null)
+            codec.release();
+    }
+
+    @Test
+    public void formatComesFromSps() {
+        VideoFormat format = VideoFormat.of(VideoFormat.MIME_AVC, params(), 640, 480, 25);
+        assertEquals(1920, format.getWidth());
+        assertEquals(1080, format.getHeight());
+        assertEquals(1920 * 1088 * 3 / 2, format.getMaxInputSize());
+        assertNotNull(format.getSpsInfo());
+
+        StreamData.ParameterSets broken = new StreamData.ParameterSets(new byte[]{0, 0, 0, 1, 0x67}, new byte[]{0, 0, 0, 1, 0x68}, 1);
+        format = VideoFormat.of(VideoFormat.MIME_AVC, broken, 640, 480, 25);
+        assertEquals(640, format.getWidth());
+        assertEquals(25, format.getFrameRate(), 0);
+        assertNull(format.getSpsInfo());
+    }
+
+    @Test
+    public void decodesStreamThroughPipeline() throws Exception {
+        StreamData data = new StreamData();
+        SyntheticStream source = new SyntheticStream(FRAME_SIZE, 10, 1);
+        final int count = 40;
+        for (int i = 0; i < count; i++)
+            data.useFrameData(source.next(), i * 33);
+
+        codec = factory.createDecoder(VideoFormat.of(VideoFormat.MIME_AVC, data.getParameterSets(), 1920, 1080, 30));
+        final CountDownLatch formatChanged = new CountDownLatch(1);
+        final DecodePipeline pipeline = new DecodePipeline(codec, data, data.getParameterSets());
+        pipeline.setListener(new DecodePipeline.Listener() {
+            @Override
+            public void onOutputFormatChanged(int width, int height) {
+                if (width == 1920 && height == 1080)
+                    formatChanged.countDown();
+            }
+
+            @Override
+            public void onFirstFrameRendered() {
+            }
+
+            @Override
+            public boolean onReconfigure(StreamData.ParameterSets params) {
+                return false;
+            }
+
+            @Override
+            public void onError(Exception e) {
+                fail(e.getMessage());
+            }
+        });
+        pipeline.start();
+        Thread input = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                pipeline.runInputStage();
+            }
+        });
+        input.start();
+
+        try {
+            assertTrue(awaitRendered(codec, count, 5000));
+            assertTrue(formatChanged.await(1, TimeUnit.SECONDS));
+            assertEquals(count, pipeline.getRenderedFrameCount());
+        } finally {
+            pipeline.stop();
+            input.join(1000);
+        }
+    }
+
+    @Test
+    public void unreleasedOutputsBackUpInputs() throws Exception {
+        codec = factory.createDecoder(VideoFormat.of(VideoFormat.MIME_AVC, params(), 1920, 1080, 30));
+        final AtomicInteger inputs = new AtomicInteger();
+        final AtomicInteger outputs = new AtomicInteger();
+        final CountDownLatch started = new CountDownLatch(4);
+        codec.setCallback(new Callbacks() {
+            @Override
+            public void onInputBufferAvailable(int index) {
+                inputs.incrementAndGet();
+                started.countDown();
+            }
+
+            @Override
+            public void onOutputBufferAvailable(int index, long presentationTimeUs, int flags) {
+                // Never released.
+                outputs.incrementAndGet();
+            }
+        });
+        codec.start();
+        assertTrue(started.await(1, TimeUnit.SECONDS));
+
+        for (int i = 0; i < 4; i++)
+            codec.queueInputBuffer(i, 0, 16, i, 0);
+        Thread.sleep(200);
+
+        // Two frames fill both outputs, the third waits in the decoder holding nothing; the
+        // fourth stays queued with its input buffer.
+        assertEquals(2, outputs.get());
+        assertEquals(4 + 3, inputs.get());
+        assertEquals(3, codec.getDecodedCount());
+    }
+
+    @Test
+    public void stopRequiresConfigure() {
+        codec = factory.createDecoder(VideoFormat.of(VideoFormat.MIME_AVC, params(), 1920, 1080, 30));
+        codec.setCallback(new Callbacks());
+        codec.start();
+        codec.stop();
+        try {
+            codec.start();
+            fail("Started without configure");
+        } catch (IllegalStateException expected) {
+        }
+
+        codec.configure(VideoFormat.of(VideoFormat.MIME_AVC, params(), 1920, 1080, 30));
+        codec.start();
+    }
+
+    @Test
+    public void stallsEveryNthFrame() throws Exception {
+        factory.setStall(5, 1);
+        codec = factory.createDecoder(VideoFormat.of(VideoFormat.MIME_AVC, params(), 1920, 1080, 30));
+        final CountDownLatch rendered = new CountDownLatch(20);
+        codec.setCallback(new Callbacks() {
+            @Override
+            public void onInputBufferAvailable(int index) {
+                codec.queueInputBuffer(index, 0, 16, 0, 0);
+            }
+
+            @Override
+            public void onOutputBufferAvailable(int index, long presentationTimeUs, int flags) {
+                codec.releaseOutputBuffer(index, true);
+                rendered.countDown();
+            }
+        });
+        codec.start();
+
+        assertTrue(rendered.await(2, TimeUnit.SECONDS));
+        assertTrue(codec.getStallCount() >= 20 / 5);
+    }
+
+    private static StreamData.ParameterSets params() {
+        return new StreamData.ParameterSets(SpsParserTest.HIGH_1080, new byte[]{0, 0, 0, 1, 0x68, 1}, 1);
+    }
+
+    private static boolean awaitRendered(SimulatedVideoCodec codec, int count, long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (codec.getRenderedCount() < count) {
+            if (System.currentTimeMillis() > deadline)
+                return false;
+            Thread.sleep(1);
+        }
+        return true;
+    }
+
+    private static class Callbacks implements VideoCodec.Callback {
+        @Override
+        public void onInputBufferAvailable(int index) {
+        }
+
+        @Override
+        public void onOutputBufferAvailable(int index, long presentationTimeUs, int flags) {
+        }
+
+        @Override
+        public void onOutputFormatChanged(int width, int height) {
+        }
+
+        @Override
+        public void onError(Exception e) {
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package space.iegrsy.h264player.player;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.*;
+
+public class SpsParserTest {
+    // Baseline 3.0, 640x480, no VUI.
+    static final byte[] BASELINE_VGA = {
+            0, 0, 0, 1, 0x67, 0x42, (byte) 0xc0, 0x1e, (byte) 0xda, 0x02, (byte) 0x80, (byte) 0xf6, 0x40
+    };
+
+    // High 4.0, 1920x1088 cropped to 1080, one scaling list, VUI with extended SAR, colour
+    // description, 25 fps timing, NAL HRD and no reordering. Contains emulation prevention bytes.
+    static final byte[] HIGH_1080 = {
+            0, 0, 0, 1, 0x67, 0x64, 0x00, 0x28, (byte) 0xad, (byte) 0x84, 0x3f, (byte) 0xff, (byte) 0x80,
+            (byte) 0xca, 0x50, 0x1e, 0x00, (byte) 0x89, (byte) 0xf9, 0x7f, (byte) 0xf0, 0x00, 0x10, 0x00,
+            0x16, (byte) 0xa0, 0x20, 0x20, 0x28, 0x00, 0x00, 0x03, 0x00, 0x08, 0x00, 0x00, 0x03, 0x01,
+            (byte) 0x97, 0x00, (byte) 0xc0, 0x00, 0x00, 0x3c, 0x22, 0x11, (byte) 0xa8
+    };
+
+    private final SpsParser parser = new SpsParser();
+
+    @Test
+    public void parsesBaselineWithoutVui() {
+        SpsInfo sps = new SpsInfo();
+        assertTrue(parser.parse(BASELINE_VGA, sps));
+        assertEquals(66, sps.profileIdc);
+        assertEquals(30, sps.levelIdc);
+        assertEquals(640, sps.width);
+        assertEquals(480, sps.height);
+        assertEquals(1, sps.maxNumRefFrames);
+        assertEquals(0, sps.frameRate, 0);
+        assertEquals(SpsInfo.UNKNOWN, sps.maxNumReorderFrames);
+    }
+
+    @Test
+    public void parsesHighProfileCroppingAndVui() {
+        SpsInfo sps = new SpsInfo();
+        assertTrue(parser.parse(HIGH_1080, sps));
+        assertEquals(100, sps.profileIdc);
+        assertEquals(40, sps.levelIdc);
+        assertEquals(1, sps.chromaFormatIdc);
+        assertEquals(1920, sps.codedWidth);
+        assertEquals(1088, sps.codedHeight);
+        assertEquals(1920, sps.width);
+        assertEquals(1080, sps.height);
+        assertEquals(25.0, sps.frameRate, 1e-9);
+        assertTrue(sps.fixedFrameRate);
+        assertEquals(0, sps.maxNumReorderFrames);
+        assertEquals(1, sps.maxDecFrameBuffering);
+    }
+
+    @Test
+    public void rejectsTruncatedAndForeignNalUnits() {
+        SpsInfo sps = new SpsInfo();
+        assertFalse(parser.parse(Arrays.copyOf(HIGH_1080, 20), sps));
+        assertFalse(parser.parse(new byte[]{0, 0, 0, 1, 0x68, (byte) 0xce, 0x3c, (byte) 0x80}, sps));
+
+        // The parser is reusable after a failure.
+        assertTrue(parser.parse(BASELINE_VGA, sps));
+        assertEquals(640, sps.width);
+    }
+
+    @Test
+    public void readsExpGolombAcrossEmulationPrevention() {
+        // 00 00 03 01: the 03 is dropped, leaving 0x00 0x00 0x01 -> 23 zero bits then ue(0) = 1.
+        BitReader reader = new BitReader().reset(new byte[]{0, 0, 3, 1}, 0, 4);
+        reader.skipBits(16);
+        assertEquals(0, reader.readBits(7));
+        assertEquals(0, reader.readUE());
+        assertFalse(reader.isOverrun());
+        assertEquals(0, reader.readBit());
+        assertTrue(reader.isOverrun());
+
+        reader.reset(new byte[]{(byte) 0b00101010}, 0, 1);
+        assertEquals(-2, reader.readSE()); // 00101 -> ue 4
+        assertEquals(1, reader.readSE()); // 010 -> ue 1
+    }
+}
@@ -0,0 +1,201 @@
+package space.iegrsy.h264player.player;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+public class StreamCacheTest {
+    private static final byte[] PPS = {0, 0, 0, 1, 0x68, (byte) 0xce};
+
+    private File file;
+    private StreamCache cache;
+
+    @Before
+    public void setUp() throws Exception {
+        file = File.createTempFile("stream", ".cache");
+        cache = StreamCache.open(file, 64 * 1024);
+    }
+
+    @After
+    public void tearDown() throws Exception {
+        if (file.exists())
+            cache.close();
+    }
+
+    @Test
+    public void replaysFromKeyFrameBeforeSeek() {
+        List<byte[]> frames = new ArrayList<>();
+        for (int i = 0; i < 30; i++) {
+            byte[] frame = frame(i % 10 == 0, i);
+            frames.add(frame);
+            assertEquals(i % 10 == 0, cache.append(ByteBuffer.wrap(frame), i * 40));
+        }
+        assertEquals(3, cache.getKeyFrameCount());
+        assertTrue(cache.contains(0));
+        assertTrue(cache.contains(1160));
+        assertFalse(cache.contains(1200));
+
+        StreamCache.Replay replay = cache.replay(500);
+        for (int i = 10; i < 30; i++) {
+            assertTrue(replay.next());
+            assertEquals(i * 40, replay.getTs());
+            assertEquals(i == 10 || i == 20, replay.isKeyFrame());
+            assertArrayEquals(frames.get(i), bytes(replay.getData()));
+        }
+        assertFalse(replay.next());
+        assertEquals(0, replay.getRemaining());
+
+        cache.append(ByteBuffer.wrap(frame(false, 30)), 1200);
+        assertEquals(1, replay.getRemaining());
+        assertTrue(replay.next());
+        assertEquals(1200, replay.getTs());
+        replay.close();
+    }
+
+    @Test
+    public void evictsOldestOnceFull() {
+        // 24 byte headers plus 1000 byte frames: 64 of them fit.
+        for (int i = 0; i < 200; i++)
+            cache.append(ByteBuffer.wrap(frame(i % 10 == 0, i)), i * 40);
+
+        assertTrue(cache.getRecordCount() <= 64);
+        assertTrue(cache.getOldestTs() > 0);
+        assertEquals(199 * 40, cache.getNewestTs());
+        assertFalse(cache.contains(0));
+
+        // Replays across the wrap read the frames as written.
+        StreamCache.Replay replay = cache.replay(cache.getOldestTs());
+        int count = 0;
+        while (replay.next()) {
+            int i = (int) (replay.getTs() / 40);
+            assertArrayEquals(frame(i % 10 == 0, i), bytes(replay.getData()));
+            count++;
+        }
+        assertEquals((cache.getNewestTs() - cache.getOldestTs()) / 40 + 1, count);
+        replay.close();
+    }
+
+    @Test
+    public void pinnedRecordsAreNotOverwritten() {
+        for (int i = 0; i < 40; i++)
+            cache.append(ByteBuffer.wrap(frame(i % 10 == 0, i)), i * 40);
+
+        StreamCache.Replay replay = cache.replay(cache.getOldestTs());
+        assertTrue(replay.next());
+        ByteBuffer first = replay.getData();
+        long firstTs = replay.getTs();
+        int i = 40;
+        for (; i < 200 && cache.getDroppedFrameCount() == 0; i++)
+            cache.append(ByteBuffer.wrap(frame(i % 10 == 0, i)), i * 40);
+
+        assertTrue(cache.getDroppedFrameCount() > 0);
+        int n = (int) (firstTs / 40);
+        assertArrayEquals(frame(n % 10 == 0, n), bytes(first));
+
+        // Recording goes on from the next IDR once the replay lets go.
+        replay.close();
+        long dropped = cache.getDroppedFrameCount();
+        int skipped = 0;
+        for (; i % 10 != 0; i++, skipped++)
+            cache.append(ByteBuffer.wrap(frame(false, i)), i * 40);
+        assertEquals(dropped + skipped, cache.getDroppedFrameCount());
+        cache.append(ByteBuffer.wrap(frame(true, i)), i * 40);
+        assertEquals(i * 40, cache.getNewestTs());
+    }
+
+    @Test
+    public void keyFramesCarryParameterSets() {
+        byte[] withHeaders = frame(true, 0);
+        cache.append(ByteBuffer.wrap(withHeaders), 0);
+        byte[] bare = bare(true, 1);
+        cache.append(ByteBuffer.wrap(bare), 40);
+
+        StreamCache.Replay replay = cache.replay(40);
+        assertTrue(replay.next());
+        byte[] replayed = bytes(replay.getData());
+        assertEquals(SpsParserTest.BASELINE_VGA.length + PPS.length + bare.length, replayed.length);
+
+        NalIndex nals = NalIndex.of(replayed);
+        assertTrue(nals.contains(NalIndex.TYPE_SPS));
+        assertTrue(nals.contains(NalIndex.TYPE_PPS));
+        assertTrue(nals.isKeyFrame());
+        replay.close();
+    }
+
+    @Test
+    public void startsOverWhenTimeGoesBack() {
+        for (int i = 0; i < 20; i++)
+            cache.append(ByteBuffer.wrap(frame(i % 10 == 0, i)), 10000 + i * 40);
+        StreamCache.Replay replay = cache.replay(10000);
+
+        // A P frame after a seek back is not recorded, the following IDR is.
+        cache.append(ByteBuffer.wrap(frame(false, 1)), 400);
+        assertEquals(0, cache.getRecordCount());
+        assertFalse(replay.next());
+        cache.append(ByteBuffer.wrap(frame(true, 2)), 440);
+        assertEquals(440, cache.getOldestTs());
+        assertFalse(cache.contains(10000));
+    }
+
+    @Test
+    public void recordsChunkedFrames() {
+        BufferPool pool = new BufferPool(1024 * 1024, false);
+        byte[] frame = frame(true, 7);
+        List<PooledBuffer> chunks = new ArrayList<>();
+        for (int from = 0; from < frame.length; from += 300) {
+            int length = Math.min(300, frame.length - from);
+            PooledBuffer chunk = pool.acquire(length);
+            chunk.buffer().put(frame, from, length).flip();
+            chunks.add(chunk);
+        }
+        ScatterBuffer data = new ScatterBuffer(chunks);
+
+        assertTrue(cache.append(data, 0));
+        assertEquals(frame.length, data.size());
+        StreamCache.Replay replay = cache.replay(0);
+        assertTrue(replay.next());
+        assertArrayEquals(frame, bytes(replay.getData()));
+        replay.close();
+        data.release();
+    }
+
+    @Test
+    public void closeDeletesFile() throws Exception {
+        cache.append(ByteBuffer.wrap(frame(true, 0)), 0);
+        cache.close();
+        assertFalse(file.exists());
+    }
+
+    /**
+     * A 1000 byte access unit; IDRs start with SPS and PPS.
+     */
+    private static byte[] frame(boolean key, int id) {
+        ByteBuffer frame = ByteBuffer.allocate(1000);
+        if (key)
+            frame.put(SpsParserTest.BASELINE_VGA).put(PPS);
+        frame.put(bare(key, id), 0, frame.remaining());
+        return frame.array();
+    }
+
+    private static byte[] bare(boolean key, int id) {
+        byte[] slice = new byte[1000];
+        slice[3] = 1;
+        slice[4] = (byte) (key ? 0x65 : 0x41);
+        for (int i = 5; i < slice.length; i++)
+            slice[i] = (byte) (id + i | 0x80);
+        return slice;
+    }
+
+    private static byte[] bytes(ByteBuffer buffer) {
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.duplicate().get(bytes);
+        return bytes;
+    }
+}
@@ -0,0 +1,54 @@
+package space.iegrsy.h264player.player;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+public class StreamCreditsTest {
+    @Test
+    public void grantsFullWindowUpFront() {
+        StreamCredits credits = new StreamCredits(8, 30);
+        assertEquals(8, credits.grant(0));
+        assertEquals(8, credits.getOutstanding());
+        assertEquals(0, credits.grant(0));
+    }
+
+    @Test
+    public void topsUpInBatches() {
+        StreamCredits credits = new StreamCredits(8, 30);
+        credits.grant(0);
+        for (int i = 0; i < 3; i++)
+            credits.onMessage();
+        assertEquals(0, credits.grant(0));
+
+        credits.onMessage();
+        assertEquals(4, credits.grant(0));
+        assertEquals(8, credits.getOutstanding());
+    }
+
+    @Test
+    public void holdsOffWhileDecoderIsBehind() {
+        StreamCredits credits = new StreamCredits(8, 30);
+        credits.grant(0);
+        for (int i = 0; i < 8; i++)
+            credits.onMessage();
+
+        assertEquals(0, credits.grant(30));
+        assertEquals(1, credits.getPausedCount());
+        // Only what still fits in the queue.
+        assertEquals(2, credits.grant(28));
+        credits.onMessage();
+        credits.onMessage();
+        assertEquals(8, credits.grant(10));
+    }
+
+    @Test
+    public void ignoresMessagesBeyondCredits() {
+        StreamCredits credits = new StreamCredits(4, 30);
+        credits.onMessage();
+        assertEquals(0, credits.getOutstanding());
+        assertEquals(4, credits.grant(0));
+        credits.reset();
+        assertEquals(4, credits.grant(0));
+    }
+}
@@ -0,0 +1,249 @@
+package space.iegrsy.h264player.player;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.*;
+
+public class StreamDataTest {
+    private static final byte[] IDR = {0, 0, 0, 1, 0x65, 1};
+    private static final byte[] P = {0, 0, 0, 1, 0x41, 1};
+
+    private int nextID = 0;
+
+    @Test
+    public void keepsEveryFrameOutsideLiveMode() {
+        StreamData data = new StreamData();
+        addGop(data, 0, 10);
+        addGop(data, 1000, 10);
+
+        for (int i = 0; i < 20; i++)
+            assertEquals(i, data.pollFrame().id);
+        assertNull(data.pollFrame());
+    }
+
+    @Test
+    public void jumpsToNewestKeyFrameOverBudget() {
+        StreamData data = new StreamData();
+        data.setLatencyBudgetMs(300);
+        addGop(data, 0, 10);
+        addGop(data, 400, 10);
+        addGop(data, 800, 5);
+
+        StreamData.RAWFrame frame = data.pollFrame();
+        assertEquals(20, frame.id);
+        assertTrue(frame.isKeyFrame());
+        assertEquals(20, data.getSkippedFrameCount());
+        assertEquals(800, data.getSkippedTimeMs());
+    }
+
+    @Test
+    public void keepsBacklogWithoutNewerKeyFrame() {
+        StreamData data = new StreamData();
+        data.setLatencyBudgetMs(100);
+        addGop(data, 0, 20);
+
+        assertEquals(0, data.pollFrame().id);
+        assertEquals(1, data.pollFrame().id);
+        assertEquals(0, data.getSkippedFrameCount());
+    }
+
+    @Test
+    public void versionsParameterSetsOnChange() throws Exception {
+        StreamData data = new StreamData();
+        data.useFrameData(accessUnit(SpsParserTest.BASELINE_VGA), 0);
+        data.useFrameData(accessUnit(SpsParserTest.BASELINE_VGA), 40);
+        data.useFrameData(accessUnit(SpsParserTest.HIGH_1080), 80);
+
+        StreamData.ParameterSets first = data.pollFrame().getParameterSets();
+        assertEquals(1, first.getVersion());
+        assertArrayEquals(SpsParserTest.BASELINE_VGA, first.getSps());
+        assertSame(first, data.pollFrame().getParameterSets());
+
+        StreamData.ParameterSets second = data.pollFrame().getParameterSets();
+        assertEquals(2, second.getVersion());
+        assertArrayEquals(SpsParserTest.HIGH_1080, second.getSps());
+        assertSame(second, data.getParameterSets());
+        assertArrayEquals(SpsParserTest.HIGH_1080, data.getHeader_sps());
+    }
+
+    @Test
+    public void becomesReadyAtFirstKeyFrame() throws Exception {
+        final StreamData data = new StreamData();
+        ByteBuffer p = ByteBuffer.allocate(400);
+        p.put(new byte[]{0, 0, 0, 1, 0x41});
+        p.rewind();
+        data.useFrameData(p, 0);
+        assertFalse(data.isReady());
+        assertFalse(data.awaitReady(10, TimeUnit.MILLISECONDS));
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    Thread.sleep(20);
+                    data.useFrameData(accessUnit(SpsParserTest.BASELINE_VGA), 40);
+                } catch (Exception e) {
+                    throw new RuntimeException(e);
+                }
+            }
+        }).start();
+
+        assertTrue(data.awaitReady(2, TimeUnit.SECONDS));
+        StreamData.RAWFrame first = data.pollFrame();
+        assertTrue(first.isKeyFrame());
+        assertEquals(40, first.ts);
+        assertNull(data.pollFrame());
+
+        data.clearAll();
+        assertFalse(data.isReady());
+    }
+
+    @Test
+    public void seekDropsFramesUntilKeyFrameNearTarget() throws Exception {
+        StreamData data = new StreamData();
+        data.useFrameData(accessUnit(SpsParserTest.BASELINE_VGA), 0);
+        data.useFrameData(slice(0x41), 40);
+
+        data.flush(5000);
+        // Still in flight from the old position, then an IDR far from the target.
+        data.useFrameData(slice(0x41), 80);
+        data.useFrameData(accessUnit(SpsParserTest.BASELINE_VGA), 20000);
+        data.useFrameData(accessUnit(SpsParserTest.BASELINE_VGA), 4800);
+        data.useFrameData(slice(0x41), 4840);
+
+        StreamData.RAWFrame frame = data.pollFrame();
+        assertEquals(4800, frame.ts);
+        assertEquals(1, frame.getGeneration());
+        assertEquals(4840, data.pollFrame().ts);
+        assertNull(data.pollFrame());
+        assertEquals(4, data.getMetrics().snapshot(data, new PipelineMetrics.Snapshot()).getFramesSkipped());
+    }
+
+    @Test
+    public void filtersFramesForFastPlay() throws Exception {
+        StreamData data = new StreamData();
+        data.useFrameData(accessUnit(SpsParserTest.BASELINE_VGA), 0);
+        data.setFrameFilter(FrameFilter.REFERENCE_ONLY);
+        data.useFrameData(slice(0x41), 40);
+        data.useFrameData(slice(0x01), 80);
+
+        data.setFrameFilter(FrameFilter.KEY_FRAMES_ONLY);
+        data.useFrameData(slice(0x41), 120);
+        // Back to every frame from the next IDR on.
+        data.setFrameFilter(FrameFilter.ALL);
+        data.useFrameData(slice(0x41), 160);
+        data.useFrameData(accessUnit(SpsParserTest.BASELINE_VGA), 200);
+        data.useFrameData(slice(0x01), 240);
+
+        for (long ts : new long[]{0, 40, 200, 240})
+            assertEquals(ts, data.pollFrame().ts);
+        assertNull(data.pollFrame());
+    }
+
+    @Test
+    public void countsGopOfReceivedFrames() throws Exception {
+        StreamData data = new StreamData();
+        data.setFrameFilter(FrameFilter.KEY_FRAMES_ONLY);
+        data.useFrameData(accessUnit(SpsParserTest.BASELINE_VGA), 0);
+        assertNull(data.getGopInfo());
+        for (int i = 1; i < 10; i++)
+            data.useFrameData(slice(i % 3 == 0 ? 0x01 : 0x41), i * 40);
+        data.useFrameData(accessUnit(SpsParserTest.BASELINE_VGA), 400);
+
+        StreamData.GopInfo gop = data.getGopInfo();
+        assertEquals(10, gop.getFrames());
+        assertEquals(7, gop.getReferenceFrames());
+        assertEquals(400, gop.getDurationMs());
+        assertEquals(25.0, gop.getFrameRate(), 1e-9);
+    }
+
+    @Test
+    public void queuesSmallFrames() throws Exception {
+        StreamData data = new StreamData();
+        data.useFrameData(accessUnit(SpsParserTest.BASELINE_VGA), 0);
+        data.useFrameData(new byte[]{0, 0, 1, 0x41, (byte) 0x88}, 40);
+
+        assertEquals(0, data.pollFrame().ts);
+        assertEquals(5, data.pollFrame().size());
+    }
+
+    @Test
+    public void stripsRepeatedSeiAndParameterSets() throws Exception {
+        StreamData data = new StreamData();
+        byte[] sei = {0, 0, 0, 1, 0x06, 0x05, 0x01, 0x00, (byte) 0x80};
+        byte[] changed = {0, 0, 0, 1, 0x06, 0x05, 0x01, 0x01, (byte) 0x80};
+        byte[][] seis = {sei, sei, changed};
+        for (int i = 0; i < seis.length; i++) {
+            ByteBuffer au = accessUnit(SpsParserTest.BASELINE_VGA);
+            ByteBuffer withSei = ByteBuffer.allocate(au.remaining() + seis[i].length);
+            withSei.put(seis[i]).put(au).flip();
+            data.useFrameData(withSei, i * 40);
+        }
+
+        // The first IDR keeps its SEI and parameter sets, the second has both already.
+        StreamData.RAWFrame first = data.pollFrame();
+        NalIndex nals = NalIndex.of(copy(first));
+        assertEquals(4, nals.count());
+        assertTrue(nals.contains(NalIndex.TYPE_SPS));
+        assertTrue(nals.contains(NalIndex.TYPE_SEI));
+        assertEquals(accessUnit(SpsParserTest.BASELINE_VGA).remaining() + sei.length, first.size());
+
+        byte[] second = copy(data.pollFrame());
+        nals = NalIndex.of(second);
+        assertEquals(1, nals.count());
+        assertTrue(nals.isKeyFrame());
+        assertEquals(400, second.length);
+
+        // A changed SEI goes through.
+        StreamData.RAWFrame third = data.pollFrame();
+        nals = NalIndex.of(copy(third));
+        assertEquals(2, nals.count());
+        assertEquals(NalIndex.TYPE_SEI, nals.type(0));
+
+        third.keepAll();
+        assertEquals(accessUnit(SpsParserTest.BASELINE_VGA).remaining() + changed.length, third.size());
+        assertEquals(4, NalIndex.of(copy(third)).count());
+    }
+
+    private static byte[] copy(StreamData.RAWFrame frame) {
+        ByteBuffer dst = ByteBuffer.allocate(frame.size());
+        frame.copyTo(dst);
+        assertFalse(dst.hasRemaining());
+        return dst.array();
+    }
+
+    private static ByteBuffer slice(int header) {
+        ByteBuffer slice = ByteBuffer.allocate(400);
+        // first_mb_in_slice 0: each one a picture of its own.
+        slice.put(new byte[]{0, 0, 0, 1, (byte) header, (byte) 0x88});
+        while (slice.hasRemaining())
+            slice.put((byte) 0x55);
+        slice.flip();
+        return slice;
+    }
+
+    private static ByteBuffer accessUnit(byte[] sps) {
+        ByteBuffer au = ByteBuffer.allocate(sps.length + 6 + 400);
+        au.put(sps);
+        au.put(new byte[]{0, 0, 0, 1, 0x68, (byte) 0xce});
+        au.put(new byte[]{0, 0, 0, 1, 0x65, (byte) 0x88});
+        while (au.hasRemaining())
+            au.put((byte) 0x55);
+        au.flip();
+        return au;
+    }
+
+    private void addGop(StreamData data, long ts, int count) {
+        for (int i = 0; i < count; i++) {
+            StreamData.RAWFrame frame = new StreamData.RAWFrame(nextID++);
+            byte[] payload = i == 0 ? IDR : P;
+            frame.frameData = ByteBuffer.wrap(payload);
+            frame.nals = NalIndex.of(payload);
+            frame.ts = ts + i * 40;
+            data.addFrame(frame);
+        }
+    }
+}